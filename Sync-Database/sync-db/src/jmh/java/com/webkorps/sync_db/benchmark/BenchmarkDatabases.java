@@ -0,0 +1,67 @@
+package com.webkorps.sync_db.benchmark;
+
+import com.webkorps.sync_db.TestDatabases;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embedded H2 databases standing in for MySQL and PostgreSQL in the benchmarks.
+ */
+final class BenchmarkDatabases {
+
+    static final int SEED_BATCH_SIZE = 5000;
+
+    // seeded users get the same id on both sides, in the range of ids shared between the databases
+    private static final long FIRST_ID = 1L << 62;
+
+    private BenchmarkDatabases() {
+    }
+
+    /** In-memory database in the given compatibility mode ("MySQL" or "PostgreSQL"), behind a Hikari pool */
+    static HikariDataSource inMemory(String name, String mode) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";MODE=" + mode + ";DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setMaximumPoolSize(10);
+        return dataSource;
+    }
+
+    /** The tables the JPA entities map to, as the tests create them */
+    static void createUsersTable(JdbcTemplate jdbcTemplate) {
+        TestDatabases.createSchema(jdbcTemplate);
+    }
+
+    static String email(int i) {
+        return String.format("user%08d@example.com", i);
+    }
+
+    /** Id of the user with the given {@link #email(int)} */
+    static long id(String email) {
+        return FIRST_ID + Integer.parseInt(email.substring(4, 12));
+    }
+
+    static void insertUsers(JdbcTemplate jdbcTemplate, List<String> emails) {
+        for (int from = 0; from < emails.size(); from += SEED_BATCH_SIZE) {
+            List<String> batch = emails.subList(from, Math.min(emails.size(), from + SEED_BATCH_SIZE));
+            jdbcTemplate.batchUpdate("INSERT INTO users (id, name, email, modified_at) VALUES (?, ?, ?, ?)", batch,
+                    batch.size(), (ps, email) -> {
+                        ps.setLong(1, id(email));
+                        ps.setString(2, "User " + email);
+                        ps.setString(3, email);
+                        ps.setLong(4, 1L);
+                    });
+        }
+    }
+
+    static void deleteUsers(JdbcTemplate jdbcTemplate, List<String> emails) {
+        for (int from = 0; from < emails.size(); from += SEED_BATCH_SIZE) {
+            List<String> batch = new ArrayList<>(emails.subList(from, Math.min(emails.size(), from + SEED_BATCH_SIZE)));
+            jdbcTemplate.batchUpdate("DELETE FROM users WHERE email = ?", batch, batch.size(),
+                    (ps, email) -> ps.setString(1, email));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.webkorps.sync_db.benchmark;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.sync.LastWriterWinsPolicy;
+import com.webkorps.sync_db.sync.ReconciliationResult;
+import com.webkorps.sync_db.sync.SyncBatchStats;
+import com.webkorps.sync_db.sync.SyncConnectionBudget;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserReconciliationEngine;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full reconciliation pass between two embedded databases.
+ * <p>
+ * {@code divergence} is the fraction of users that exist on one side only, split evenly between
+ * the two sides. Each pass copies them over, so the divergence is restored before every iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ReconciliationBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"0", "0.01", "0.1"})
+    public double divergence;
+
+    @Param({"1000"})
+    public int pageSize;
+
+    @Param({"1", "8"})
+    public int partitions;
+
+    @Param({"4"})
+    public int threads;
+
+    // per database, as with a pool of 10 and the default reserve of 4
+    @Param({"6"})
+    public int connections;
+
+    private HikariDataSource mysql;
+    private HikariDataSource postgres;
+    private JdbcTemplate mysqlJdbc;
+    private JdbcTemplate postgresJdbc;
+    private final List<String> missingInMysql = new ArrayList<>();
+    private final List<String> missingInPostgres = new ArrayList<>();
+    private UserReconciliationEngine engine;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        mysql = BenchmarkDatabases.inMemory("reconcile-mysql", "MySQL");
+        postgres = BenchmarkDatabases.inMemory("reconcile-postgres", "PostgreSQL");
+        mysqlJdbc = new JdbcTemplate(mysql);
+        postgresJdbc = new JdbcTemplate(postgres);
+        BenchmarkDatabases.createUsersTable(mysqlJdbc);
+        BenchmarkDatabases.createUsersTable(postgresJdbc);
+
+        int every = divergence > 0 ? (int) Math.round(1 / divergence) : 0;
+        List<String> onMysql = new ArrayList<>(users);
+        List<String> onPostgres = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String email = BenchmarkDatabases.email(i);
+            boolean diverged = every > 0 && i % every == 0;
+            if (!diverged || (i / every) % 2 == 0) {
+                onMysql.add(email);
+            } else {
+                missingInMysql.add(email);
+            }
+            if (!diverged || (i / every) % 2 == 1) {
+                onPostgres.add(email);
+            } else {
+                missingInPostgres.add(email);
+            }
+        }
+        BenchmarkDatabases.insertUsers(mysqlJdbc, onMysql);
+        BenchmarkDatabases.insertUsers(postgresJdbc, onPostgres);
+
+        engine = new UserReconciliationEngine(
+                new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql),
+                new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres),
+                new UserCache(10_000, 30_000, 600_000),
+                new SyncConnectionBudget(connections, connections),
+                new LastWriterWinsPolicy(),
+                threads,
+                new SyncBatchStats());
+        ReflectionTestUtils.setField(engine, "pageSize", pageSize);
+        ReflectionTestUtils.setField(engine, "batchSize", 500);
+        ReflectionTestUtils.setField(engine, "partitionCount", partitions);
+        ReflectionTestUtils.setField(engine, "checkpointEvery", 10_000);
+    }
+
+    @Setup(Level.Iteration)
+    public void restoreDivergence() {
+        BenchmarkDatabases.deleteUsers(mysqlJdbc, missingInMysql);
+        BenchmarkDatabases.deleteUsers(postgresJdbc, missingInPostgres);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        engine.stop();
+        mysqlJdbc.execute("SHUTDOWN");
+        postgresJdbc.execute("SHUTDOWN");
+        mysql.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public ReconciliationResult reconcile() throws SQLException {
+        return engine.reconcile();
+    }
+}
@@ -0,0 +1,192 @@
+package com.webkorps.sync_db.benchmark;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.SyncDbApplication;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.service.UserFailoverService;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * {@code saveUser} and {@code getAllUsers} through the full Spring context, with both databases
+ * up, with MySQL down (failover to PostgreSQL) and with both down.
+ * <p>
+ * Each database is an in-memory H2 instance served over TCP, so a database goes down by stopping
+ * its server: pooled connections break and the health monitor opens the circuit, as with a real outage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestPathBenchmark {
+
+    public enum Health { HEALTHY, DEGRADED, DOWN }
+
+    @Param
+    public Health health;
+
+    @Param({"1000"})
+    public int users;
+
+    private Server mysqlServer;
+    private Server postgresServer;
+    private ConfigurableApplicationContext context;
+    private UserFailoverService userFailoverService;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        mysqlServer = Server.createTcpServer("-tcpPort", String.valueOf(freePort()), "-ifNotExists").start();
+        postgresServer = Server.createTcpServer("-tcpPort", String.valueOf(freePort()), "-ifNotExists").start();
+        // Hibernate cannot create the generated email hash column on H2, so the tables are there before it looks
+        createSchema(url("link", mysqlServer, "MySQL"));
+        createSchema(url("dlink", postgresServer, "PostgreSQL"));
+
+        // command line arguments, so they win over application.properties
+        List<String> args = new ArrayList<>();
+        args.addAll(datasourceArgs("link", mysqlServer, "MySQL"));
+        args.addAll(datasourceArgs("dlink", postgresServer, "PostgreSQL"));
+        args.addAll(List.of(
+                "--sync.health.probe-interval-ms=50",
+                "--sync.health.failure-threshold=1",
+                "--sync.health.open-duration-ms=3600000",
+                "--spring.main.banner-mode=off",
+                "--logging.level.com.webkorps.sync_db=WARN",
+                "--logging.level.com.zaxxer.hikari=OFF",
+                "--logging.level.org.hibernate=WARN"));
+
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        context = new SpringApplicationBuilder(SyncDbApplication.class)
+                .web(WebApplicationType.NONE)
+                .initializers(application -> application.addBeanFactoryPostProcessor(RequestPathBenchmark::useH2Stores))
+                .run(args.toArray(String[]::new));
+        userFailoverService = context.getBean(UserFailoverService.class);
+
+        List<String> emails = IntStream.range(0, users).mapToObj(BenchmarkDatabases::email).toList();
+        BenchmarkDatabases.insertUsers(new JdbcTemplate(context.getBean("mysqlDataSource", DataSource.class)), emails);
+        BenchmarkDatabases.insertUsers(new JdbcTemplate(context.getBean("postgresDataSource", DataSource.class)), emails);
+
+        DatabaseHealthMonitor healthMonitor = context.getBean(DatabaseHealthMonitor.class);
+        if (health != Health.HEALTHY) {
+            mysqlServer.stop();
+            await(() -> !healthMonitor.isMysqlAvailable());
+        }
+        if (health == Health.DOWN) {
+            postgresServer.stop();
+            await(() -> !healthMonitor.isPostgresAvailable());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+        mysqlServer.stop();
+        postgresServer.stop();
+    }
+
+    @Benchmark
+    public void saveUser(Blackhole blackhole) {
+        User user = new User("Bench User", "bench" + sequence.incrementAndGet() + "@example.com");
+        try {
+            blackhole.consume(userFailoverService.saveUser(user));
+        } catch (RuntimeException e) {
+            // expected while both databases are down
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public List<User> getAllUsers() {
+        return userFailoverService.getAllUsers();
+    }
+
+    private static List<String> datasourceArgs(String prefix, Server server, String mode) {
+        return List.of("--spring.datasource." + prefix + ".url=" + url(prefix, server, mode),
+                "--spring.datasource." + prefix + ".username=sa",
+                "--spring.datasource." + prefix + ".password=",
+                "--spring.datasource." + prefix + ".driver-class-name=org.h2.Driver",
+                "--spring.datasource." + prefix + ".jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect");
+    }
+
+    private static String url(String prefix, Server server, String mode) {
+        return "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:" + prefix + ";MODE=" + mode
+                + ";DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+
+    private static void createSchema(String url) {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(url, "sa", "", false);
+        try {
+            TestDatabases.createSchema(new JdbcTemplate(dataSource));
+        } finally {
+            dataSource.destroy();
+        }
+    }
+
+    /** The application only builds stores for the server dialects, so they are redefined over H2 */
+    private static void useH2Stores(ConfigurableListableBeanFactory beanFactory) {
+        BeanDefinitionRegistry registry = (BeanDefinitionRegistry) beanFactory;
+        Map.of("mysql", "MySQL", "postgres", "PostgreSQL").forEach((prefix, name) -> {
+            BeanDefinition original = registry.getBeanDefinition(prefix + "UserStore");
+            RootBeanDefinition store = new RootBeanDefinition(UserJdbcStore.class, () -> new UserJdbcStore(name,
+                    H2SqlDialect.INSTANCE, beanFactory.getBean(prefix + "DataSource", DataSource.class)));
+            store.setLazyInit(original.isLazyInit());
+            store.setPrimary(original.isPrimary());
+            registry.removeBeanDefinition(prefix + "UserStore");
+            registry.registerBeanDefinition(prefix + "UserStore", store);
+        });
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Health monitor did not pick up the outage within 30s");
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.webkorps.sync_db.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.webkorps.sync_db.entity.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Bounded in-process cache of user lookups by id and by email.
+ * <p>
+ * Users are stored once, keyed by email, with a small id to email index next to them, so
+ * invalidating an email (which is all the sync engine knows about a row) also invalidates
+ * lookups by id. Entries are fresh for {@code sync.cache.fresh-ttl-ms}; after that they are only
+ * served while no database is available, until they expire for good after {@code sync.cache.stale-ttl-ms}.
+ */
+@Component
+public class UserCache implements MeterBinder {
+
+    private record Entry(User user, long loadedAtNanos) {
+    }
+
+    // Hits and misses are recorded here by freshness, Caffeine itself only records evictions
+    private final StatsCounter statsCounter = new ConcurrentStatsCounter();
+    private final Cache<String, Entry> byEmail;
+    private final Cache<Long, String> emailById;
+    private final long freshNanos;
+
+    public UserCache(@Value("${sync.cache.maximum-size:10000}") long maximumSize,
+                     @Value("${sync.cache.fresh-ttl-ms:30000}") long freshTtlMillis,
+                     @Value("${sync.cache.stale-ttl-ms:600000}") long staleTtlMillis) {
+        this.byEmail = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(staleTtlMillis))
+                .recordStats(() -> statsCounter)
+                .build();
+        this.emailById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(staleTtlMillis))
+                .build();
+        this.freshNanos = freshTtlMillis * 1_000_000;
+    }
+
+    /** Fresh cached user with this id, if any */
+    public Optional<User> getFreshById(Long id) {
+        String email = emailById.getIfPresent(id);
+        if (email == null) {
+            statsCounter.recordMisses(1);
+            return Optional.empty();
+        }
+        return getFreshByEmail(email);
+    }
+
+    /** Fresh cached user with this email, if any */
+    public Optional<User> getFreshByEmail(String email) {
+        Entry entry = byEmail.asMap().get(email);
+        if (entry == null || System.nanoTime() - entry.loadedAtNanos() > freshNanos) {
+            statsCounter.recordMisses(1);
+            return Optional.empty();
+        }
+        statsCounter.recordHits(1);
+        return Optional.of(copy(entry.user()));
+    }
+
+    /** Cached user with this id regardless of age, for when no database can be asked */
+    public Optional<User> getStaleById(Long id) {
+        String email = emailById.getIfPresent(id);
+        return email == null ? Optional.empty() : getStaleByEmail(email);
+    }
+
+    /** Cached user with this email regardless of age, for when no database can be asked */
+    public Optional<User> getStaleByEmail(String email) {
+        return Optional.ofNullable(byEmail.asMap().get(email)).map(entry -> copy(entry.user()));
+    }
+
+    /** Store a user just read from or written to a database */
+    public void put(User user) {
+        String previousEmail = emailById.getIfPresent(user.getId());
+        if (previousEmail != null && !previousEmail.equals(user.getEmail())) {
+            byEmail.invalidate(previousEmail);
+        }
+        emailById.put(user.getId(), user.getEmail());
+        byEmail.put(user.getEmail(), new Entry(copy(user), System.nanoTime()));
+    }
+
+    /** Forget the user with this id, e.g. after it was deleted */
+    public void invalidateId(Long id) {
+        String email = emailById.getIfPresent(id);
+        emailById.invalidate(id);
+        if (email != null) {
+            byEmail.invalidate(email);
+        }
+    }
+
+    /** Forget users whose row changed in a database behind our back (sync, replication) */
+    public void invalidateEmails(Collection<String> emails) {
+        byEmail.invalidateAll(emails);
+    }
+
+    // Entities are mutable, callers must never share an instance with the cache
+    private static User copy(User user) {
+        return new User(user.getId(), user.getName(), user.getEmail(), user.getModifiedAt());
+    }
+
+    /** Publish size, hits, misses and evictions as the {@code cache.*} meters of cache "users" */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, byEmail, "users");
+    }
+
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    public long estimatedSize() {
+        return byEmail.estimatedSize();
+    }
+}
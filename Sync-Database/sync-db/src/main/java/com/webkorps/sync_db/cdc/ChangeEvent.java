@@ -0,0 +1,16 @@
+package com.webkorps.sync_db.cdc;
+
+import java.util.Map;
+
+/**
+ * One row change read from a database's log, before it is applied to the other database.
+ *
+ * @param table  table the row belongs to
+ * @param kind   whether the row was inserted or updated, or deleted
+ * @param values column values of the row after the change (of the old row for deletes), keyed by
+ *               column name, as the log delivered them: typed values from the binlog, text from pgoutput
+ */
+public record ChangeEvent(String table, Kind kind, Map<String, Object> values) {
+
+    public enum Kind { UPSERT, DELETE }
+}
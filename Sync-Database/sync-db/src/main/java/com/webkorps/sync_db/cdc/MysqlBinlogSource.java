@@ -0,0 +1,259 @@
+package com.webkorps.sync_db.cdc;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.QueryEventData;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Tails the MySQL binlog and applies changes to users to PostgreSQL as soon as they commit.
+ * <p>
+ * The client registers as a replica, so MySQL pushes row events instead of the sync polling for
+ * them. Requires {@code binlog_format=ROW}, {@code binlog_row_image=FULL} and a user with
+ * REPLICATION SLAVE and REPLICATION CLIENT. The binlog file and position after each applied
+ * transaction are stored in PostgreSQL with it; without a stored position, tailing starts at the
+ * current end of the binlog and the full reconciliation backstop covers what came before.
+ * <p>
+ * When applying fails, e.g. because PostgreSQL went away, the client is dropped and reconnected
+ * from the stored position once both databases are available again.
+ */
+@Component
+@ConditionalOnProperty(name = "sync.cdc.enabled", havingValue = "true")
+public class MysqlBinlogSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(MysqlBinlogSource.class);
+
+    static final String STREAM = "users:cdc:mysql-binlog";
+    private static final Set<String> TABLES = Set.of(ChangeApplier.USERS, ChangeApplier.TOMBSTONES);
+
+    private final ChangeApplier applier;
+    private final DatabaseHealthMonitor healthMonitor;
+    // column names of a table in binlog order, for servers not running with binlog_row_metadata=FULL
+    private final BiFunction<String, String, List<String>> columnLookup;
+    private final String host;
+    private final int port;
+    private final String schema;
+    private final String username;
+    private final String password;
+    private final long serverId;
+
+    // only touched by the client's event thread, and by connect() before the client starts
+    private final Map<Long, String> tableNames = new HashMap<>();
+    private final Map<Long, List<String>> tableColumns = new HashMap<>();
+    private final List<ChangeEvent> pending = new ArrayList<>();
+    private String binlogFile;
+
+    private BinaryLogClient client;
+    private volatile boolean failed;
+    private volatile boolean stopped;
+
+    @Autowired
+    public MysqlBinlogSource(@Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                             @Qualifier("mysqlDataSource") DataSource mysqlDataSource,
+                             UserCache userCache,
+                             MeterRegistry meterRegistry,
+                             DatabaseHealthMonitor healthMonitor,
+                             @Value("${spring.datasource.link.url}") String url,
+                             @Value("${spring.datasource.link.username}") String username,
+                             @Value("${spring.datasource.link.password}") String password,
+                             @Value("${sync.cdc.mysql.server-id:54001}") long serverId) {
+        this(new ChangeApplier(postgresStore, userCache, meterRegistry, "mysql"), healthMonitor,
+                columnsFromInformationSchema(new JdbcTemplate(mysqlDataSource)),
+                URI.create(url.substring("jdbc:".length())), username, password, serverId);
+    }
+
+    MysqlBinlogSource(ChangeApplier applier, DatabaseHealthMonitor healthMonitor,
+                      BiFunction<String, String, List<String>> columnLookup,
+                      URI uri, String username, String password, long serverId) {
+        this.applier = applier;
+        this.healthMonitor = healthMonitor;
+        this.columnLookup = columnLookup;
+        this.host = uri.getHost() == null ? "localhost" : uri.getHost();
+        this.port = uri.getPort() < 0 ? 3306 : uri.getPort();
+        this.schema = uri.getPath().substring(1);
+        this.username = username;
+        this.password = password;
+        this.serverId = serverId;
+    }
+
+    private static BiFunction<String, String, List<String>> columnsFromInformationSchema(JdbcTemplate jdbcTemplate) {
+        return (schema, table) -> jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns"
+                + " WHERE table_schema = ? AND table_name = ? ORDER BY ordinal_position", String.class, schema, table);
+    }
+
+    /** (Re)connect from the stored position unless the client is already streaming */
+    @Scheduled(fixedDelayString = "${sync.cdc.reconnect-interval-ms:5000}")
+    public synchronized void ensureRunning() {
+        if (stopped) {
+            return;
+        }
+        if (client != null && client.isConnected() && !failed) {
+            return;
+        }
+        disconnect();
+        if (!healthMonitor.isMysqlAvailable() || !healthMonitor.isPostgresAvailable()) {
+            return;
+        }
+
+        SyncCheckpoint position = applier.position(STREAM);
+        BinaryLogClient newClient = new BinaryLogClient(host, port, username, password);
+        newClient.setServerId(serverId);
+        EventDeserializer deserializer = new EventDeserializer();
+        deserializer.setCompatibilityMode(EventDeserializer.CompatibilityMode.CHAR_AND_BINARY_AS_BYTE_ARRAY);
+        newClient.setEventDeserializer(deserializer);
+        if (position != null) {
+            newClient.setBinlogFilename(position.getLastKey());
+            newClient.setBinlogPosition(position.getMarker());
+        }
+        reset(position == null ? null : position.getLastKey());
+        newClient.registerEventListener(this::onEvent);
+        try {
+            newClient.connect(TimeUnit.SECONDS.toMillis(10));
+            client = newClient;
+            logger.info("Tailing MySQL binlog from {}", position == null ? "its current end"
+                    : position.getLastKey() + ":" + position.getMarker());
+        } catch (Exception e) {
+            logger.warn("Connecting to the MySQL binlog failed, retrying later: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        disconnect();
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            try {
+                client.disconnect();
+            } catch (IOException e) {
+                logger.debug("Closing the binlog client failed: {}", e.getMessage());
+            }
+            client = null;
+        }
+    }
+
+    void reset(String file) {
+        tableNames.clear();
+        tableColumns.clear();
+        pending.clear();
+        binlogFile = file;
+        failed = false;
+    }
+
+    /**
+     * Handle one binlog event. Row events are collected per transaction and applied on its XID;
+     * rows of other tables and databases are skipped.
+     */
+    void onEvent(Event event) {
+        if (failed) {
+            return;
+        }
+        EventHeaderV4 header = event.getHeader();
+        EventType type = header.getEventType();
+        try {
+            if (type == EventType.ROTATE) {
+                binlogFile = event.<RotateEventData>getData().getBinlogFilename();
+            } else if (type == EventType.TABLE_MAP) {
+                mapTable(event.getData());
+            } else if (type == EventType.QUERY && "BEGIN".equals(event.<QueryEventData>getData().getSql())) {
+                pending.clear();
+            } else if (EventType.isWrite(type)) {
+                WriteRowsEventData data = event.getData();
+                for (Serializable[] row : data.getRows()) {
+                    collect(data.getTableId(), ChangeEvent.Kind.UPSERT, data.getIncludedColumns(), row);
+                }
+            } else if (EventType.isUpdate(type)) {
+                UpdateRowsEventData data = event.getData();
+                for (Map.Entry<Serializable[], Serializable[]> row : data.getRows()) {
+                    collect(data.getTableId(), ChangeEvent.Kind.UPSERT, data.getIncludedColumns(), row.getValue());
+                }
+            } else if (EventType.isDelete(type)) {
+                DeleteRowsEventData data = event.getData();
+                for (Serializable[] row : data.getRows()) {
+                    collect(data.getTableId(), ChangeEvent.Kind.DELETE, data.getIncludedColumns(), row);
+                }
+            } else if (type == EventType.XID) {
+                commit(header);
+            }
+        } catch (RuntimeException e) {
+            // events keep arriving on the client's thread; drop them until ensureRunning reconnects
+            failed = true;
+            logger.warn("Applying binlog events to PostgreSQL failed, reconnecting from the last applied position: {}",
+                    e.getMessage());
+        }
+    }
+
+    private void mapTable(TableMapEventData data) {
+        if (!schema.equals(data.getDatabase()) || !TABLES.contains(data.getTable())) {
+            tableNames.remove(data.getTableId());
+            return;
+        }
+        List<String> columns = data.getEventMetadata() == null ? null : data.getEventMetadata().getColumnNames();
+        if (columns == null || columns.isEmpty()) {
+            columns = columnLookup.apply(schema, data.getTable());
+        }
+        tableNames.put(data.getTableId(), data.getTable());
+        tableColumns.put(data.getTableId(), columns);
+    }
+
+    private void collect(long tableId, ChangeEvent.Kind kind, BitSet included, Serializable[] row) {
+        String table = tableNames.get(tableId);
+        if (table == null) {
+            return;
+        }
+        List<String> columns = tableColumns.get(tableId);
+        Map<String, Object> values = new LinkedHashMap<>();
+        int value = 0;
+        for (int column = included.nextSetBit(0); column >= 0; column = included.nextSetBit(column + 1)) {
+            values.put(columns.get(column), row[value++]);
+        }
+        pending.add(new ChangeEvent(table, kind, values));
+    }
+
+    private void commit(EventHeaderV4 header) {
+        if (!pending.isEmpty()) {
+            applier.apply(List.copyOf(pending), new SyncCheckpoint(STREAM, header.getNextPosition(), binlogFile),
+                    Instant.ofEpochMilli(header.getTimestamp()));
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.webkorps.sync_db.cdc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoder for the messages of PostgreSQL's built-in {@code pgoutput} logical decoding plugin
+ * (protocol version 1), collecting the row changes of each transaction until its commit.
+ * <p>
+ * Column values arrive in their text representation. Relation messages, which describe a table's
+ * columns, precede the first change to a table in every session and after each schema change.
+ */
+public class PgOutputDecoder {
+
+    private static final Instant POSTGRES_EPOCH = Instant.parse("2000-01-01T00:00:00Z");
+
+    /**
+     * Changes of one committed transaction.
+     *
+     * @param endLsn      log position just after the commit, where the stream resumes
+     * @param committedAt commit time on the server
+     */
+    public record Transaction(List<ChangeEvent> events, long endLsn, Instant committedAt) {
+    }
+
+    private record Relation(String table, List<String> columns) {
+    }
+
+    private final Map<Integer, Relation> relations = new HashMap<>();
+    private final List<ChangeEvent> pending = new ArrayList<>();
+
+    /** Decode one message; returns the transaction once its commit has been read, else null */
+    public Transaction decode(ByteBuffer message) {
+        char type = (char) message.get();
+        switch (type) {
+            case 'B' -> pending.clear();
+            case 'R' -> readRelation(message);
+            case 'I' -> {
+                Relation relation = relation(message.getInt());
+                expect(message, 'N');
+                pending.add(new ChangeEvent(relation.table(), ChangeEvent.Kind.UPSERT, readTuple(message, relation)));
+            }
+            case 'U' -> {
+                Relation relation = relation(message.getInt());
+                byte tuple = message.get();
+                if (tuple == 'K' || tuple == 'O') {
+                    // old key or old row, only sent for replica identity changes; the new row is what counts
+                    readTuple(message, relation);
+                    tuple = message.get();
+                }
+                if (tuple != 'N') {
+                    throw new IllegalStateException("Unexpected tuple type " + (char) tuple + " in pgoutput update");
+                }
+                pending.add(new ChangeEvent(relation.table(), ChangeEvent.Kind.UPSERT, readTuple(message, relation)));
+            }
+            case 'D' -> {
+                Relation relation = relation(message.getInt());
+                message.get();
+                pending.add(new ChangeEvent(relation.table(), ChangeEvent.Kind.DELETE, readTuple(message, relation)));
+            }
+            case 'C' -> {
+                message.get();
+                message.getLong();
+                long endLsn = message.getLong();
+                Instant committedAt = POSTGRES_EPOCH.plus(message.getLong(), ChronoUnit.MICROS);
+                Transaction transaction = new Transaction(List.copyOf(pending), endLsn, committedAt);
+                pending.clear();
+                return transaction;
+            }
+            default -> {
+                // origin, type, truncate and logical messages carry nothing the sync needs
+            }
+        }
+        return null;
+    }
+
+    private void readRelation(ByteBuffer message) {
+        int id = message.getInt();
+        readString(message);
+        String table = readString(message);
+        message.get();
+        int count = message.getShort();
+        List<String> columns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            message.get();
+            columns.add(readString(message));
+            message.getInt();
+            message.getInt();
+        }
+        relations.put(id, new Relation(table, Collections.unmodifiableList(columns)));
+    }
+
+    private Relation relation(int id) {
+        Relation relation = relations.get(id);
+        if (relation == null) {
+            throw new IllegalStateException("pgoutput change for unknown relation " + id);
+        }
+        return relation;
+    }
+
+    private static Map<String, Object> readTuple(ByteBuffer message, Relation relation) {
+        int count = message.getShort();
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            char kind = (char) message.get();
+            String column = relation.columns().get(i);
+            switch (kind) {
+                case 'n' -> values.put(column, null);
+                case 't' -> {
+                    byte[] text = new byte[message.getInt()];
+                    message.get(text);
+                    values.put(column, new String(text, StandardCharsets.UTF_8));
+                }
+                default -> {
+                    // 'u': unchanged TOASTed value, not sent; none of the synced columns is large enough
+                }
+            }
+        }
+        return values;
+    }
+
+    private static void expect(ByteBuffer message, char expected) {
+        char actual = (char) message.get();
+        if (actual != expected) {
+            throw new IllegalStateException("Expected tuple type " + expected + " in pgoutput message, got " + actual);
+        }
+    }
+
+    private static String readString(ByteBuffer message) {
+        int start = message.position();
+        int end = start;
+        while (message.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        message.get(bytes);
+        message.get();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
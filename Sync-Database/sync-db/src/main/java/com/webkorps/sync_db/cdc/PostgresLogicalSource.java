@@ -0,0 +1,179 @@
+package com.webkorps.sync_db.cdc;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGProperty;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Streams changes to users out of a PostgreSQL logical replication slot and applies them to MySQL.
+ * <p>
+ * Uses the built-in {@code pgoutput} plugin over a publication of the users and tombstone tables;
+ * both the publication and the slot are created on first start. Requires {@code wal_level=logical}
+ * and a user with the REPLICATION attribute. The log position after each applied transaction is
+ * stored in MySQL with it and confirmed to the slot, so PostgreSQL can recycle the WAL behind it.
+ * A slot that is not read keeps WAL around: drop it when turning change data capture off for good.
+ */
+@Component
+@ConditionalOnProperty(name = "sync.cdc.enabled", havingValue = "true")
+public class PostgresLogicalSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostgresLogicalSource.class);
+
+    static final String STREAM = "users:cdc:postgres-slot";
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    private final ChangeApplier applier;
+    private final DatabaseHealthMonitor healthMonitor;
+    private final JdbcTemplate postgresJdbc;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String slot;
+    private final String publication;
+
+    @Value("${sync.cdc.postgres.poll-interval-ms:10}")
+    private long pollIntervalMillis;
+
+    private Thread worker;
+    private volatile boolean stopped;
+
+    public PostgresLogicalSource(@Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                                 @Qualifier("postgresDataSource") DataSource postgresDataSource,
+                                 UserCache userCache,
+                                 MeterRegistry meterRegistry,
+                                 DatabaseHealthMonitor healthMonitor,
+                                 @Value("${spring.datasource.dlink.url}") String url,
+                                 @Value("${spring.datasource.dlink.username}") String username,
+                                 @Value("${spring.datasource.dlink.password}") String password,
+                                 @Value("${sync.cdc.postgres.slot:sync_db_users}") String slot,
+                                 @Value("${sync.cdc.postgres.publication:sync_db_users}") String publication) {
+        if (!IDENTIFIER.matcher(slot).matches() || !IDENTIFIER.matcher(publication).matches()) {
+            throw new IllegalArgumentException("Slot and publication names must be lowercase identifiers");
+        }
+        this.applier = new ChangeApplier(mysqlStore, userCache, meterRegistry, "postgresql");
+        this.healthMonitor = healthMonitor;
+        this.postgresJdbc = new JdbcTemplate(postgresDataSource);
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.slot = slot;
+        this.publication = publication;
+    }
+
+    /** (Re)start streaming from the stored position unless the stream is already running */
+    @Scheduled(fixedDelayString = "${sync.cdc.reconnect-interval-ms:5000}")
+    public synchronized void ensureRunning() {
+        if (stopped || (worker != null && worker.isAlive())) {
+            return;
+        }
+        if (!healthMonitor.isMysqlAvailable() || !healthMonitor.isPostgresAvailable()) {
+            return;
+        }
+        worker = new Thread(this::stream, "cdc-postgres");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void stream() {
+        try {
+            createSlotIfMissing();
+            SyncCheckpoint position = applier.position(STREAM);
+            try (Connection connection = DriverManager.getConnection(url, replicationProperties());
+                 PGReplicationStream stream = connection.unwrap(PGConnection.class).getReplicationAPI()
+                         .replicationStream()
+                         .logical()
+                         .withSlotName(slot)
+                         .withSlotOption("proto_version", "1")
+                         .withSlotOption("publication_names", publication)
+                         // the slot's confirmed position if nothing is stored yet
+                         .withStartPosition(position == null ? LogSequenceNumber.INVALID_LSN
+                                 : LogSequenceNumber.valueOf(position.getMarker()))
+                         .withStatusInterval(10, TimeUnit.SECONDS)
+                         .start()) {
+                logger.info("Streaming PostgreSQL changes from slot {}", slot);
+                PgOutputDecoder decoder = new PgOutputDecoder();
+                while (!stopped) {
+                    ByteBuffer message = stream.readPending();
+                    if (message == null) {
+                        Thread.sleep(pollIntervalMillis);
+                        continue;
+                    }
+                    PgOutputDecoder.Transaction transaction = decoder.decode(message);
+                    if (transaction == null) {
+                        continue;
+                    }
+                    if (!transaction.events().isEmpty()) {
+                        applier.apply(transaction.events(), new SyncCheckpoint(STREAM, transaction.endLsn(), ""),
+                                transaction.committedAt());
+                    }
+                    LogSequenceNumber applied = LogSequenceNumber.valueOf(transaction.endLsn());
+                    stream.setAppliedLSN(applied);
+                    stream.setFlushedLSN(applied);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException | RuntimeException e) {
+            logger.warn("Streaming PostgreSQL changes to MySQL failed, restarting from the last applied position: {}",
+                    e.getMessage());
+        }
+    }
+
+    private void createSlotIfMissing() {
+        Integer publications = postgresJdbc.queryForObject(
+                "SELECT COUNT(*) FROM pg_publication WHERE pubname = ?", Integer.class, publication);
+        if (publications == null || publications == 0) {
+            postgresJdbc.execute("CREATE PUBLICATION " + publication + " FOR TABLE "
+                    + ChangeApplier.USERS + ", " + ChangeApplier.TOMBSTONES);
+            logger.info("Created publication {}", publication);
+        }
+        Integer slots = postgresJdbc.queryForObject(
+                "SELECT COUNT(*) FROM pg_replication_slots WHERE slot_name = ?", Integer.class, slot);
+        if (slots == null || slots == 0) {
+            postgresJdbc.queryForList("SELECT pg_create_logical_replication_slot(?, 'pgoutput')", slot);
+            logger.info("Created logical replication slot {}", slot);
+        }
+    }
+
+    private Properties replicationProperties() {
+        Properties properties = new Properties();
+        PGProperty.USER.set(properties, username);
+        PGProperty.PASSWORD.set(properties, password);
+        PGProperty.ASSUME_MIN_SERVER_VERSION.set(properties, "10");
+        PGProperty.REPLICATION.set(properties, "database");
+        PGProperty.PREFER_QUERY_MODE.set(properties, "simple");
+        return properties;
+    }
+}
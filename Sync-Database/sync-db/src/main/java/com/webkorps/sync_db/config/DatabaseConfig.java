@@ -1,27 +1,41 @@
 package com.webkorps.sync_db.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import com.webkorps.sync_db.sync.DatabaseDialect;
+import com.webkorps.sync_db.sync.UserJdbcStore;
 import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.data.jpa.mapping.JpaMetamodelMappingContext;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import jakarta.persistence.EntityManagerFactory;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 @Configuration
 @EnableTransactionManagement
 public class DatabaseConfig {
 
+    // bean name Spring Data JPA registers its shared mapping context under
+    private static final String JPA_MAPPING_CONTEXT = "jpaMappingContext";
+
     @Value("${spring.datasource.link.url}")
     private String mysqlUrl;
 
@@ -31,6 +45,16 @@ public class DatabaseConfig {
     @Value("${spring.datasource.link.password}")
     private String mysqlPassword;
 
+    @Value("${spring.datasource.link.driver-class-name:com.mysql.cj.jdbc.Driver}")
+    private String mysqlDriverClassName;
+
+    @Value("${spring.datasource.link.jpa.properties.hibernate.dialect:org.hibernate.dialect.MySQLDialect}")
+    private String mysqlHibernateDialect;
+
+    // "validate" checks the schema at startup without altering it
+    @Value("${spring.datasource.link.jpa.hibernate.ddl-auto:update}")
+    private String mysqlDdlAuto;
+
     @Value("${spring.datasource.dlink.url}")
     private String postgresUrl;
 
@@ -40,19 +64,38 @@ public class DatabaseConfig {
     @Value("${spring.datasource.dlink.password}")
     private String postgresPassword;
 
+    @Value("${spring.datasource.dlink.driver-class-name:org.postgresql.Driver}")
+    private String postgresDriverClassName;
+
+    @Value("${spring.datasource.dlink.jpa.properties.hibernate.dialect:org.hibernate.dialect.PostgreSQLDialect}")
+    private String postgresHibernateDialect;
+
+    @Value("${spring.datasource.dlink.jpa.hibernate.ddl-auto:update}")
+    private String postgresDdlAuto;
+
+    // Build the PostgreSQL entity manager factory in the background instead of during startup
+    @Value("${sync.startup.background-secondary:false}")
+    private boolean backgroundSecondary;
+
+    @Value("${sync.startup.secondary-retry-ms:5000}")
+    private long secondaryRetryMillis;
+
     // ========================================
     // MYSQL DATABASE CONFIGURATION
     // ========================================
 
-    @Bean(name = "mysqlDataSource")
+    /** Pool settings bound from spring.datasource.link.hikari.* */
+    @Bean(name = "mysqlPoolConfig")
+    @ConfigurationProperties("spring.datasource.link.hikari")
+    public HikariConfig mysqlPoolConfig() {
+        return poolConfig("mysql");
+    }
+
+    @Bean(name = "mysqlDataSource", destroyMethod = "close")
     @Primary
-    public DataSource mysqlDataSource() {
-        return DataSourceBuilder.create()
-                .url(mysqlUrl)
-                .username(mysqlUsername)
-                .password(mysqlPassword)
-                .driverClassName("com.mysql.cj.jdbc.Driver")
-                .build();
+    public HikariDataSource mysqlDataSource(@Qualifier("mysqlPoolConfig") HikariConfig config,
+                                            MeterRegistry meterRegistry) {
+        return pool(config, mysqlUrl, mysqlUsername, mysqlPassword, mysqlDriverClassName, meterRegistry);
     }
 
     @Bean(name = "mysqlEntityManagerFactory")
@@ -62,8 +105,8 @@ public class DatabaseConfig {
             @Qualifier("mysqlDataSource") DataSource dataSource) {
 
         Map<String, Object> properties = new HashMap<>();
-        properties.put("hibernate.hbm2ddl.auto", "update");
-        properties.put("hibernate.dialect", "org.hibernate.dialect.MySQLDialect");
+        properties.put("hibernate.hbm2ddl.auto", mysqlDdlAuto);
+        properties.put("hibernate.dialect", mysqlHibernateDialect);
         properties.put("hibernate.show_sql", false);
 
         return builder
@@ -81,36 +124,84 @@ public class DatabaseConfig {
         return new JpaTransactionManager(entityManagerFactory);
     }
 
+    @Bean(name = "mysqlTransactionTemplate")
+    public TransactionTemplate mysqlTransactionTemplate(
+            @Qualifier("mysqlTransactionManager") PlatformTransactionManager transactionManager) {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    @Bean(name = "mysqlUserStore")
+    public UserJdbcStore mysqlUserStore(@Qualifier("mysqlDataSource") DataSource dataSource) {
+        return new UserJdbcStore("MySQL", DatabaseDialect.forJdbcUrl(mysqlUrl), dataSource);
+    }
+
     // ========================================
     // POSTGRESQL DATABASE CONFIGURATION
     // ========================================
 
-    @Bean(name = "postgresDataSource")
-    public DataSource postgresDataSource() {
-        return DataSourceBuilder.create()
-                .url(postgresUrl)
-                .username(postgresUsername)
-                .password(postgresPassword)
-                .driverClassName("org.postgresql.Driver")
-                .build();
+    /** Pool settings bound from spring.datasource.dlink.hikari.* */
+    @Bean(name = "postgresPoolConfig")
+    @ConfigurationProperties("spring.datasource.dlink.hikari")
+    public HikariConfig postgresPoolConfig() {
+        return poolConfig("postgres");
+    }
+
+    @Bean(name = "postgresDataSource", destroyMethod = "close")
+    public HikariDataSource postgresDataSource(@Qualifier("postgresPoolConfig") HikariConfig config,
+                                               MeterRegistry meterRegistry) {
+        return pool(config, postgresUrl, postgresUsername, postgresPassword, postgresDriverClassName, meterRegistry);
+    }
+
+    @Bean(name = "postgresBootstrap")
+    public SecondaryBootstrap postgresBootstrap(@Qualifier("postgresDataSource") DataSource dataSource) {
+        return new SecondaryBootstrap(dataSource, backgroundSecondary, secondaryRetryMillis);
     }
 
     @Bean(name = "postgresEntityManagerFactory")
     public LocalContainerEntityManagerFactoryBean postgresEntityManagerFactory(
             EntityManagerFactoryBuilder builder,
-            @Qualifier("postgresDataSource") DataSource dataSource) {
+            @Qualifier("postgresDataSource") DataSource dataSource,
+            @Qualifier("postgresBootstrap") SecondaryBootstrap bootstrap) {
 
         Map<String, Object> properties = new HashMap<>();
-        properties.put("hibernate.hbm2ddl.auto", "update");
-        properties.put("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
+        properties.put("hibernate.hbm2ddl.auto", postgresDdlAuto);
+        properties.put("hibernate.dialect", postgresHibernateDialect);
         properties.put("hibernate.show_sql", false);
 
-        return builder
+        LocalContainerEntityManagerFactoryBean factory = builder
                 .dataSource(dataSource)
                 .packages("com.webkorps.sync_db.entity")
                 .persistenceUnit("postgres")
                 .properties(properties)
                 .build();
+        // the bean is a proxy right away; only its first use waits for Hibernate
+        return bootstrap.isBackground() ? bootstrap.inBackground(factory, dataSource, "com.webkorps.sync_db.entity") : factory;
+    }
+
+    /**
+     * Spring Data's shared mapping context reads the metamodel of every entity manager factory,
+     * which would block startup on PostgreSQL in background mode. Both persistence units map the
+     * same entity package, so the MySQL metamodel describes the PostgreSQL repositories as well.
+     */
+    @Bean(name = "mysqlMappingContext")
+    @ConditionalOnProperty(name = "sync.startup.background-secondary", havingValue = "true")
+    public JpaMetamodelMappingContext mysqlMappingContext(
+            @Qualifier("mysqlEntityManagerFactory") EntityManagerFactory entityManagerFactory) {
+        JpaMetamodelMappingContext context = new JpaMetamodelMappingContext(Set.of(entityManagerFactory.getMetamodel()));
+        context.initialize();
+        return context;
+    }
+
+    /** Points the repositories' mapping context at {@link #mysqlMappingContext} in background mode */
+    @Bean
+    @ConditionalOnProperty(name = "sync.startup.background-secondary", havingValue = "true")
+    public static BeanDefinitionRegistryPostProcessor mysqlMappingContextAlias() {
+        return registry -> {
+            if (registry.containsBeanDefinition(JPA_MAPPING_CONTEXT)) {
+                registry.removeBeanDefinition(JPA_MAPPING_CONTEXT);
+            }
+            registry.registerAlias("mysqlMappingContext", JPA_MAPPING_CONTEXT);
+        };
     }
 
     @Bean(name = "postgresTransactionManager")
@@ -118,4 +209,43 @@ public class DatabaseConfig {
             @Qualifier("postgresEntityManagerFactory") EntityManagerFactory entityManagerFactory) {
         return new JpaTransactionManager(entityManagerFactory);
     }
-}
\ No newline at end of file
+
+    @Bean(name = "postgresTransactionTemplate")
+    public TransactionTemplate postgresTransactionTemplate(
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager) {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    @Bean(name = "postgresUserStore")
+    public UserJdbcStore postgresUserStore(@Qualifier("postgresDataSource") DataSource dataSource) {
+        return new UserJdbcStore("PostgreSQL", DatabaseDialect.forJdbcUrl(postgresUrl), dataSource);
+    }
+
+    // ========================================
+    // CONNECTION POOLS
+    // ========================================
+
+    private static HikariConfig poolConfig(String poolName) {
+        HikariConfig config = new HikariConfig();
+        // also the "pool" tag of the hikaricp.* meters
+        config.setPoolName(poolName);
+        // start even while the database is down; the circuit breakers handle failover
+        config.setInitializationFailTimeout(-1);
+        return config;
+    }
+
+    /**
+     * The pool is started right away and fills up to minimum-idle in the background,
+     * so the first requests do not pay for opening connections.
+     */
+    private static HikariDataSource pool(HikariConfig config, String url, String username, String password,
+                                         String driverClassName, MeterRegistry meterRegistry) {
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setDriverClassName(driverClassName);
+        // publishes acquire/usage/creation timers, active/idle/pending gauges and the timeout counter
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return new HikariDataSource(config);
+    }
+}
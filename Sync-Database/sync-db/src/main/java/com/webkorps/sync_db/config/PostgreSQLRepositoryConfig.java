@@ -2,12 +2,18 @@ package com.webkorps.sync_db.config;
 
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.repository.config.BootstrapMode;
 
+/**
+ * Repositories are created on first use, so they never wait for a PostgreSQL entity manager
+ * factory that is still bootstrapping in the background.
+ */
 @Configuration
 @EnableJpaRepositories(
         basePackages = "com.webkorps.sync_db.repository.dlink",
         entityManagerFactoryRef = "postgresEntityManagerFactory",
-        transactionManagerRef = "postgresTransactionManager"
+        transactionManagerRef = "postgresTransactionManager",
+        bootstrapMode = BootstrapMode.LAZY
 )
 public class PostgreSQLRepositoryConfig {
 }
\ No newline at end of file
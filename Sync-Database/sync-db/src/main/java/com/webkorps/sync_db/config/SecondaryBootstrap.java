@@ -0,0 +1,99 @@
+package com.webkorps.sync_db.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Bootstrap executor of the PostgreSQL entity manager factory in background mode.
+ * <p>
+ * Hibernate is only started once PostgreSQL accepts a connection, retrying until it does, so the
+ * application starts, and serves from MySQL, while PostgreSQL is slow to bootstrap or unreachable.
+ * Until the factory is built, {@link #isReady()} keeps PostgreSQL out of routing; the PostgreSQL
+ * repositories are lazy and only wait for the factory when they are used. If the factory cannot be
+ * built, e.g. because schema validation failed, PostgreSQL stays out of routing until a restart.
+ * <p>
+ * In the default eager mode this executor is not used and {@link #isReady()} is always true.
+ */
+public class SecondaryBootstrap extends SimpleAsyncTaskExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecondaryBootstrap.class);
+
+    private final DataSource dataSource;
+    private final boolean background;
+    private final long retryMillis;
+
+    private volatile boolean ready;
+
+    public SecondaryBootstrap(DataSource dataSource, boolean background, long retryMillis) {
+        super("postgres-jpa-bootstrap-");
+        setDaemon(true);
+        this.dataSource = dataSource;
+        this.background = background;
+        this.retryMillis = retryMillis;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    /** True once PostgreSQL's JPA layer can be used without waiting */
+    public boolean isReady() {
+        return !background || ready;
+    }
+
+    /**
+     * Copy of the given factory bean that bootstraps with this executor. Spring waits for a background
+     * bootstrap at the end of startup, which would block on PostgreSQL again; the copy only waits on first use.
+     */
+    public LocalContainerEntityManagerFactoryBean inBackground(LocalContainerEntityManagerFactoryBean factory,
+                                                               DataSource dataSource, String... packagesToScan) {
+        LocalContainerEntityManagerFactoryBean background = new LocalContainerEntityManagerFactoryBean() {
+            @Override
+            public void afterSingletonsInstantiated() {
+            }
+        };
+        background.setDataSource(dataSource);
+        background.setPackagesToScan(packagesToScan);
+        background.setPersistenceUnitName(factory.getPersistenceUnitName());
+        background.setJpaVendorAdapter(factory.getJpaVendorAdapter());
+        background.setJpaPropertyMap(factory.getJpaPropertyMap());
+        background.setBootstrapExecutor(this);
+        return background;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return super.submit(() -> {
+            awaitConnection();
+            long start = System.nanoTime();
+            try {
+                T factory = task.call();
+                ready = true;
+                logger.info("PostgreSQL entity manager factory ready after {} ms", (System.nanoTime() - start) / 1_000_000);
+                return factory;
+            } catch (Exception e) {
+                logger.error("Building the PostgreSQL entity manager factory failed, PostgreSQL stays out of routing: {}",
+                        e.getMessage());
+                throw e;
+            }
+        });
+    }
+
+    private void awaitConnection() throws InterruptedException {
+        while (true) {
+            try (Connection ignored = dataSource.getConnection()) {
+                return;
+            } catch (Exception e) {
+                logger.warn("PostgreSQL not reachable yet, retrying in {} ms: {}", retryMillis, e.getMessage());
+            }
+            Thread.sleep(retryMillis);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.webkorps.sync_db.config;
+
+import com.webkorps.sync_db.sync.UserIds;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hands this instance's node id to {@link UserIds}, which Hibernate reaches without going through Spring.
+ */
+@Configuration
+public class UserIdConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserIdConfig.class);
+
+    @Value("${sync.id.node-id:0}")
+    private int nodeId;
+
+    @PostConstruct
+    public void applyNodeId() {
+        UserIds.setNodeId(nodeId);
+        logger.info("Allocating user ids as node {}", nodeId);
+    }
+}
@@ -1,56 +1,192 @@
 package com.webkorps.sync_db.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.webkorps.sync_db.cache.UserCache;
 import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.scheduler.DatabaseSyncScheduler;
+import com.webkorps.sync_db.service.BulkImportResult;
+import com.webkorps.sync_db.service.SyncStatus;
+import com.webkorps.sync_db.service.UserBulkImportService;
 import com.webkorps.sync_db.service.UserFailoverService;
+import com.webkorps.sync_db.service.UserPage;
+import com.webkorps.sync_db.sync.SyncRunHistory;
+import com.webkorps.sync_db.sync.VerificationResult;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/users")
 public class UserController {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+    // Change marker of a client's last write, returned by POST and sent back on reads to read it back
+    static final String LAST_WRITE_HEADER = "X-Last-Write";
+
     private final UserFailoverService userFailoverService;
+    private final UserBulkImportService userBulkImportService;
+    private final ObjectMapper objectMapper;
+    private final UserCache userCache;
+    private final DatabaseSyncScheduler databaseSyncScheduler;
+    private final ObjectWriter streamingUserWriter;
 
     @Autowired
-    public UserController(UserFailoverService userFailoverService) {
+    public UserController(UserFailoverService userFailoverService, UserBulkImportService userBulkImportService,
+                          ObjectMapper objectMapper, UserCache userCache, DatabaseSyncScheduler databaseSyncScheduler) {
         this.userFailoverService = userFailoverService;
+        this.databaseSyncScheduler = databaseSyncScheduler;
+        this.userBulkImportService = userBulkImportService;
+        this.objectMapper = objectMapper;
+        this.userCache = userCache;
+        // let the servlet buffer decide when to flush instead of flushing after every row
+        this.streamingUserWriter = objectMapper.writerFor(User.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
-    // Get all users
-    @GetMapping
-    public ResponseEntity<List<User>> getAllUsers() {
-        List<User> users = userFailoverService.getAllUsers();
-        return ResponseEntity.ok(users);
+    // Get all users, streamed from a database cursor as a JSON array or, if asked for, as NDJSON
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> getAllUsers(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = LAST_WRITE_HEADER, defaultValue = "0") long lastWrite) {
+        boolean ndjson = accept != null && MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(type -> type.isCompatibleWith(MediaType.APPLICATION_NDJSON) && !type.isWildcardType());
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.createGenerator(out)) {
+                if (!ndjson) {
+                    json.writeStartArray();
+                }
+                userFailoverService.forEachUser(lastWrite, user -> writeUser(json, user, ndjson));
+                if (!ndjson) {
+                    json.writeEndArray();
+                }
+            } catch (SQLException e) {
+                throw new IOException("Streaming users failed: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(body);
     }
 
-//    // Get user by ID
-//    @GetMapping("/{id}")
-//    public ResponseEntity<User> getUserById(@PathVariable Long id) {
-//        Optional<User> user = userFailoverService.findUserById(id);
-//        return user.map(ResponseEntity::ok)
-//                .orElse(ResponseEntity.notFound().build());
-//    }
+    // Keyset-paginated users ordered by email; pass nextCursor from the previous page to continue
+    @GetMapping("/page")
+    public ResponseEntity<UserPage> getUsersPage(@RequestParam(defaultValue = "100") int size,
+                                                 @RequestParam(required = false) String cursor,
+                                                 @RequestHeader(value = LAST_WRITE_HEADER, defaultValue = "0") long lastWrite) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(userFailoverService.getUsersPage(size, cursor, lastWrite));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    private void writeUser(JsonGenerator json, User user, boolean ndjson) {
+        try {
+            streamingUserWriter.writeValue(json, user);
+            if (ndjson) {
+                json.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Get user by ID
+    @GetMapping("/{id}")
+    public ResponseEntity<User> getUserById(@PathVariable Long id,
+                                            @RequestHeader(value = LAST_WRITE_HEADER, defaultValue = "0") long lastWrite) {
+        Optional<User> user = userFailoverService.findUserById(id, lastWrite);
+        return user.map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // Get user by email, looked up on the unique email index
+    @GetMapping("/by-email/{email}")
+    public ResponseEntity<User> getUserByEmail(@PathVariable String email,
+                                               @RequestHeader(value = LAST_WRITE_HEADER, defaultValue = "0") long lastWrite) {
+        return userFailoverService.getUserByEmail(email, lastWrite)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // Create the user with this email, or rename it if it exists
+    @PutMapping("/by-email/{email}")
+    public ResponseEntity<User> upsertUserByEmail(@PathVariable String email, @RequestBody User user) {
+        try {
+            User savedUser = userFailoverService.upsertUserByEmail(email, user.getName());
+            return ResponseEntity.ok()
+                    .header(LAST_WRITE_HEADER, String.valueOf(savedUser.getModifiedAt()))
+                    .body(savedUser);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    // Hit/miss/eviction counters of the user lookup cache
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        CacheStats stats = userCache.stats();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("size", userCache.estimatedSize());
+        body.put("hits", stats.hitCount());
+        body.put("misses", stats.missCount());
+        body.put("hitRate", stats.hitRate());
+        body.put("evictions", stats.evictionCount());
+        return ResponseEntity.ok(body);
+    }
 
     // Create new user
     @PostMapping
     public ResponseEntity<User> createUser(@RequestBody User user) {
         try {
             User savedUser = userFailoverService.saveUser(user);
-            return ResponseEntity.ok(savedUser);
+            return ResponseEntity.ok()
+                    .header(LAST_WRITE_HEADER, String.valueOf(savedUser.getModifiedAt()))
+                    .body(savedUser);
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                     .body(null);
         }
     }
 
+    // Bulk import from a JSON array or an NDJSON stream, reports every row that was not imported
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<BulkImportResult> bulkImport(HttpServletRequest request) {
+        try {
+            boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(request.getContentType()));
+            return ResponseEntity.ok(userBulkImportService.importUsers(request.getInputStream(), ndjson));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
 //    // Update user
 //    @PutMapping("/{id}")
 //    public ResponseEntity<User> updateUser(@PathVariable Long id, @RequestBody User updatedUser) {
-//        Optional<User> existingUser = userFailoverService.findUserById(id);
+//        Optional<User> existingUser = userFailoverService.findUserById(id, 0);
 //        if (existingUser.isPresent()) {
 //            User user = existingUser.get();
 //            user.setName(updatedUser.getName());
@@ -73,10 +209,42 @@ public class UserController {
 //        }
 //    }
 
-    // Manually trigger sync
+    // Last sync cycle, replication lag and database health
+    @GetMapping("/sync/status")
+    public ResponseEntity<SyncStatus> getSyncStatus() {
+        return ResponseEntity.ok(userFailoverService.getSyncStatus());
+    }
+
+    // Recent sync cycles from the ledger, newest first, with rows/sec, batch latencies and lag trends
+    @GetMapping("/sync/runs")
+    public ResponseEntity<SyncRunHistory> getSyncRuns(@RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        return userFailoverService.getSyncRuns(limit)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    // Compare both databases by checksums without copying anything
+    @GetMapping("/sync/verify")
+    public ResponseEntity<VerificationResult> verifySync() {
+        return userFailoverService.verifyDatabases()
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    // Manually trigger sync, joining the cycle in flight if there is one. A cycle can take minutes,
+    // so it is not waited for: its outcome shows up in GET /sync/status and, once recorded, /sync/runs
     @PostMapping("/sync")
     public ResponseEntity<String> triggerSync() {
-        userFailoverService.syncDatabases();
-        return ResponseEntity.ok("Manual sync triggered successfully.");
+        boolean coalesced = databaseSyncScheduler.isRunning();
+        databaseSyncScheduler.trigger();
+        String running = userFailoverService.runningSyncRunId().map(id -> " (run " + id + ")").orElse("");
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/users/sync/runs"))
+                .body(coalesced
+                        ? "Sync cycle already in progress" + running + ", see GET /api/users/sync/status."
+                        : "Sync cycle started, see GET /api/users/sync/status.");
     }
 }
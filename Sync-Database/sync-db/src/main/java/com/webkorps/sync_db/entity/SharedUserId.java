@@ -0,0 +1,18 @@
+package com.webkorps.sync_db.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Id allocated by {@link com.webkorps.sync_db.sync.UserIds} when the entity is persisted,
+ * instead of by the database, so both databases store the same id.
+ */
+@IdGeneratorType(SharedUserIdGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface SharedUserId {
+}
@@ -0,0 +1,27 @@
+package com.webkorps.sync_db.entity;
+
+import com.webkorps.sync_db.sync.UserIds;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+
+import java.util.EnumSet;
+
+/**
+ * Hibernate side of {@link SharedUserId}. The id is known before the insert is executed,
+ * which leaves Hibernate free to batch inserts (IDENTITY ids rule that out).
+ */
+public class SharedUserIdGenerator implements BeforeExecutionGenerator {
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue,
+                           EventType eventType) {
+        return UserIds.next();
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+}
@@ -0,0 +1,33 @@
+package com.webkorps.sync_db.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Position up to which a sync stream has been applied.
+ * Stored in the database the stream writes to, next to the rows it applied.
+ */
+@Entity
+@Table(name = "sync_checkpoint")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncCheckpoint {
+
+    @Id
+    @Column(name = "name", length = 100)
+    private String name;
+
+    // Change marker of the last applied row
+    @Column(name = "marker", nullable = false)
+    private Long marker;
+
+    // Key of the last applied row (the email for users), breaks ties between rows with the same marker
+    @Column(name = "last_key", nullable = false, length = 150)
+    private String lastKey;
+}
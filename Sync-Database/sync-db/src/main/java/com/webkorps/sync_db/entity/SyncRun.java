@@ -0,0 +1,117 @@
+package com.webkorps.sync_db.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One sync cycle, as recorded in MySQL by the sync run ledger.
+ * Written when the cycle starts and completed when it ends, so a cycle the process did not
+ * live to finish stays RUNNING until the next start of the application marks it INTERRUPTED.
+ */
+@Entity
+@Table(name = "sync_run", indexes = {
+    @Index(name = "idx_sync_run_started_at", columnList = "started_at")
+})
+@Data
+@NoArgsConstructor
+public class SyncRun {
+
+    public enum Status {
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        INTERRUPTED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // "incremental" or "full"
+    @Column(name = "mode", nullable = false, length = 20)
+    private String mode;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private Status status;
+
+    @Column(name = "started_at", nullable = false)
+    private Instant startedAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    @Column(name = "duration_ms")
+    private Long durationMillis;
+
+    // Row counts of a succeeded cycle, see ReconciliationResult
+    @Column(name = "mysql_scanned")
+    private Long mysqlScanned;
+
+    @Column(name = "postgres_scanned")
+    private Long postgresScanned;
+
+    @Column(name = "copied_to_postgres")
+    private Long copiedToPostgres;
+
+    @Column(name = "copied_to_mysql")
+    private Long copiedToMysql;
+
+    @Column(name = "failed_rows")
+    private Long failedRows;
+
+    @Column(name = "conflicts_resolved")
+    private Long conflictsResolved;
+
+    @Column(name = "deletes_applied")
+    private Long deletesApplied;
+
+    // Batches the cycle wrote, incremental pages included, and how long they took
+    @Column(name = "batches", nullable = false)
+    private long batches;
+
+    @Column(name = "batch_total_ns", nullable = false)
+    private long batchTotalNanos;
+
+    @Column(name = "batch_max_ns", nullable = false)
+    private long batchMaxNanos;
+
+    // Change marker each direction of the users change stream had committed when the cycle ended,
+    // which is where the next cycle continues from
+    @Column(name = "mysql_to_postgres_marker")
+    private Long mysqlToPostgresMarker;
+
+    @Column(name = "postgres_to_mysql_marker")
+    private Long postgresToMysqlMarker;
+
+    // Partitions of an unfinished full reconciliation with a checkpoint; the next full pass resumes them
+    @Column(name = "reconcile_checkpoints")
+    private Integer reconcileCheckpoints;
+
+    // Outbox replication lag when the cycle ended
+    @Column(name = "mysql_to_postgres_lag_ms")
+    private Long mysqlToPostgresLagMillis;
+
+    @Column(name = "postgres_to_mysql_lag_ms")
+    private Long postgresToMysqlLagMillis;
+
+    @Column(name = "error", length = 500)
+    private String error;
+
+    /** Rows copied in either direction */
+    public long getRowsCopied() {
+        return (copiedToPostgres == null ? 0 : copiedToPostgres) + (copiedToMysql == null ? 0 : copiedToMysql);
+    }
+
+    /** Rows copied per second of the cycle, 0 while it runs */
+    public double getRowsPerSecond() {
+        return durationMillis == null || durationMillis == 0 ? 0 : getRowsCopied() * 1000.0 / durationMillis;
+    }
+
+    public double getMeanBatchMillis() {
+        return batches == 0 ? 0 : batchTotalNanos / 1e6 / batches;
+    }
+}
@@ -1,24 +1,32 @@
 package com.webkorps.sync_db.entity;
 
+import com.webkorps.sync_db.sync.ChangeMarkers;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
-import lombok.AllArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 @Entity
 @Table(name = "users", uniqueConstraints = {
     @UniqueConstraint(columnNames = "email")
+}, indexes = {
+    @Index(name = "idx_users_modified_at", columnList = "modified_at"),
+    @Index(name = "idx_users_email_hash", columnList = "email_hash")
 })
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 public class User {
 
+    // Allocated by the application, so the user has the same id in both databases
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SharedUserId
     private Long id;
 
     @NotBlank(message = "Name is required")
@@ -32,9 +40,37 @@ public class User {
     @Column(name = "email", nullable = false, unique = true, length = 150)
     private String email;
 
+    // Change marker (epoch microseconds) used by incremental sync, stamped on every insert/update
+    @Column(name = "modified_at")
+    private Long modifiedAt;
+
+    // MD5 of the email as 32 hex digits, computed by the database on every write. Checksum buckets and
+    // reconciliation partitions are ranges of it, so they hold the same users on both databases and
+    // are read through the index. Only mapped so the schema has it; the application never reads it.
+    @Column(name = "email_hash", insertable = false, updatable = false,
+            columnDefinition = "char(32) generated always as (md5(email)) stored")
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private String emailHash;
+
+    public User(Long id, String name, String email, Long modifiedAt) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.modifiedAt = modifiedAt;
+    }
+
     // Constructor without ID for creating new users (needed by UserFailoverService)
     public User(String name, String email) {
         this.name = name;
         this.email = email;
     }
+
+    @PrePersist
+    @PreUpdate
+    void stampModifiedAt() {
+        this.modifiedAt = ChangeMarkers.next();
+    }
 }
@@ -0,0 +1,80 @@
+package com.webkorps.sync_db.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Pending change to a user that still has to be replicated to the other database.
+ * Written in the same transaction as the change itself, removed once applied.
+ */
+@Entity
+@Table(name = "user_outbox")
+@Data
+@NoArgsConstructor
+public class UserOutboxEvent {
+
+    public enum Operation {
+        UPSERT,
+        DELETE
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "operation", nullable = false, length = 10)
+    private Operation operation;
+
+    // Id of the user, so the other database stores it under the same id; null in events written before ids were shared
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "email", nullable = false, length = 150)
+    private String email;
+
+    @Column(name = "name", length = 100)
+    private String name;
+
+    @Column(name = "modified_at")
+    private Long modifiedAt;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    // Failed replication attempts so far; after sync.outbox.max-attempts rejections the event is skipped
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    // Set when the other database kept rejecting the event; skipped events stay here for inspection
+    @Column(name = "skipped_at")
+    private Instant skippedAt;
+
+    public static UserOutboxEvent upsert(User user) {
+        return of(Operation.UPSERT, user);
+    }
+
+    /** Delete event carrying the delete's own change marker, as written to the tombstone */
+    public static UserOutboxEvent delete(User user, long deletedAt) {
+        UserOutboxEvent event = of(Operation.DELETE, user);
+        event.setModifiedAt(deletedAt);
+        return event;
+    }
+
+    private static UserOutboxEvent of(Operation operation, User user) {
+        UserOutboxEvent event = new UserOutboxEvent();
+        event.setOperation(operation);
+        event.setUserId(user.getId());
+        event.setEmail(user.getEmail());
+        event.setName(user.getName());
+        event.setModifiedAt(user.getModifiedAt());
+        event.setCreatedAt(Instant.now());
+        return event;
+    }
+}
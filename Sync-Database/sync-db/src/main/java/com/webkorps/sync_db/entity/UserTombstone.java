@@ -0,0 +1,32 @@
+package com.webkorps.sync_db.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Record of a deleted user, kept so sync can tell "deleted here" from "never copied here".
+ * A user row whose change marker is older than the tombstone is a leftover of the deleted user.
+ */
+@Entity
+@Table(name = "user_tombstone", indexes = {
+    @Index(name = "idx_user_tombstone_deleted_at", columnList = "deleted_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserTombstone {
+
+    @Id
+    @Column(name = "email", length = 150)
+    private String email;
+
+    // Change marker of the delete, comparable with users.modified_at
+    @Column(name = "deleted_at", nullable = false)
+    private Long deletedAt;
+}
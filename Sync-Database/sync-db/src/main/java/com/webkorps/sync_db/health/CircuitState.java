@@ -0,0 +1,16 @@
+package com.webkorps.sync_db.health;
+
+/**
+ * Circuit breaker state of one database.
+ */
+public enum CircuitState {
+
+    /** Probes succeed, traffic flows normally */
+    CLOSED,
+
+    /** Too many consecutive failures, traffic is routed away and probing is paused */
+    OPEN,
+
+    /** Open period elapsed, probes decide whether the database is back */
+    HALF_OPEN
+}
@@ -0,0 +1,30 @@
+package com.webkorps.sync_db.health;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator health from the published circuit state, so {@code /actuator/health} never borrows
+ * a connection itself. Up while at least one database takes traffic.
+ */
+@Component
+public class DatabaseCircuitHealthIndicator implements HealthIndicator {
+
+    private final DatabaseHealthMonitor healthMonitor;
+
+    public DatabaseCircuitHealthIndicator(DatabaseHealthMonitor healthMonitor) {
+        this.healthMonitor = healthMonitor;
+    }
+
+    @Override
+    public Health health() {
+        HealthSnapshot mysql = healthMonitor.mysql().snapshot();
+        HealthSnapshot postgres = healthMonitor.postgres().snapshot();
+        Health.Builder builder = mysql.isAvailable() || postgres.isAvailable() ? Health.up() : Health.down();
+        return builder
+                .withDetail("mysql", mysql)
+                .withDetail("postgresql", postgres)
+                .build();
+    }
+}
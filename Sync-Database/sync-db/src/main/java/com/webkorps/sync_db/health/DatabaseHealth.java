@@ -0,0 +1,132 @@
+package com.webkorps.sync_db.health;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Probes one database and runs its circuit breaker.
+ * <p>
+ * Only the probe thread of this database writes the state; readers get the latest
+ * immutable {@link HealthSnapshot} through a single volatile read.
+ */
+public class DatabaseHealth {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseHealth.class);
+
+    private final String name;
+    private final DataSource dataSource;
+    private final int validationTimeoutSeconds;
+    private final int failureThreshold;
+    private final int successThreshold;
+    private final long openDurationNanos;
+    // false while the application cannot use the database yet, whatever the probes say
+    private final BooleanSupplier ready;
+
+    private volatile HealthSnapshot snapshot = HealthSnapshot.initial();
+    private long openedAtNanos;
+
+    public DatabaseHealth(String name, DataSource dataSource, int validationTimeoutSeconds,
+                          int failureThreshold, int successThreshold, long openDurationMillis) {
+        this(name, dataSource, validationTimeoutSeconds, failureThreshold, successThreshold, openDurationMillis,
+                () -> true);
+    }
+
+    public DatabaseHealth(String name, DataSource dataSource, int validationTimeoutSeconds,
+                          int failureThreshold, int successThreshold, long openDurationMillis, BooleanSupplier ready) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.failureThreshold = failureThreshold;
+        this.successThreshold = successThreshold;
+        this.openDurationNanos = openDurationMillis * 1_000_000;
+        this.ready = ready;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public HealthSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /** True if requests may be routed to this database: its circuit is closed and it is ready for use */
+    public boolean isAvailable() {
+        return snapshot.isAvailable() && ready.getAsBoolean();
+    }
+
+    /**
+     * Run one probe, unless the breaker is open and its open period has not elapsed yet.
+     *
+     * @return true if the database was actually probed
+     */
+    boolean probe() {
+        HealthSnapshot current = snapshot;
+        if (current.state() == CircuitState.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openDurationNanos) {
+                return false;
+            }
+            current = transition(current, CircuitState.HALF_OPEN, current.consecutiveFailures(), 0,
+                    current.lastLatencyNanos(), current.lastError());
+        }
+
+        long start = System.nanoTime();
+        String error = null;
+        try (Connection conn = dataSource.getConnection()) {
+            if (!conn.isValid(validationTimeoutSeconds)) {
+                error = "connection is not valid";
+            }
+        } catch (Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        long latency = System.nanoTime() - start;
+
+        if (error == null) {
+            onSuccess(current, latency);
+        } else {
+            onFailure(current, latency, error);
+        }
+        return true;
+    }
+
+    private void onSuccess(HealthSnapshot current, long latency) {
+        int successes = current.consecutiveSuccesses() + 1;
+        CircuitState state = current.state();
+        if (state == CircuitState.HALF_OPEN && successes >= successThreshold) {
+            state = CircuitState.CLOSED;
+        }
+        transition(current, state, 0, successes, latency, null);
+    }
+
+    private void onFailure(HealthSnapshot current, long latency, String error) {
+        int failures = current.consecutiveFailures() + 1;
+        CircuitState state = current.state();
+        if (state == CircuitState.HALF_OPEN || failures >= failureThreshold) {
+            state = CircuitState.OPEN;
+            openedAtNanos = System.nanoTime();
+        } else {
+            logger.warn("{} health check failed: {}", name, error);
+        }
+        transition(current, state, failures, 0, latency, error);
+    }
+
+    private HealthSnapshot transition(HealthSnapshot current, CircuitState state, int failures, int successes,
+                                      long latency, String error) {
+        HealthSnapshot next = new HealthSnapshot(state, failures, successes, latency, System.currentTimeMillis(), error);
+        snapshot = next;
+        if (state != current.state()) {
+            if (state == CircuitState.CLOSED) {
+                logger.info("{} is healthy again, circuit closed", name);
+            } else if (state == CircuitState.OPEN) {
+                logger.warn("{} marked unhealthy after {} failed checks, circuit open: {}", name, failures, error);
+            } else {
+                logger.info("{} circuit half-open, probing", name);
+            }
+        }
+        return next;
+    }
+}
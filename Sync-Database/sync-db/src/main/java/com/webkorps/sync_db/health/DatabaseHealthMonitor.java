@@ -0,0 +1,118 @@
+package com.webkorps.sync_db.health;
+
+import com.webkorps.sync_db.config.SecondaryBootstrap;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background health checks for both databases.
+ * <p>
+ * Each database is probed on its own thread, so a database hanging on connection timeouts
+ * cannot delay the checks of the other one. Request paths only read the published state.
+ * Probe latency and circuit state are published as {@code db.health.check} and {@code db.circuit.state}.
+ * PostgreSQL only counts as available once its JPA layer is ready, see {@link SecondaryBootstrap}.
+ */
+@Component
+public class DatabaseHealthMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseHealthMonitor.class);
+
+    private final DatabaseHealth mysql;
+    private final DatabaseHealth postgres;
+    private final ScheduledExecutorService probeExecutor;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sync.health.probe-interval-ms:1000}")
+    private long probeIntervalMillis;
+
+    public DatabaseHealthMonitor(@Qualifier("mysqlDataSource") DataSource mysqlDataSource,
+                                 @Qualifier("postgresDataSource") DataSource postgresDataSource,
+                                 @Value("${sync.health.validation-timeout-seconds:2}") int validationTimeoutSeconds,
+                                 @Value("${sync.health.failure-threshold:3}") int failureThreshold,
+                                 @Value("${sync.health.success-threshold:2}") int successThreshold,
+                                 @Value("${sync.health.open-duration-ms:5000}") long openDurationMillis,
+                                 @Qualifier("postgresBootstrap") SecondaryBootstrap postgresBootstrap,
+                                 MeterRegistry meterRegistry) {
+        this.mysql = new DatabaseHealth("MySQL", mysqlDataSource, validationTimeoutSeconds,
+                failureThreshold, successThreshold, openDurationMillis);
+        this.postgres = new DatabaseHealth("PostgreSQL", postgresDataSource, validationTimeoutSeconds,
+                failureThreshold, successThreshold, openDurationMillis, postgresBootstrap::isReady);
+        this.probeExecutor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "db-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        schedule(mysql);
+        schedule(postgres);
+    }
+
+    @PreDestroy
+    public void stop() {
+        probeExecutor.shutdownNow();
+    }
+
+    private void schedule(DatabaseHealth health) {
+        String db = health.getName().toLowerCase(Locale.ROOT);
+        Timer probeTimer = Timer.builder("db.health.check")
+                .description("Latency of health probes, including borrowing the connection")
+                .tag("db", db)
+                .register(meterRegistry);
+        Gauge.builder("db.circuit.state", health, DatabaseHealthMonitor::circuitStateValue)
+                .description("Circuit breaker state: 0 closed, 1 half-open, 2 open")
+                .tag("db", db)
+                .register(meterRegistry);
+
+        probeExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                if (health.probe()) {
+                    probeTimer.record(health.snapshot().lastLatencyNanos(), TimeUnit.NANOSECONDS);
+                }
+            } catch (RuntimeException e) {
+                logger.error("{} health probe crashed: {}", health.getName(), e.getMessage(), e);
+            }
+        }, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static double circuitStateValue(DatabaseHealth health) {
+        return switch (health.snapshot().state()) {
+            case CLOSED -> 0;
+            case HALF_OPEN -> 1;
+            case OPEN -> 2;
+        };
+    }
+
+    public boolean isMysqlAvailable() {
+        return mysql.isAvailable();
+    }
+
+    public boolean isPostgresAvailable() {
+        return postgres.isAvailable();
+    }
+
+    public DatabaseHealth mysql() {
+        return mysql;
+    }
+
+    public DatabaseHealth postgres() {
+        return postgres;
+    }
+}
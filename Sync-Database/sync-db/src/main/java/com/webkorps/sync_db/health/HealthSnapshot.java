@@ -0,0 +1,25 @@
+package com.webkorps.sync_db.health;
+
+/**
+ * Immutable health state of one database as of its last probe.
+ *
+ * @param lastLatencyNanos time the last probe took, including borrowing the connection
+ * @param lastCheckedAtMillis wall clock of the last probe, 0 before the first one
+ * @param lastError message of the last failed probe, null once a probe succeeded
+ */
+public record HealthSnapshot(CircuitState state,
+                             int consecutiveFailures,
+                             int consecutiveSuccesses,
+                             long lastLatencyNanos,
+                             long lastCheckedAtMillis,
+                             String lastError) {
+
+    static HealthSnapshot initial() {
+        return new HealthSnapshot(CircuitState.CLOSED, 0, 0, 0, 0, null);
+    }
+
+    /** True if requests may be routed to this database */
+    public boolean isAvailable() {
+        return state == CircuitState.CLOSED;
+    }
+}
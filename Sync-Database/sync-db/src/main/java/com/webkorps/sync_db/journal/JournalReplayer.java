@@ -0,0 +1,202 @@
+package com.webkorps.sync_db.journal;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserRow;
+import com.webkorps.sync_db.sync.WriteFailures;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Replays the {@link WriteJournal} into the databases once one of them is back.
+ * <p>
+ * Entries are applied in journal order, in batches, to MySQL if it is up and PostgreSQL otherwise,
+ * each batch in one transaction together with the outbox events that carry it to the other database.
+ * Replay is idempotent: a new user whose email already exists is not written again, and an update
+ * only replaces an older copy of the user with its id, email included, so a batch applied just before
+ * a crash is harmlessly replayed after the restart. A journaled new user whose email was taken by someone else in the
+ * meantime is dropped, as saveUser would have rejected it; a journaled update that finds a newer
+ * write in place loses to it, as it would have on the database.
+ * <p>
+ * When a batch fails, its entries are applied one by one up to the one that failed, which is retried
+ * on the next tick. An entry the database itself keeps rejecting (a constraint it violates, not an
+ * unreachable database) is skipped after {@code sync.journal.max-attempts} tries in a row, so it
+ * cannot hold up the writes behind it; it is logged in full and counts as {@code sync.journal.skipped}.
+ */
+@Component
+@ConditionalOnProperty(name = "sync.journal.enabled", havingValue = "true", matchIfMissing = true)
+public class JournalReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalReplayer.class);
+
+    private final WriteJournal journal;
+    private final UserJdbcStore mysqlStore;
+    private final UserJdbcStore postgresStore;
+    private final DatabaseHealthMonitor healthMonitor;
+    private final UserCache userCache;
+    private final Counter replayed;
+    private final Counter dropped;
+    private final Counter skipped;
+
+    @Value("${sync.journal.replay-batch-size:500}")
+    private int batchSize;
+
+    @Value("${sync.journal.max-attempts:10}")
+    private int maxAttempts;
+
+    // the entry that failed last, by its journal position, and how often in a row
+    private long failingEnd;
+    private int failingAttempts;
+
+    public JournalReplayer(WriteJournal journal,
+                           @Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                           @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                           DatabaseHealthMonitor healthMonitor,
+                           UserCache userCache,
+                           MeterRegistry meterRegistry) {
+        this.journal = journal;
+        this.mysqlStore = mysqlStore;
+        this.postgresStore = postgresStore;
+        this.healthMonitor = healthMonitor;
+        this.userCache = userCache;
+        this.replayed = Counter.builder("sync.journal.replayed")
+                .description("Journaled writes applied to a database")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("sync.journal.dropped")
+                .description("Journaled writes dropped on replay because the email was taken meanwhile")
+                .register(meterRegistry);
+        this.skipped = Counter.builder("sync.journal.skipped")
+                .description("Journaled writes given up on after the database kept rejecting them")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${sync.journal.replay-interval-ms:1000}")
+    public void replay() {
+        List<WriteJournal.Entry> entries;
+        do {
+            UserJdbcStore store = healthMonitor.isMysqlAvailable() ? mysqlStore
+                    : healthMonitor.isPostgresAvailable() ? postgresStore : null;
+            if (store == null) {
+                return;
+            }
+            entries = journal.read(batchSize);
+            if (entries.isEmpty()) {
+                return;
+            }
+            try {
+                apply(store, entries);
+            } catch (RuntimeException e) {
+                logger.warn("Replaying {} journaled writes into {} failed, retrying one by one: {}",
+                        entries.size(), store.getName(), e.getMessage());
+                applyOneByOne(store, entries);
+                return;
+            }
+            journal.markReplayed(entries.get(entries.size() - 1).end(), entries.size());
+        } while (entries.size() == batchSize);
+    }
+
+    /** Apply entries in order until one fails, so the failure is charged to the entry that caused it */
+    private void applyOneByOne(UserJdbcStore store, List<WriteJournal.Entry> entries) {
+        for (WriteJournal.Entry entry : entries) {
+            try {
+                apply(store, List.of(entry));
+            } catch (RuntimeException e) {
+                recordFailure(store, entry, e);
+                return;
+            }
+            journal.markReplayed(entry.end(), 1);
+        }
+    }
+
+    private void recordFailure(UserJdbcStore store, WriteJournal.Entry entry, RuntimeException cause) {
+        if (failingEnd != entry.end()) {
+            failingEnd = entry.end();
+            failingAttempts = 0;
+        }
+        failingAttempts++;
+        UserRow row = entry.row();
+        if (failingAttempts >= maxAttempts && WriteFailures.rejectedByTarget(cause)) {
+            logger.error("Skipping journaled {} of user {} ({}, name {}, marker {}) after {} attempts on {}: {}",
+                    entry.update() ? "update" : "creation", row.id(), row.email(), row.name(), row.modifiedAt(),
+                    failingAttempts, store.getName(), cause.getMessage());
+            journal.markReplayed(entry.end(), 1);
+            skipped.increment();
+        } else {
+            logger.warn("Replaying journaled write of {} into {} failed (attempt {}), retrying later: {}",
+                    row.email(), store.getName(), failingAttempts, cause.getMessage());
+        }
+    }
+
+    private void apply(UserJdbcStore store, List<WriteJournal.Entry> entries) {
+        List<String> emails = entries.stream().map(entry -> entry.row().email()).distinct().toList();
+        int lost = store.inTransaction(() -> {
+            // consecutive entries of the same kind go in one batch, runs in journal order
+            int start = 0;
+            while (start < entries.size()) {
+                boolean update = entries.get(start).update();
+                int end = start;
+                while (end < entries.size() && entries.get(end).update() == update) {
+                    end++;
+                }
+                List<WriteJournal.Entry> run = entries.subList(start, end);
+                if (update) {
+                    // by id, as an update may change the email
+                    store.updateNewerById(run.stream().map(WriteJournal.Entry::row).toList());
+                } else {
+                    store.insertMissing(run.stream().map(WriteJournal.Entry::row).toList());
+                }
+                start = end;
+            }
+            // the row is ours if it carries the journaled marker, whether written now or before a crash
+            Map<String, Long> markers = store.findMarkersByEmail(emails);
+            List<UserRow> ours = entries.stream()
+                    .map(WriteJournal.Entry::row)
+                    .filter(row -> Objects.equals(markers.get(row.email()), row.modifiedAt()))
+                    .toList();
+            store.appendUpsertEvents(ours);
+            return countLost(entries, markers);
+        });
+        userCache.invalidateEmails(emails);
+        // an update that changed the email leaves the old one cached under the id
+        entries.stream().filter(WriteJournal.Entry::update).forEach(entry -> userCache.invalidateId(entry.row().id()));
+        replayed.increment(entries.size() - lost);
+        if (lost > 0) {
+            dropped.increment(lost);
+            logger.warn("Dropped {} journaled users whose email already existed in {}", lost, store.getName());
+        }
+        logger.info("Replayed {} journaled writes into {}", entries.size() - lost, store.getName());
+    }
+
+    /**
+     * New users that did not land because their email belongs to someone else. A new user followed by
+     * a later entry for the same email was superseded rather than lost; updates never count, an update
+     * that did not land lost to a newer write.
+     */
+    private static int countLost(List<WriteJournal.Entry> entries, Map<String, Long> markers) {
+        Set<String> later = new HashSet<>();
+        int lost = 0;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            UserRow row = entries.get(i).row();
+            if (!entries.get(i).update() && !later.contains(row.email())
+                    && !Objects.equals(markers.get(row.email()), row.modifiedAt())) {
+                lost++;
+            }
+            later.add(row.email());
+        }
+        return lost;
+    }
+}
@@ -0,0 +1,411 @@
+package com.webkorps.sync_db.journal;
+
+import com.webkorps.sync_db.sync.UserRow;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only local journal of user writes, the last resort while neither database is available.
+ * <p>
+ * The journal is a sequence of fixed-size segment files mapped into memory. A record is its length,
+ * a CRC32C and the row; a record never spans segments, and the zero-filled rest of a segment ends it.
+ * {@link #append} returns once the record is on disk. Records are forced to disk by a single flusher
+ * thread, one {@code msync} for everything appended while the previous one ran (group commit), so
+ * concurrent writers share the cost of the sync.
+ * <p>
+ * Records are handed out again by {@link #read} in append order until {@link #markReplayed} moves
+ * the replay position past them. That position is stored next to the segments, and segments left
+ * entirely behind it are deleted. After a crash, a torn record at the tail fails its checksum and
+ * is dropped along with everything after it; its writer was never acknowledged.
+ */
+@Component
+@ConditionalOnProperty(name = "sync.journal.enabled", havingValue = "true", matchIfMissing = true)
+public class WriteJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String REPLAYED_FILE = "replayed";
+    // length and checksum in front of every record
+    private static final int HEADER_BYTES = 8;
+    // version 1 records carry no update flag and are read back as creates
+    private static final byte FORMAT_VERSION = 2;
+
+    /**
+     * A journaled row, whether it updates an existing user rather than creating one,
+     * and the journal position right after it
+     */
+    public record Entry(UserRow row, boolean update, long end) {
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final Thread flusher;
+    private final Timer flushTimer;
+    private final DistributionSummary groupSize;
+
+    // guarded by this; positions are segment number * segment size + offset in the segment
+    private long written;
+    private long durable;
+    private long replayed;
+    private long backlog;
+    private long unflushedRecords;
+    private boolean closed;
+    // set by the flusher once it flushed everything appended before close()
+    private boolean stopped;
+
+    @Autowired
+    public WriteJournal(@Value("${sync.journal.directory:./data/journal}") String directory,
+                        @Value("${sync.journal.segment-size-mb:64}") int segmentSizeMb,
+                        MeterRegistry meterRegistry) throws IOException {
+        this(Paths.get(directory), segmentSizeMb * 1024 * 1024, meterRegistry);
+    }
+
+    public WriteJournal(Path directory, int segmentSize, MeterRegistry meterRegistry) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushTimer = Timer.builder("sync.journal.flush")
+                .description("Time to force journal appends to disk, once per group commit")
+                .register(meterRegistry);
+        this.groupSize = DistributionSummary.builder("sync.journal.group.size")
+                .description("Records made durable by one group commit")
+                .register(meterRegistry);
+        Gauge.builder("sync.journal.backlog", this, WriteJournal::backlog)
+                .description("Journaled writes not yet replayed into a database")
+                .register(meterRegistry);
+
+        Files.createDirectories(directory);
+        recover();
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /** Journal in the given directory with its meters kept to itself, for tests and tools */
+    public WriteJournal(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, new SimpleMeterRegistry());
+    }
+
+    /** Append a new user and wait until it is on disk */
+    public long append(UserRow row) {
+        return append(row, false);
+    }
+
+    /** Append a row, creating a user or updating the one with its id, and wait until it is on disk */
+    public long append(UserRow row, boolean update) {
+        byte[] record = encode(row, update);
+        if (record.length > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + record.length + " bytes exceeds the segment size");
+        }
+        long end;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Write journal is closed");
+            }
+            if (segmentNumber(written) > segments.lastKey() || offset(written) + record.length > segmentSize) {
+                roll();
+            }
+            segments.lastEntry().getValue().put(offset(written), record);
+            written += record.length;
+            end = written;
+            backlog++;
+            unflushedRecords++;
+            notifyAll();
+
+            boolean interrupted = false;
+            while (durable < end && !stopped) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the record is in the journal either way, leaving early would only hide whether it is durable
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durable < end) {
+                throw new IllegalStateException("Write journal closed before the record was flushed");
+            }
+        }
+        return end;
+    }
+
+    /** Up to {@code max} durable entries after the replay position, in append order */
+    public synchronized List<Entry> read(int max) {
+        List<Entry> entries = new ArrayList<>();
+        long position = replayed;
+        while (entries.size() < max && position < durable) {
+            ByteBuffer segment = segments.get(segmentNumber(position)).duplicate();
+            if (offset(position) + HEADER_BYTES > segmentSize || segment.getInt(offset(position)) == 0) {
+                // rest of the segment unused, the next record starts the following segment
+                position = (segmentNumber(position) + 1) * segmentSize;
+                continue;
+            }
+            int length = segment.getInt(offset(position));
+            int start = offset(position);
+            position += HEADER_BYTES + length;
+            entries.add(decode(segment, start + HEADER_BYTES, length, position));
+        }
+        return entries;
+    }
+
+    /**
+     * Record that every entry up to {@code position} has been applied to a database,
+     * so it is not handed out again, even after a restart.
+     */
+    public synchronized void markReplayed(long position, int entries) {
+        if (position <= replayed) {
+            return;
+        }
+        try {
+            Path temporary = directory.resolve(REPLAYED_FILE + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, position));
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(REPLAYED_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Storing the journal replay position failed", e);
+        }
+        replayed = position;
+        backlog = Math.max(0, backlog - entries);
+        deleteReplayedSegments();
+    }
+
+    /** Journaled writes not yet replayed */
+    public synchronized long backlog() {
+        return backlog;
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Force whatever was appended since the last round to disk, until closed and drained */
+    private void flushLoop() {
+        while (true) {
+            long from;
+            long to;
+            long records;
+            MappedByteBuffer segment;
+            synchronized (this) {
+                while (written == durable && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close() ends the loop
+                    }
+                }
+                if (written == durable) {
+                    stopped = true;
+                    notifyAll();
+                    return;
+                }
+                // earlier segments were forced completely when the journal rolled over to this one
+                from = Math.max(durable, segmentNumber(written - 1) * segmentSize);
+                to = written;
+                records = unflushedRecords;
+                unflushedRecords = 0;
+                segment = segments.lastEntry().getValue();
+            }
+
+            long start = System.nanoTime();
+            segment.force(offset(from), (int) (to - from));
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            groupSize.record(records);
+
+            synchronized (this) {
+                durable = to;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Finish the current segment and map the next one; called with the lock held */
+    private void roll() {
+        Map.Entry<Long, MappedByteBuffer> current = segments.lastEntry();
+        current.getValue().force();
+        long next = Math.max(current.getKey() + 1, segmentNumber(written));
+        segments.put(next, map(next));
+        written = next * segmentSize;
+    }
+
+    private MappedByteBuffer map(long segmentNumber) {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentNumber),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping outlives the channel
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Mapping journal segment " + segmentNumber + " failed", e);
+        }
+    }
+
+    /** Map the existing segments, find the end of the journal and count what is left to replay */
+    private void recover() throws IOException {
+        Path replayedFile = directory.resolve(REPLAYED_FILE);
+        if (Files.exists(replayedFile)) {
+            replayed = ByteBuffer.wrap(Files.readAllBytes(replayedFile)).getLong();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(number -> segments.put(number, map(number)));
+        }
+        if (segments.isEmpty()) {
+            long first = segmentNumber(replayed);
+            segments.put(first, map(first));
+            written = Math.max(replayed, first * segmentSize);
+        } else {
+            scan();
+        }
+        durable = written;
+        deleteReplayedSegments();
+        if (backlog > 0) {
+            logger.warn("Write journal holds {} writes not yet replayed into a database", backlog);
+        }
+    }
+
+    private void scan() {
+        long end = segments.firstKey() * segmentSize;
+        for (Map.Entry<Long, MappedByteBuffer> segment : segments.entrySet()) {
+            MappedByteBuffer buffer = segment.getValue();
+            int offset = 0;
+            while (offset + HEADER_BYTES <= segmentSize) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || offset + HEADER_BYTES + length > segmentSize || !checksumMatches(buffer, offset, length)) {
+                    if (length != 0) {
+                        logger.warn("Dropping torn journal record at {} of segment {}", offset, segment.getKey());
+                        buffer.put(offset, new byte[segmentSize - offset]);
+                        buffer.force();
+                    }
+                    break;
+                }
+                offset += HEADER_BYTES + length;
+                end = segment.getKey() * segmentSize + offset;
+                if (end > replayed) {
+                    backlog++;
+                }
+            }
+        }
+        written = Math.max(end, replayed);
+    }
+
+    private void deleteReplayedSegments() {
+        long current = segmentNumber(replayed);
+        // the last segment stays mapped, appends continue there
+        while (segments.size() > 1 && segments.firstKey() < current) {
+            long number = segments.pollFirstEntry().getKey();
+            try {
+                Files.deleteIfExists(segmentPath(number));
+            } catch (IOException e) {
+                logger.warn("Deleting replayed journal segment {} failed: {}", number, e.getMessage());
+            }
+        }
+    }
+
+    private Path segmentPath(long segmentNumber) {
+        return directory.resolve(String.format("%020d%s", segmentNumber, SEGMENT_SUFFIX));
+    }
+
+    private long segmentNumber(long position) {
+        return position / segmentSize;
+    }
+
+    private int offset(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    private static byte[] encode(UserRow row, boolean update) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeBoolean(update);
+            out.writeLong(row.id());
+            out.writeLong(row.modifiedAt());
+            out.writeUTF(row.email());
+            out.writeUTF(row.name());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return ByteBuffer.allocate(HEADER_BYTES + bytes.length)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .array();
+    }
+
+    private static Entry decode(ByteBuffer segment, int offset, int length, long end) {
+        byte[] payload = new byte[length];
+        segment.get(offset, payload);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            byte version = in.readByte();
+            if (version != 1 && version != FORMAT_VERSION) {
+                throw new IllegalStateException("Unknown journal record format " + version);
+            }
+            boolean update = version != 1 && in.readBoolean();
+            long id = in.readLong();
+            long modifiedAt = in.readLong();
+            String email = in.readUTF();
+            String name = in.readUTF();
+            return new Entry(new UserRow(id, name, email, modifiedAt), update, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt journal record at " + offset, e);
+        }
+    }
+
+    private static boolean checksumMatches(ByteBuffer segment, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(segment.slice(offset + HEADER_BYTES, length));
+        return (int) crc.getValue() == segment.getInt(offset + 4);
+    }
+}
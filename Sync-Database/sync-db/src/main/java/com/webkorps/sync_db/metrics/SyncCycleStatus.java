@@ -0,0 +1,27 @@
+package com.webkorps.sync_db.metrics;
+
+import com.webkorps.sync_db.sync.ReconciliationResult;
+
+import java.time.Instant;
+
+/**
+ * Outcome of one sync cycle, as shown by {@code GET /api/users/sync/status}.
+ *
+ * @param result row counts, null if the cycle failed
+ * @param error failure message, null if the cycle completed
+ */
+public record SyncCycleStatus(String mode,
+                              Instant startedAt,
+                              long durationMillis,
+                              boolean succeeded,
+                              ReconciliationResult result,
+                              String error) {
+
+    static SyncCycleStatus completed(String mode, Instant startedAt, long nanos, ReconciliationResult result) {
+        return new SyncCycleStatus(mode, startedAt, nanos / 1_000_000, true, result, null);
+    }
+
+    static SyncCycleStatus failed(String mode, Instant startedAt, long nanos, String error) {
+        return new SyncCycleStatus(mode, startedAt, nanos / 1_000_000, false, null, error);
+    }
+}
@@ -0,0 +1,135 @@
+package com.webkorps.sync_db.metrics;
+
+import com.webkorps.sync_db.sync.ReconciliationResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the user write path and of sync cycles.
+ * <p>
+ * Every meter is registered up front, so recording on the request path is a lookup in a small
+ * enum map plus an atomic update, without building tags or asking the registry.
+ */
+@Component
+public class SyncMetrics {
+
+    public enum Operation { SAVE, DELETE, READ }
+
+    /**
+     * Which database served a request: the primary, the secondary after failover or for read
+     * balancing, the local write journal while neither was available, or none at all
+     */
+    public enum Route { PRIMARY, SECONDARY, JOURNAL, UNAVAILABLE }
+
+    private final Map<Operation, Map<Route, Counter>> routed = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<Route, Timer>> writeTimers = new EnumMap<>(Operation.class);
+    private final Timer fullCycleTimer;
+    private final Timer incrementalCycleTimer;
+    private final Counter failedCycles;
+    private final Counter skippedCycles;
+    private final Counter mysqlScanned;
+    private final Counter postgresScanned;
+    private final Counter copiedToPostgres;
+    private final Counter copiedToMysql;
+    private final Counter rowsFailed;
+    private final Counter conflictsResolved;
+    private final Counter deletesApplied;
+
+    private volatile SyncCycleStatus lastCycle;
+
+    public SyncMetrics(MeterRegistry registry) {
+        for (Operation operation : Operation.values()) {
+            Map<Route, Counter> counters = new EnumMap<>(Route.class);
+            Map<Route, Timer> timers = new EnumMap<>(Route.class);
+            for (Route route : Route.values()) {
+                counters.put(route, Counter.builder("users.requests")
+                        .description("User requests by the database that served them")
+                        .tag("operation", tagValue(operation))
+                        .tag("route", tagValue(route))
+                        .register(registry));
+                if (operation != Operation.READ && route != Route.UNAVAILABLE) {
+                    timers.put(route, Timer.builder("users.write")
+                            .description("Latency of user writes including the outbox event")
+                            .tag("operation", tagValue(operation))
+                            .tag("route", tagValue(route))
+                            .register(registry));
+                }
+            }
+            routed.put(operation, counters);
+            writeTimers.put(operation, timers);
+        }
+
+        this.fullCycleTimer = cycleTimer(registry, "full");
+        this.incrementalCycleTimer = cycleTimer(registry, "incremental");
+        this.failedCycles = Counter.builder("sync.cycles.failed").register(registry);
+        this.skippedCycles = Counter.builder("sync.cycles.skipped")
+                .description("Sync ticks skipped because a database was unavailable")
+                .register(registry);
+        this.mysqlScanned = Counter.builder("sync.rows.scanned").tag("db", "mysql").register(registry);
+        this.postgresScanned = Counter.builder("sync.rows.scanned").tag("db", "postgresql").register(registry);
+        this.copiedToPostgres = Counter.builder("sync.rows.copied").tag("direction", "mysql-to-postgres").register(registry);
+        this.copiedToMysql = Counter.builder("sync.rows.copied").tag("direction", "postgres-to-mysql").register(registry);
+        this.rowsFailed = Counter.builder("sync.rows.failed").register(registry);
+        this.conflictsResolved = Counter.builder("sync.conflicts.resolved")
+                .description("Users both databases held with different contents, settled by the conflict policy")
+                .register(registry);
+        this.deletesApplied = Counter.builder("sync.deletes.applied")
+                .description("Rows removed by sync because the other database had deleted them")
+                .register(registry);
+    }
+
+    private static Timer cycleTimer(MeterRegistry registry, String mode) {
+        return Timer.builder("sync.cycle")
+                .description("Duration of one sync cycle")
+                .tag("mode", mode)
+                .register(registry);
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Count which database a request went to; failed-over writes are the SECONDARY and UNAVAILABLE routes */
+    public void recordRoute(Operation operation, Route route) {
+        routed.get(operation).get(route).increment();
+    }
+
+    public void recordWrite(Operation operation, Route route, long nanos) {
+        writeTimers.get(operation).get(route).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCycle(String mode, Instant startedAt, long nanos, ReconciliationResult result) {
+        ("full".equals(mode) ? fullCycleTimer : incrementalCycleTimer).record(nanos, TimeUnit.NANOSECONDS);
+        mysqlScanned.increment(result.mysqlScanned());
+        postgresScanned.increment(result.postgresScanned());
+        copiedToPostgres.increment(result.copiedToPostgres());
+        copiedToMysql.increment(result.copiedToMysql());
+        rowsFailed.increment(result.failed());
+        conflictsResolved.increment(result.conflictsResolved());
+        deletesApplied.increment(result.deletesApplied());
+        lastCycle = SyncCycleStatus.completed(mode, startedAt, nanos, result);
+    }
+
+    public void recordFailedCycle(String mode, Instant startedAt, long nanos, Exception error) {
+        ("full".equals(mode) ? fullCycleTimer : incrementalCycleTimer).record(nanos, TimeUnit.NANOSECONDS);
+        failedCycles.increment();
+        lastCycle = SyncCycleStatus.failed(mode, startedAt, nanos, error.getMessage());
+    }
+
+    public void recordSkippedCycle() {
+        skippedCycles.increment();
+    }
+
+    /** Outcome of the last sync cycle that ran, null before the first one */
+    public SyncCycleStatus lastCycle() {
+        return lastCycle;
+    }
+}
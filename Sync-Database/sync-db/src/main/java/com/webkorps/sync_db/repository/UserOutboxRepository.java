@@ -0,0 +1,18 @@
+package com.webkorps.sync_db.repository;
+
+import com.webkorps.sync_db.entity.UserOutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+
+import java.util.List;
+
+/**
+ * Outbox access shared by the MySQL and PostgreSQL repositories.
+ */
+@NoRepositoryBean
+public interface UserOutboxRepository extends JpaRepository<UserOutboxEvent, Long> {
+
+    /** Oldest pending events first, leaving out the ones replication gave up on */
+    List<UserOutboxEvent> findBySkippedAtIsNullOrderByIdAsc(Pageable pageable);
+}
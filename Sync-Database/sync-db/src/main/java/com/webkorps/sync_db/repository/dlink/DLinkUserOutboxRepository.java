@@ -0,0 +1,8 @@
+package com.webkorps.sync_db.repository.dlink;
+
+import com.webkorps.sync_db.repository.UserOutboxRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DLinkUserOutboxRepository extends UserOutboxRepository {
+}
@@ -0,0 +1,32 @@
+package com.webkorps.sync_db.repository.link;
+
+import com.webkorps.sync_db.entity.SyncRun;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface LinkSyncRunRepository extends JpaRepository<SyncRun, Long> {
+
+    /** Most recent runs first */
+    List<SyncRun> findByOrderByIdDesc(Limit limit);
+
+    /** Move the runs started before the given time from one status to another */
+    @Modifying
+    @Transactional
+    @Query("update SyncRun r set r.status = :to where r.status = :from and r.startedAt < :before")
+    int updateStatus(@Param("from") SyncRun.Status from, @Param("to") SyncRun.Status to,
+                     @Param("before") Instant before);
+
+    @Modifying
+    @Transactional
+    @Query("delete from SyncRun r where r.startedAt < :cutoff")
+    int deleteStartedBefore(@Param("cutoff") Instant cutoff);
+}
@@ -0,0 +1,8 @@
+package com.webkorps.sync_db.repository.link;
+
+import com.webkorps.sync_db.repository.UserOutboxRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LinkUserOutboxRepository extends UserOutboxRepository {
+}
@@ -4,7 +4,11 @@ import com.webkorps.sync_db.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface LinkUserRepository extends JpaRepository<User, Long> {
+
+    Optional<User> findByEmail(String email);
 }
 
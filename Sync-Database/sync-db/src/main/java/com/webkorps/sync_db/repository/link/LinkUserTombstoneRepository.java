@@ -0,0 +1,9 @@
+package com.webkorps.sync_db.repository.link;
+
+import com.webkorps.sync_db.entity.UserTombstone;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LinkUserTombstoneRepository extends JpaRepository<UserTombstone, String> {
+}
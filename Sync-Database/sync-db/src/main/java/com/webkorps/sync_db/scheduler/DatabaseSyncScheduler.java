@@ -1,21 +1,151 @@
 package com.webkorps.sync_db.scheduler;
 
 import com.webkorps.sync_db.service.UserFailoverService;
-import org.springframework.scheduling.annotation.Scheduled;
+import com.webkorps.sync_db.sync.ReconciliationResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Runs sync cycles one at a time, at an interval that follows the rate of change.
+ * <p>
+ * The next cycle is only scheduled once the current one has finished, so cycles never overlap.
+ * A cycle that copied rows resets the interval to the minimum, since more changes are likely
+ * pending; an idle, skipped or failed cycle doubles it up to the maximum. A manual trigger runs
+ * a cycle right away, or joins the one already in flight instead of starting a second one.
+ */
 @Component
 public class DatabaseSyncScheduler {
 
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseSyncScheduler.class);
+
     private final UserFailoverService userFailoverService;
+    private final TaskScheduler taskScheduler;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final Counter coalescedTriggers;
+
+    // guarded by this
+    private CompletableFuture<Optional<ReconciliationResult>> inFlight;
+    private ScheduledFuture<?> nextCycle;
+    private long intervalMillis;
+    private boolean stopped;
 
-    public DatabaseSyncScheduler(UserFailoverService service) {
+    public DatabaseSyncScheduler(UserFailoverService service,
+                                 TaskScheduler taskScheduler,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${sync.schedule.min-interval-ms:500}") long minIntervalMillis,
+                                 @Value("${sync.schedule.max-interval-ms:30000}") long maxIntervalMillis) {
         this.userFailoverService = service;
+        this.taskScheduler = taskScheduler;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = Math.max(minIntervalMillis, maxIntervalMillis);
+        this.intervalMillis = minIntervalMillis;
+        this.coalescedTriggers = Counter.builder("sync.triggers.coalesced")
+                .description("Manual sync triggers that joined a cycle already in flight")
+                .register(meterRegistry);
+        Gauge.builder("sync.schedule.interval", this, DatabaseSyncScheduler::currentIntervalMillis)
+                .description("Delay before the next scheduled sync cycle")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
     }
 
-    @Scheduled(fixedRate = 2000)
-    public void scheduledSync() {
-        userFailoverService.syncDatabases();
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (nextCycle == null && inFlight == null && !stopped) {
+            scheduleNext();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        if (nextCycle != null) {
+            nextCycle.cancel(false);
+        }
+    }
+
+    /**
+     * Run a cycle now, or join the one in flight.
+     * The future completes with the cycle's result, empty if it was skipped or failed.
+     */
+    public synchronized CompletableFuture<Optional<ReconciliationResult>> trigger() {
+        if (inFlight != null) {
+            coalescedTriggers.increment();
+            logger.info("Sync cycle already in flight, joining it");
+            return inFlight;
+        }
+        if (nextCycle != null) {
+            nextCycle.cancel(false);
+        }
+        CompletableFuture<Optional<ReconciliationResult>> cycle = new CompletableFuture<>();
+        inFlight = cycle;
+        taskScheduler.schedule(() -> run(cycle), Instant.now());
+        return cycle;
+    }
+
+    /** True while a cycle is running */
+    public synchronized boolean isRunning() {
+        return inFlight != null;
     }
-}
 
+    public synchronized long currentIntervalMillis() {
+        return intervalMillis;
+    }
+
+    private void scheduledCycle() {
+        CompletableFuture<Optional<ReconciliationResult>> cycle;
+        synchronized (this) {
+            // a manual trigger got there first and will schedule the next cycle itself
+            if (inFlight != null || stopped) {
+                return;
+            }
+            cycle = new CompletableFuture<>();
+            inFlight = cycle;
+        }
+        run(cycle);
+    }
+
+    private void run(CompletableFuture<Optional<ReconciliationResult>> cycle) {
+        Optional<ReconciliationResult> result = Optional.empty();
+        try {
+            result = userFailoverService.syncDatabases();
+        } catch (RuntimeException e) {
+            logger.error("Sync cycle crashed: {}", e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                inFlight = null;
+                intervalMillis = nextInterval(intervalMillis, result, minIntervalMillis, maxIntervalMillis);
+                if (!stopped) {
+                    scheduleNext();
+                }
+            }
+            cycle.complete(result);
+        }
+    }
+
+    private void scheduleNext() {
+        nextCycle = taskScheduler.schedule(this::scheduledCycle, Instant.now().plusMillis(intervalMillis));
+    }
+
+    /** Back to the minimum after a cycle that found work, otherwise double up to the maximum */
+    static long nextInterval(long current, Optional<ReconciliationResult> result, long min, long max) {
+        if (result.isPresent() && result.get().hadDivergence()) {
+            return min;
+        }
+        return Math.min(max, Math.max(min, current * 2));
+    }
+}
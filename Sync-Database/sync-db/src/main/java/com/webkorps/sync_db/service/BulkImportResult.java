@@ -0,0 +1,27 @@
+package com.webkorps.sync_db.service;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk user import. Rows that were created are only counted;
+ * every other row is listed with the reason it was not imported.
+ */
+public record BulkImportResult(int received,
+                               int created,
+                               int duplicates,
+                               int invalid,
+                               int failed,
+                               List<RowOutcome> rejected) {
+
+    public enum Status {
+        DUPLICATE,
+        INVALID,
+        FAILED
+    }
+
+    /**
+     * @param index zero-based position of the row in the request
+     */
+    public record RowOutcome(int index, String email, Status status, String message) {
+    }
+}
@@ -0,0 +1,247 @@
+package com.webkorps.sync_db.service;
+
+import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Writes a user to MySQL and then directly to PostgreSQL, and acknowledges according to the
+ * configured {@link WriteConsistency}.
+ * <p>
+ * PostgreSQL is only written once the MySQL transaction committed, with the id and change marker
+ * MySQL stored, so a write MySQL rejects (a duplicate email, a rollback, a timeout) never reaches
+ * PostgreSQL. A new user is only inserted if PostgreSQL does not hold its email yet, and a changed one
+ * only replaces an older copy; whatever the direct write leaves out is settled by the outbox event
+ * written with the MySQL row, which becomes a no-op once the direct write landed.
+ * <p>
+ * The MySQL transaction runs on the caller's thread, bounded by {@code sync.write.mysql-timeout-ms}
+ * as its transaction timeout (see {@link #withMysqlTimeout}), which the JPA provider applies as JDBC
+ * query timeouts: a statement that runs out of time is cancelled and the transaction rolled back.
+ * Only a commit that stalls after its statements ran is left indeterminate.
+ * <p>
+ * The two writes run one after the other, never concurrently, so a request that waits for both takes
+ * as long as both together. With only two databases a majority of them is both, so QUORUM acknowledges
+ * exactly like ALL while PostgreSQL is up, and only differs in still accepting writes while it is down.
+ * <p>
+ * A write that is not acknowledged has not necessarily left both databases untouched: under QUORUM
+ * and ALL a PostgreSQL failure or timeout fails the request after MySQL committed, and the outbox
+ * then brings PostgreSQL in line with what MySQL holds.
+ * <p>
+ * PostgreSQL writes run on virtual threads when {@code spring.threads.virtual.enabled} is set on
+ * Java 21+, otherwise on a pool of {@code sync.write.threads} platform threads. Either way at most
+ * {@code sync.write.queue-capacity} writes wait for a thread (virtual threads: that many in flight
+ * beyond {@code sync.write.threads}), so a slow PostgreSQL cannot pile up writes in memory. A write
+ * that finds no room is not attempted: under PRIMARY the outbox event delivers it, under QUORUM and
+ * ALL the request fails. Rejections count as {@code users.write.secondary.rejected}; writes still
+ * queued at shutdown are dropped the same way. Their latency is the {@code users.write.secondary}
+ * timer, also under PRIMARY where the request does not wait for them.
+ */
+@Component
+public class DualWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(DualWriter.class);
+
+    private final UserJdbcStore postgresStore;
+    private final WriteConsistency consistency;
+    private final long mysqlTimeoutMillis;
+    private final long postgresTimeoutMillis;
+    private final Executor executor;
+    private final Timer secondaryWriteTimer;
+    private final Counter rejectedWrites;
+
+    @Autowired
+    public DualWriter(@Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                      @Value("${sync.write.consistency:outbox}") String consistency,
+                      @Value("${sync.write.mysql-timeout-ms:2000}") long mysqlTimeoutMillis,
+                      @Value("${sync.write.postgres-timeout-ms:2000}") long postgresTimeoutMillis,
+                      @Value("${sync.write.threads:16}") int threads,
+                      @Value("${sync.write.queue-capacity:1000}") int queueCapacity,
+                      Environment environment,
+                      MeterRegistry meterRegistry) {
+        this(postgresStore, WriteConsistency.of(consistency), mysqlTimeoutMillis, postgresTimeoutMillis,
+                Threading.VIRTUAL.isActive(environment)
+                        ? bounded(new VirtualThreadTaskExecutor("user-write-"), threads + queueCapacity)
+                        : pool(threads, queueCapacity),
+                meterRegistry);
+        logger.info("User writes acknowledged with {} consistency", this.consistency);
+    }
+
+    public DualWriter(UserJdbcStore postgresStore, WriteConsistency consistency,
+                      long mysqlTimeoutMillis, long postgresTimeoutMillis, Executor executor,
+                      MeterRegistry meterRegistry) {
+        this.postgresStore = postgresStore;
+        this.consistency = consistency;
+        this.mysqlTimeoutMillis = mysqlTimeoutMillis;
+        this.postgresTimeoutMillis = postgresTimeoutMillis;
+        this.executor = executor;
+        this.secondaryWriteTimer = Timer.builder("users.write.secondary")
+                .description("Latency of the direct PostgreSQL write of a dual write")
+                .register(meterRegistry);
+        this.rejectedWrites = Counter.builder("users.write.secondary.rejected")
+                .description("Direct PostgreSQL writes not attempted because the write queue was full")
+                .register(meterRegistry);
+    }
+
+    /** Writer with its meters kept to itself, for tests and tools */
+    public DualWriter(UserJdbcStore postgresStore, WriteConsistency consistency,
+                      long mysqlTimeoutMillis, long postgresTimeoutMillis, Executor executor) {
+        this(postgresStore, consistency, mysqlTimeoutMillis, postgresTimeoutMillis, executor, new SimpleMeterRegistry());
+    }
+
+    /** Platform threads with a bounded queue, rejecting writes once it is full */
+    static ExecutorService pool(int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "user-write-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /** Virtual threads never queue, so the writes in flight are capped instead */
+    private static Executor bounded(Executor executor, int limit) {
+        Semaphore permits = new Semaphore(limit);
+        return task -> {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("More than " + limit + " writes in flight");
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        };
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor instanceof ExecutorService pool) {
+            pool.shutdown();
+        }
+    }
+
+    public boolean isEnabled() {
+        return consistency.isDualWrite();
+    }
+
+    /**
+     * A copy of the given MySQL transaction template with {@code sync.write.mysql-timeout-ms} as its
+     * timeout, rounded up to whole seconds, for the {@code mysqlWrite} handed to {@link #save}.
+     */
+    public TransactionTemplate withMysqlTimeout(TransactionTemplate template) {
+        TransactionTemplate timed = new TransactionTemplate(template.getTransactionManager(), template);
+        timed.setTimeout(mysqlTimeoutSeconds());
+        return timed;
+    }
+
+    /** {@code sync.write.mysql-timeout-ms} rounded up to whole seconds, the granularity of transaction timeouts */
+    public int mysqlTimeoutSeconds() {
+        return (int) Math.max(1, (mysqlTimeoutMillis + 999) / 1000);
+    }
+
+    /**
+     * Save a user to MySQL, then to PostgreSQL.
+     *
+     * @param mysqlWrite   the MySQL transaction (row plus outbox event), run on this thread and
+     *                     bounded by {@link #withMysqlTimeout}
+     * @param postgresUp   whether PostgreSQL's circuit is closed; if not, only MySQL is written
+     * @return the user as saved in MySQL
+     */
+    public User save(User user, Supplier<User> mysqlWrite, boolean postgresUp) {
+        return write(mysqlWrite, user.getId() == null, postgresUp);
+    }
+
+    /**
+     * As {@link #save}, for a MySQL write that creates the user or updates the one holding its email,
+     * e.g. an upsert by email. PostgreSQL gets a newer-wins upsert either way.
+     */
+    public User upsert(Supplier<User> mysqlWrite, boolean postgresUp) {
+        return write(mysqlWrite, false, postgresUp);
+    }
+
+    private User write(Supplier<User> mysqlWrite, boolean created, boolean postgresUp) {
+        if (consistency == WriteConsistency.ALL && !postgresUp) {
+            // refused before anything is written
+            throw new IllegalStateException("PostgreSQL unavailable, write not acknowledged by both databases");
+        }
+        User saved = mysqlWrite.get();
+        if (!postgresUp) {
+            return saved;
+        }
+
+        UserRow row = new UserRow(saved.getId(), saved.getName(), saved.getEmail(), saved.getModifiedAt());
+        CompletableFuture<Boolean> postgres;
+        try {
+            postgres = CompletableFuture.supplyAsync(() -> secondaryWriteTimer.record(
+                    () -> created ? postgresStore.insertMissing(row) : postgresStore.upsertNewer(row)), executor);
+        } catch (RejectedExecutionException e) {
+            rejectedWrites.increment();
+            if (consistency == WriteConsistency.PRIMARY) {
+                logger.warn("PostgreSQL write queue full, outbox will deliver {}", row.email());
+                return saved;
+            }
+            throw new IllegalStateException("PostgreSQL write queue full, write not acknowledged by both databases");
+        }
+        if (consistency == WriteConsistency.PRIMARY) {
+            postgres.whenComplete((applied, e) -> {
+                if (e != null) {
+                    logger.warn("PostgreSQL write of {} failed, outbox will retry: {}", row.email(), e.getMessage());
+                }
+            });
+        } else {
+            await(postgres, postgresTimeoutMillis, "PostgreSQL");
+        }
+        return saved;
+    }
+
+    private static <T> T await(CompletableFuture<T> write, long timeoutMillis, String database) {
+        try {
+            return write.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(database + " write not acknowledged within " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtime ? runtime
+                    : new IllegalStateException(database + " write failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + database);
+        }
+    }
+}
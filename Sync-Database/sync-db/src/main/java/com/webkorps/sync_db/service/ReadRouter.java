@@ -0,0 +1,122 @@
+package com.webkorps.sync_db.service;
+
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.metrics.SyncMetrics.Route;
+import com.webkorps.sync_db.sync.ChangeMarkers;
+import com.webkorps.sync_db.sync.OutboxReplicator;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the database a user read goes to.
+ * <p>
+ * While only one database is up, reads go there. While both are, reads are spread across them,
+ * weighted by the inverse of each database's recent read latency, so the faster one takes the larger
+ * share. PostgreSQL only takes reads while the outbox is replicating to it within
+ * {@code sync.read.max-lag-ms}; beyond that every read goes to MySQL until it has caught up.
+ * <p>
+ * A client that just wrote reads its own writes: a read carrying the change marker of the client's
+ * last write goes to MySQL, where saveUser wrote it, until that write is {@code sync.read.sticky-ms} old.
+ * A read that continues a walk, such as the next keyset page, stays on the database that started it.
+ */
+@Component
+public class ReadRouter {
+
+    // neither database is ever starved of reads, so its latency estimate stays current
+    private static final double MIN_SHARE = 0.05;
+
+    private final DatabaseHealthMonitor healthMonitor;
+    private final LongSupplier replicationLagMillis;
+    private final boolean balance;
+    private final long maxLagMillis;
+    private final long stickyMicros;
+    // moving averages of read latency, 0 until the first read
+    private final AtomicLong mysqlLatencyNanos = new AtomicLong();
+    private final AtomicLong postgresLatencyNanos = new AtomicLong();
+
+    @Autowired
+    public ReadRouter(DatabaseHealthMonitor healthMonitor,
+                      OutboxReplicator outboxReplicator,
+                      MeterRegistry meterRegistry,
+                      @Value("${sync.read.balance:true}") boolean balance,
+                      @Value("${sync.read.max-lag-ms:1000}") long maxLagMillis,
+                      @Value("${sync.read.sticky-ms:5000}") long stickyMillis) {
+        this(healthMonitor, outboxReplicator::mysqlToPostgresLagMillis, balance, maxLagMillis, stickyMillis);
+        Gauge.builder("users.read.postgres.share", this, ReadRouter::postgresShare)
+                .description("Share of balanced user reads sent to PostgreSQL")
+                .register(meterRegistry);
+    }
+
+    ReadRouter(DatabaseHealthMonitor healthMonitor, LongSupplier replicationLagMillis,
+               boolean balance, long maxLagMillis, long stickyMillis) {
+        this.healthMonitor = healthMonitor;
+        this.replicationLagMillis = replicationLagMillis;
+        this.balance = balance;
+        this.maxLagMillis = maxLagMillis;
+        this.stickyMicros = stickyMillis * 1_000;
+    }
+
+    /**
+     * Route one read.
+     *
+     * @param lastWrite change marker of the client's last write, 0 if it did not tell us
+     */
+    public Route route(long lastWrite) {
+        boolean mysql = healthMonitor.isMysqlAvailable();
+        boolean postgres = healthMonitor.isPostgresAvailable();
+        if (!mysql) {
+            return postgres ? Route.SECONDARY : Route.UNAVAILABLE;
+        }
+        if (!balance || !postgres
+                || ChangeMarkers.nowMicros() - lastWrite < stickyMicros
+                || replicationLagMillis.getAsLong() > maxLagMillis) {
+            return Route.PRIMARY;
+        }
+        return ThreadLocalRandom.current().nextDouble() < postgresShare() ? Route.SECONDARY : Route.PRIMARY;
+    }
+
+    /**
+     * Route a read that continues a walk the given database started, such as the next keyset page.
+     * It stays there while that database is up, so replication lag between the two cannot skip or
+     * repeat rows; otherwise it is routed like a new read.
+     */
+    public Route route(Route startedOn, long lastWrite) {
+        if (startedOn == Route.PRIMARY && healthMonitor.isMysqlAvailable()
+                || startedOn == Route.SECONDARY && healthMonitor.isPostgresAvailable()) {
+            return startedOn;
+        }
+        return route(lastWrite);
+    }
+
+    /** Feed the latency of a completed read into the weighting */
+    public void recordLatency(Route route, long nanos) {
+        if (route == Route.PRIMARY) {
+            update(mysqlLatencyNanos, nanos);
+        } else if (route == Route.SECONDARY) {
+            update(postgresLatencyNanos, nanos);
+        }
+    }
+
+    private static void update(AtomicLong average, long nanos) {
+        // exponentially weighted, each read counts for 1/8
+        average.accumulateAndGet(nanos, (current, sample) -> current == 0 ? sample : current + (sample - current) / 8);
+    }
+
+    /** Share of balanced reads PostgreSQL gets: 1/latency weighting, even until both have been measured */
+    double postgresShare() {
+        long mysql = mysqlLatencyNanos.get();
+        long postgres = postgresLatencyNanos.get();
+        if (mysql == 0 || postgres == 0) {
+            return 0.5;
+        }
+        double share = (double) mysql / (mysql + postgres);
+        return Math.min(1 - MIN_SHARE, Math.max(MIN_SHARE, share));
+    }
+}
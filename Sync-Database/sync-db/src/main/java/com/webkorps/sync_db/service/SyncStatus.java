@@ -0,0 +1,21 @@
+package com.webkorps.sync_db.service;
+
+import com.webkorps.sync_db.health.HealthSnapshot;
+import com.webkorps.sync_db.metrics.SyncCycleStatus;
+
+/**
+ * Sync state as shown by {@code GET /api/users/sync/status}.
+ *
+ * @param runningRunId ledger id of the sync cycle running now, as listed by {@code GET /api/users/sync/runs},
+ *                     null while none runs
+ * @param lastCycle last sync cycle that ran, null before the first one
+ * @param mysqlToPostgresLagMillis age of the oldest outbox event not yet replicated to PostgreSQL
+ * @param postgresToMysqlLagMillis age of the oldest outbox event not yet replicated to MySQL
+ */
+public record SyncStatus(Long runningRunId,
+                         SyncCycleStatus lastCycle,
+                         long mysqlToPostgresLagMillis,
+                         long postgresToMysqlLagMillis,
+                         HealthSnapshot mysql,
+                         HealthSnapshot postgres) {
+}
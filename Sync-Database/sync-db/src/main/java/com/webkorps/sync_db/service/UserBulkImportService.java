@@ -0,0 +1,227 @@
+package com.webkorps.sync_db.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.service.BulkImportResult.RowOutcome;
+import com.webkorps.sync_db.service.BulkImportResult.Status;
+import com.webkorps.sync_db.sync.ChangeMarkers;
+import com.webkorps.sync_db.sync.UserIds;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserRow;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Streaming bulk import of users.
+ * <p>
+ * Rows are parsed and validated as they arrive and written in chunks: one JDBC batch of
+ * insert-ignore statements plus one batch of outbox events per chunk, in a single local transaction
+ * on the primary database that is up. The outbox replicates the new rows to the other database.
+ * A duplicate or invalid row is reported and skipped without failing the rest of the import.
+ */
+@Service
+public class UserBulkImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserBulkImportService.class);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private DatabaseHealthMonitor healthMonitor;
+
+    @Autowired
+    @Qualifier("mysqlUserStore")
+    private UserJdbcStore mysqlStore;
+
+    @Autowired
+    @Qualifier("postgresUserStore")
+    private UserJdbcStore postgresStore;
+
+    @Value("${sync.bulk.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Import users from a JSON array or, when {@code ndjson} is set, from one JSON object per line.
+     */
+    public BulkImportResult importUsers(InputStream body, boolean ndjson) throws IOException {
+        Import run = new Import();
+        if (ndjson) {
+            readNdjson(body, run);
+        } else {
+            readJsonArray(body, run);
+        }
+        run.flush();
+
+        BulkImportResult result = run.result();
+        logger.info("Bulk import: {} received, {} created, {} duplicates, {} invalid, {} failed",
+                result.received(), result.created(), result.duplicates(), result.invalid(), result.failed());
+        return result;
+    }
+
+    private void readJsonArray(InputStream body, Import run) throws IOException {
+        try (MappingIterator<User> rows = objectMapper.readerFor(User.class).readValues(body)) {
+            int index = 0;
+            while (true) {
+                try {
+                    if (!rows.hasNextValue()) {
+                        break;
+                    }
+                    run.accept(index, rows.nextValue());
+                } catch (JsonParseException e) {
+                    // Broken JSON syntax, there is no reliable way to find the next row
+                    run.unparseable(index, "Malformed JSON: " + e.getOriginalMessage());
+                    break;
+                } catch (JsonProcessingException e) {
+                    // Well-formed but unmappable row, the iterator skips to the next one
+                    run.unparseable(index, e.getOriginalMessage());
+                }
+                index++;
+            }
+        }
+    }
+
+    private void readNdjson(InputStream body, Import run) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        int index = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                run.accept(index, objectMapper.readValue(line, User.class));
+            } catch (JsonProcessingException e) {
+                run.unparseable(index, e.getOriginalMessage());
+            }
+            index++;
+        }
+    }
+
+    private record PendingRow(int index, UserRow row) {
+    }
+
+    /** State of one import request */
+    private class Import {
+
+        private final List<PendingRow> chunk = new ArrayList<>();
+        private final Set<String> chunkEmails = new HashSet<>();
+        private final List<RowOutcome> rejected = new ArrayList<>();
+        private int received;
+        private int created;
+        private int duplicates;
+        private int invalid;
+        private int failed;
+
+        void accept(int index, User user) {
+            received++;
+            Set<ConstraintViolation<User>> violations = validator.validate(user);
+            if (!violations.isEmpty()) {
+                reject(index, user.getEmail(), Status.INVALID, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining("; ")));
+                return;
+            }
+            if (!chunkEmails.add(user.getEmail())) {
+                reject(index, user.getEmail(), Status.DUPLICATE, "Email appears more than once in the request");
+                return;
+            }
+
+            chunk.add(new PendingRow(index, new UserRow(UserIds.next(), user.getName(), user.getEmail(), ChangeMarkers.next())));
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        /** Row that could not even be parsed into a user */
+        void unparseable(int index, String message) {
+            received++;
+            reject(index, null, Status.INVALID, message);
+        }
+
+        void reject(int index, String email, Status status, String message) {
+            switch (status) {
+                case DUPLICATE -> duplicates++;
+                case INVALID -> invalid++;
+                case FAILED -> failed++;
+            }
+            rejected.add(new RowOutcome(index, email, status, message));
+        }
+
+        void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            List<UserRow> rows = chunk.stream().map(PendingRow::row).toList();
+            UserJdbcStore store = healthMonitor.isMysqlAvailable() ? mysqlStore
+                    : healthMonitor.isPostgresAvailable() ? postgresStore : null;
+
+            if (store == null) {
+                chunk.forEach(pending -> reject(pending.index(), pending.row().email(), Status.FAILED,
+                        "No healthy database available"));
+            } else {
+                try {
+                    Map<String, Long> stored = store.inTransaction(() -> {
+                        store.insertMissing(rows);
+                        Map<String, Long> markers = store.findMarkersByEmail(rows.stream().map(UserRow::email).toList());
+                        store.appendUpsertEvents(rows.stream()
+                                .filter(row -> Objects.equals(markers.get(row.email()), row.modifiedAt()))
+                                .toList());
+                        return markers;
+                    });
+                    recordOutcomes(stored);
+                } catch (RuntimeException e) {
+                    logger.warn("Bulk import chunk of {} rows failed on {}: {}", rows.size(), store.getName(), e.getMessage());
+                    chunk.forEach(pending -> reject(pending.index(), pending.row().email(), Status.FAILED, e.getMessage()));
+                }
+            }
+            chunk.clear();
+            chunkEmails.clear();
+        }
+
+        /**
+         * A row was created if the stored row carries the marker stamped on it here.
+         * This stays exact even when the driver rewrites the batch and reports no per-row counts.
+         */
+        private void recordOutcomes(Map<String, Long> stored) {
+            for (PendingRow pending : chunk) {
+                if (Objects.equals(stored.get(pending.row().email()), pending.row().modifiedAt())) {
+                    created++;
+                } else {
+                    reject(pending.index(), pending.row().email(), Status.DUPLICATE, "Email already exists");
+                }
+            }
+        }
+
+        BulkImportResult result() {
+            return new BulkImportResult(received, created, duplicates, invalid, failed, rejected);
+        }
+    }
+}
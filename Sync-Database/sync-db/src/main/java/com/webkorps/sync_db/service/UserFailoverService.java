@@ -1,19 +1,54 @@
 package com.webkorps.sync_db.service;
 
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncRun;
 import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.entity.UserOutboxEvent;
+import com.webkorps.sync_db.entity.UserTombstone;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.journal.WriteJournal;
+import com.webkorps.sync_db.metrics.SyncMetrics;
+import com.webkorps.sync_db.metrics.SyncMetrics.Operation;
+import com.webkorps.sync_db.metrics.SyncMetrics.Route;
+import com.webkorps.sync_db.repository.dlink.DLinkUserOutboxRepository;
 import com.webkorps.sync_db.repository.dlink.DLinkUserRepository;
+import com.webkorps.sync_db.repository.dlink.DLinkUserTombstoneRepository;
+import com.webkorps.sync_db.repository.link.LinkUserOutboxRepository;
 import com.webkorps.sync_db.repository.link.LinkUserRepository;
+import com.webkorps.sync_db.repository.link.LinkUserTombstoneRepository;
+import com.webkorps.sync_db.sync.ChangeMarkers;
+import com.webkorps.sync_db.sync.ChecksumVerifier;
+import com.webkorps.sync_db.sync.OutboxReplicator;
+import com.webkorps.sync_db.sync.ReconciliationResult;
+import com.webkorps.sync_db.sync.RowCursor;
+import com.webkorps.sync_db.sync.SyncRunHistory;
+import com.webkorps.sync_db.sync.SyncRunLedger;
+import com.webkorps.sync_db.sync.TableSyncCoordinator;
+import com.webkorps.sync_db.sync.UserIds;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserRow;
+import com.webkorps.sync_db.sync.VerificationResult;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
-import javax.sql.DataSource;
-import java.sql.Connection;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class UserFailoverService {
@@ -23,68 +58,202 @@ public class UserFailoverService {
     @Autowired
     private LinkUserRepository linkUserRepository;
 
+    // PostgreSQL repositories are resolved on first use, see SecondaryBootstrap
     @Autowired
+    @Lazy
     private DLinkUserRepository dlinkUserRepository;
 
     @Autowired
-    @Qualifier("mysqlDataSource")
-    private DataSource mysqlDataSource;
+    private LinkUserOutboxRepository linkOutboxRepository;
 
     @Autowired
-    @Qualifier("postgresDataSource")
-    private DataSource postgresDataSource;
+    @Lazy
+    private DLinkUserOutboxRepository dlinkOutboxRepository;
 
+    // Deletes leave a tombstone, so sync does not copy the user back from the other database
+    @Autowired
+    private LinkUserTombstoneRepository linkTombstoneRepository;
+
+    @Autowired
+    @Lazy
+    private DLinkUserTombstoneRepository dlinkTombstoneRepository;
+
+    @Autowired
+    @Qualifier("mysqlTransactionTemplate")
+    private TransactionTemplate mysqlTransactionTemplate;
+
+    @Autowired
+    @Qualifier("postgresTransactionTemplate")
+    private TransactionTemplate postgresTransactionTemplate;
+
+    @Autowired
+    private TableSyncCoordinator tableSyncCoordinator;
+
+    @Autowired
+    private ChecksumVerifier checksumVerifier;
+
+    @Autowired
+    private SyncRunLedger syncRunLedger;
+
+    // "incremental" follows the modified_at high-water mark, "full" rescans every table every time
+    @Value("${sync.mode:incremental}")
+    private String syncMode;
+
+    @Autowired
+    private DatabaseHealthMonitor healthMonitor;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Autowired
+    private OutboxReplicator outboxReplicator;
+
+    @Autowired
+    private DualWriter dualWriter;
+
+    @Autowired
+    private ReadRouter readRouter;
+
+    // JDBC writes bypass the entity's bean validation
+    @Autowired
+    private Validator validator;
+
+    // Absent when sync.journal.enabled=false
+    @Autowired(required = false)
+    private WriteJournal writeJournal;
 
+    @Autowired
+    @Qualifier("mysqlUserStore")
+    private UserJdbcStore mysqlStore;
+
+    @Autowired
+    @Qualifier("postgresUserStore")
+    private UserJdbcStore postgresStore;
+
+    @Value("${sync.page-size:1000}")
+    private int pageSize;
+
+    // set by the cycle in flight, read by status requests
+    private volatile Long runningSyncRunId;
+
+
+    // Cached state from the health monitor, no connection is borrowed on the request path
     private boolean isMysqlHealthy() {
-        try (Connection conn = mysqlDataSource.getConnection()) {
-            return conn.isValid(2);
-        } catch (SQLException e) {
-            logger.warn("MySQL health check failed: {}", e.getMessage());
-            return false;
+        return healthMonitor.isMysqlAvailable();
+    }
+
+    private boolean isPostgresHealthy() {
+        return healthMonitor.isPostgresAvailable();
+    }
+
+    private void validate(User user) {
+        Set<ConstraintViolation<User>> violations = validator.validate(user);
+        if (!violations.isEmpty()) {
+            throw new IllegalArgumentException(violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
         }
     }
 
+    // Pick the database a read goes to and count the decision
+    private Route routeRead(long lastWrite) {
+        return recordRead(readRouter.route(lastWrite));
+    }
 
-    private boolean isPostgresHealthy() {
-        try (Connection conn = postgresDataSource.getConnection()) {
-            return conn.isValid(2);
-        } catch (SQLException e) {
-            logger.warn("PostgreSQL health check failed: {}", e.getMessage());
-            return false;
+    // As routeRead, for a read continuing a walk the given database started
+    private Route routeRead(Route startedOn, long lastWrite) {
+        return recordRead(readRouter.route(startedOn, lastWrite));
+    }
+
+    private Route recordRead(Route route) {
+        syncMetrics.recordRoute(Operation.READ, route);
+        return route;
+    }
+
+    /**
+     * Run a routed read and feed its latency back to the router. A read sent to PostgreSQL while
+     * MySQL is up was only sent there for balance, so if it fails it is retried on MySQL.
+     */
+    private <T> T read(Route route, Supplier<T> fromMysql, Supplier<T> fromPostgres) {
+        long start = System.nanoTime();
+        if (route == Route.PRIMARY) {
+            T result = fromMysql.get();
+            readRouter.recordLatency(route, System.nanoTime() - start);
+            return result;
+        }
+        try {
+            T result = fromPostgres.get();
+            readRouter.recordLatency(route, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            if (!isMysqlHealthy()) {
+                throw e;
+            }
+            logger.warn("Read from PostgreSQL failed, retrying on MySQL: {}", e.getMessage());
+            return fromMysql.get();
         }
     }
 
 
+    /**
+     * Save a user to the primary database that is up. The replication event for the other database
+     * is written to the outbox in the same transaction and applied by {@link OutboxReplicator}.
+     * With a dual-write {@link WriteConsistency}, PostgreSQL is also written directly once MySQL
+     * committed, and the outbox event only covers the case where that write did not land.
+     * While neither database is up, and until what was journaled then has been replayed, the user is
+     * appended to the local {@link WriteJournal} instead, so writes reach the databases in order.
+     * The user is validated first, as the journal cannot reject it later.
+     *
+     * @throws IllegalArgumentException if name or email are not valid for a user
+     */
     public User saveUser(User user) {
-        User savedUser = null;
+        validate(user);
+        User savedUser;
+        Route route = Route.UNAVAILABLE;
+        long start = System.nanoTime();
 
         try {
-            if (isMysqlHealthy()) {
-                // Primary save to MySQL
-                savedUser = linkUserRepository.save(user);
-                logger.info("User saved to MySQL: {}", savedUser.getEmail());
+            if (writeJournal != null && (writeJournal.backlog() > 0 || (!isMysqlHealthy() && !isPostgresHealthy()))) {
+                route = Route.JOURNAL;
+                // an update keeps its id and is replayed over the stored user if it is newer
+                boolean update = user.getId() != null;
+                savedUser = new User(update ? user.getId() : UserIds.next(), user.getName(), user.getEmail(),
+                        ChangeMarkers.next());
+                writeJournal.append(new UserRow(savedUser.getId(), savedUser.getName(), savedUser.getEmail(),
+                        savedUser.getModifiedAt()), update);
+                userCache.put(savedUser);
+                logger.warn("Databases unavailable or journal not yet replayed. User journaled locally: {}",
+                        savedUser.getEmail());
 
-                // Try to sync to PostgreSQL if healthy
-                if (isPostgresHealthy()) {
-                    try {
-                        // Simply try to save - if duplicate, catch the exception
-//                        User syncUser = new User(user.getName(), user.getEmail());
-                        dlinkUserRepository.save(user);
-                        logger.info("User synced to PostgreSQL: {}", user.getEmail());
-                    } catch (Exception syncException) {
-                        // Check if it's a duplicate entry error
-                        if (syncException.getMessage() != null && 
-                            syncException.getMessage().contains("Duplicate entry")) {
-                            logger.info("User already exists in PostgreSQL, skipping sync: {}", user.getEmail());
-                        } else {
-                            logger.warn("Failed to sync to PostgreSQL: {}", syncException.getMessage());
-                        }
-                    }
-                }
+            } else if (isMysqlHealthy()) {
+                route = Route.PRIMARY;
+                TransactionTemplate template = dualWriter.isEnabled()
+                        ? dualWriter.withMysqlTimeout(mysqlTransactionTemplate)
+                        : mysqlTransactionTemplate;
+                Supplier<User> mysqlWrite = () -> template.execute(status -> {
+                    User saved = linkUserRepository.saveAndFlush(user);
+                    linkOutboxRepository.save(UserOutboxEvent.upsert(saved));
+                    return saved;
+                });
+                savedUser = dualWriter.isEnabled()
+                        ? dualWriter.save(user, mysqlWrite, isPostgresHealthy())
+                        : mysqlWrite.get();
+                userCache.put(savedUser);
+                logger.info("User saved to MySQL: {}", savedUser.getEmail());
 
             } else if (isPostgresHealthy()) {
-                // MySQL down → save to PostgreSQL
-                savedUser = dlinkUserRepository.save(user);
+                route = Route.SECONDARY;
+                // MySQL down → save to PostgreSQL, outbox replays it to MySQL once it is back
+                savedUser = postgresTransactionTemplate.execute(status -> {
+                    User saved = dlinkUserRepository.saveAndFlush(user);
+                    dlinkOutboxRepository.save(UserOutboxEvent.upsert(saved));
+                    return saved;
+                });
+                userCache.put(savedUser);
                 logger.info("MySQL down. User saved to PostgreSQL: {}", savedUser.getEmail());
             } else {
                 throw new RuntimeException("No healthy database available for saving user");
@@ -95,55 +264,228 @@ public class UserFailoverService {
         } catch (Exception e) {
             logger.error("Error saving user {}: {}", user.getEmail(), e.getMessage());
             throw new RuntimeException("Failed to save user: " + e.getMessage());
+        } finally {
+            recordWrite(Operation.SAVE, route, start);
+        }
+    }
+
+    /**
+     * Create the user with the given email, or rename it if it exists, on the primary database that is up.
+     * The write is one native upsert on the unique email index, so an existing email is not an error;
+     * the outbox event in the same transaction carries the result to the other database, and with a
+     * dual-write {@link WriteConsistency} PostgreSQL is written directly as for saveUser.
+     * Unlike saveUser, upserts are not journaled, as they need the stored user to keep its id.
+     * While journaled writes are still waiting to be replayed they are refused instead, so they
+     * cannot overtake those writes.
+     *
+     * @throws IllegalArgumentException if name or email are not valid for a user
+     * @throws IllegalStateException    if no database is up or the journal has a backlog
+     */
+    public User upsertUserByEmail(String email, String name) {
+        validate(new User(name, email));
+        boolean backlog = writeJournal != null && writeJournal.backlog() > 0;
+        Route route = backlog ? Route.UNAVAILABLE
+                : isMysqlHealthy() ? Route.PRIMARY : isPostgresHealthy() ? Route.SECONDARY : Route.UNAVAILABLE;
+        long start = System.nanoTime();
+        try {
+            if (backlog) {
+                throw new IllegalStateException("Journaled writes are still being replayed, upsert refused");
+            }
+            if (route == Route.UNAVAILABLE) {
+                throw new IllegalStateException("No healthy database available for saving user");
+            }
+            UserJdbcStore store = route == Route.PRIMARY ? mysqlStore : postgresStore;
+            boolean dualWrite = route == Route.PRIMARY && dualWriter.isEnabled();
+            Supplier<UserRow> upsert = () -> {
+                UserRow row = store.upsertByEmail(name, email, ChangeMarkers.next());
+                store.appendUpsertEvents(List.of(row));
+                return row;
+            };
+            Supplier<User> write = () -> {
+                UserRow row = dualWrite
+                        ? store.inTransaction(upsert, dualWriter.mysqlTimeoutSeconds())
+                        : store.inTransaction(upsert);
+                return new User(row.id(), row.name(), row.email(), row.modifiedAt());
+            };
+            User user = dualWrite ? dualWriter.upsert(write, isPostgresHealthy()) : write.get();
+            userCache.put(user);
+            logger.info("User upserted in {}: {}", store.getName(), email);
+            return user;
+        } finally {
+            recordWrite(Operation.SAVE, route, start);
         }
     }
 
     /** Get all users (failover support) */
     public List<User> getAllUsers() {
-        if (isMysqlHealthy()) {
-            return linkUserRepository.findAll();
-        } else if (isPostgresHealthy()) {
-            logger.info("MySQL down. Fetching from PostgreSQL");
-            return dlinkUserRepository.findAll();
-        } else {
+        Route route = routeRead(0);
+        if (route == Route.UNAVAILABLE) {
             return Collections.emptyList();
         }
+        return read(route, linkUserRepository::findAll, dlinkUserRepository::findAll);
     }
 
-    /** Find user by ID (failover support) */
-    public Optional<User> getUserById(Long id) {
-        if (isMysqlHealthy()) {
-            return linkUserRepository.findById(id);
-        } else if (isPostgresHealthy()) {
-            return dlinkUserRepository.findById(id);
+    /**
+     * Hand every user to the consumer straight from a forward-only database cursor, in id order.
+     * Memory use is one fetch page regardless of table size.
+     *
+     * @param lastWrite change marker of the caller's last write, 0 if unknown, see {@link ReadRouter}
+     */
+    public void forEachUser(long lastWrite, Consumer<User> consumer) throws SQLException {
+        Route route = routeRead(lastWrite);
+        if (route == Route.UNAVAILABLE) {
+            return;
+        }
+        UserJdbcStore store = route == Route.PRIMARY ? mysqlStore : postgresStore;
+        try (RowCursor<UserRow> cursor = store.openIdCursor(pageSize)) {
+            for (UserRow row = cursor.current(); row != null; cursor.advance(), row = cursor.current()) {
+                consumer.accept(new User(row.id(), row.name(), row.email(), row.modifiedAt()));
+            }
+        }
+    }
+
+    /**
+     * One keyset page of users ordered by email (failover support). Emails are compared by code point
+     * rather than by either database's collation, see {@link UserJdbcStore#findPageAfterEmail}.
+     * The cursor remembers which database served the page, and the next page is read there while it is up.
+     */
+    public UserPage getUsersPage(int size, String cursor, long lastWrite) {
+        PageCursor after = cursor == null ? new PageCursor(null, "") : decodeCursor(cursor);
+
+        List<User> users;
+        Route route = after.servedBy() == null ? routeRead(lastWrite) : routeRead(after.servedBy(), lastWrite);
+        // a page PostgreSQL failed to serve is read from MySQL instead
+        Route[] servedBy = {route};
+        if (route == Route.UNAVAILABLE) {
+            users = Collections.emptyList();
         } else {
-            return Optional.empty();
+            users = read(route, () -> {
+                        servedBy[0] = Route.PRIMARY;
+                        return toUsers(mysqlStore.findPageAfterEmail(after.email(), size + 1));
+                    },
+                    () -> toUsers(postgresStore.findPageAfterEmail(after.email(), size + 1)));
+        }
+
+        if (users.size() <= size) {
+            return new UserPage(users, null);
+        }
+        List<User> page = users.subList(0, size);
+        return new UserPage(page, encodeCursor(new PageCursor(servedBy[0], page.get(size - 1).getEmail())));
+    }
+
+    /** Position of a page walk: the last email handed out and the database that served it, if known */
+    private record PageCursor(Route servedBy, String email) {
+    }
+
+    private static List<User> toUsers(List<UserRow> rows) {
+        return rows.stream().map(row -> new User(row.id(), row.name(), row.email(), row.modifiedAt())).toList();
+    }
+
+    // "P|" or "S|" for the database, then the email
+    private static String encodeCursor(PageCursor cursor) {
+        String token = (cursor.servedBy() == Route.SECONDARY ? "S|" : "P|") + cursor.email();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PageCursor decodeCursor(String cursor) {
+        // throws IllegalArgumentException for tokens we did not issue
+        String token = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if (token.startsWith("P|")) {
+            return new PageCursor(Route.PRIMARY, token.substring(2));
+        } else if (token.startsWith("S|")) {
+            return new PageCursor(Route.SECONDARY, token.substring(2));
+        }
+        // issued before cursors named their database
+        return new PageCursor(null, token);
+    }
+
+    /**
+     * Find user by ID (failover support). Served from the cache while fresh; if no database
+     * is available, a stale cached copy is better than nothing.
+     */
+    public Optional<User> getUserById(Long id) {
+        return getUserById(id, 0);
+    }
+
+    /** As {@link #getUserById(Long)}, reading the caller's own writes, see {@link ReadRouter} */
+    public Optional<User> getUserById(Long id, long lastWrite) {
+        Optional<User> cached = userCache.getFreshById(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Route route = routeRead(lastWrite);
+        if (route == Route.UNAVAILABLE) {
+            return userCache.getStaleById(id);
         }
+        Optional<User> user = read(route, () -> linkUserRepository.findById(id), () -> dlinkUserRepository.findById(id));
+        user.ifPresent(userCache::put);
+        return user;
+    }
+
+    /** Find user by email (failover support), cached like {@link #getUserById(Long)} */
+    public Optional<User> getUserByEmail(String email) {
+        return getUserByEmail(email, 0);
+    }
+
+    /** As {@link #getUserByEmail(String)}, reading the caller's own writes, see {@link ReadRouter} */
+    public Optional<User> getUserByEmail(String email, long lastWrite) {
+        Optional<User> cached = userCache.getFreshByEmail(email);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Route route = routeRead(lastWrite);
+        if (route == Route.UNAVAILABLE) {
+            return userCache.getStaleByEmail(email);
+        }
+        Optional<User> user = read(route, () -> linkUserRepository.findByEmail(email),
+                () -> dlinkUserRepository.findByEmail(email));
+        user.ifPresent(userCache::put);
+        return user;
     }
 
     /** Find user by ID with failover support (alternative method name for controller) */
-    public Optional<User> findUserById(Long id) {
-        return getUserById(id);
+    public Optional<User> findUserById(Long id, long lastWrite) {
+        return getUserById(id, lastWrite);
     }
 
-    /** Delete user with failover and sync */
+    /**
+     * Delete user with failover. The delete is replicated by email through the outbox, since
+     * users created before ids were shared may still have different ids in the two databases
+     * until a full reconciliation has aligned them.
+     * Deletes are not journaled. While journaled writes are still waiting to be replayed they are
+     * refused, as the replay could bring back the user they delete.
+     *
+     * @throws IllegalStateException if the journal has a backlog
+     */
     public void deleteUser(Long id) {
+        Route route = Route.UNAVAILABLE;
+        long start = System.nanoTime();
+        if (writeJournal != null && writeJournal.backlog() > 0) {
+            recordWrite(Operation.DELETE, route, start);
+            throw new IllegalStateException("Journaled writes are still being replayed, delete refused");
+        }
         try {
             if (isMysqlHealthy()) {
-                linkUserRepository.deleteById(id);
+                route = Route.PRIMARY;
+                mysqlTransactionTemplate.executeWithoutResult(status ->
+                        linkUserRepository.findById(id).ifPresent(user -> {
+                            long deletedAt = ChangeMarkers.next();
+                            linkUserRepository.delete(user);
+                            linkTombstoneRepository.save(new UserTombstone(user.getEmail(), deletedAt));
+                            linkOutboxRepository.save(UserOutboxEvent.delete(user, deletedAt));
+                        }));
+                userCache.invalidateId(id);
                 logger.info("User deleted from MySQL: ID {}", id);
-                
-                // Try to sync delete to PostgreSQL if healthy
-                if (isPostgresHealthy()) {
-                    try {
-                        dlinkUserRepository.deleteById(id);
-                        logger.info("Delete synced to PostgreSQL: ID {}", id);
-                    } catch (Exception e) {
-                        logger.warn("Failed to sync delete to PostgreSQL: {}", e.getMessage());
-                    }
-                }
             } else if (isPostgresHealthy()) {
-                dlinkUserRepository.deleteById(id);
+                route = Route.SECONDARY;
+                postgresTransactionTemplate.executeWithoutResult(status ->
+                        dlinkUserRepository.findById(id).ifPresent(user -> {
+                            long deletedAt = ChangeMarkers.next();
+                            dlinkUserRepository.delete(user);
+                            dlinkTombstoneRepository.save(new UserTombstone(user.getEmail(), deletedAt));
+                            dlinkOutboxRepository.save(UserOutboxEvent.delete(user, deletedAt));
+                        }));
+                userCache.invalidateId(id);
                 logger.info("MySQL down. User deleted from PostgreSQL: ID {}", id);
             } else {
                 throw new RuntimeException("No healthy database available for deleting user");
@@ -151,61 +493,94 @@ public class UserFailoverService {
         } catch (Exception e) {
             logger.error("Error deleting user ID {}: {}", id, e.getMessage());
             throw new RuntimeException("Failed to delete user: " + e.getMessage());
+        } finally {
+            recordWrite(Operation.DELETE, route, start);
         }
     }
 
-    /** Manual bidirectional sync with duplicate handling */
-    public void syncDatabases() {
+    private void recordWrite(Operation operation, Route route, long startNanos) {
+        syncMetrics.recordRoute(operation, route);
+        if (route != Route.UNAVAILABLE) {
+            syncMetrics.recordWrite(operation, route, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * One bidirectional sync cycle of the users table and every other registered table.
+     * Returns empty if the cycle was skipped because a database is unhealthy, or failed.
+     * Cycles are run by {@link com.webkorps.sync_db.scheduler.DatabaseSyncScheduler}, which keeps them from overlapping.
+     */
+    public Optional<ReconciliationResult> syncDatabases() {
         if (!isMysqlHealthy() || !isPostgresHealthy()) {
             logger.warn("Cannot sync. One or both DBs are unhealthy.");
-            return;
+            syncMetrics.recordSkippedCycle();
+            return Optional.empty();
         }
 
+        String mode = "full".equalsIgnoreCase(syncMode) ? "full" : "incremental";
+        Instant startedAt = Instant.now();
+        long start = System.nanoTime();
+        SyncRun run = syncRunLedger.begin(mode, startedAt);
+        runningSyncRunId = run.getId();
         try {
             logger.info("Starting bidirectional synchronization with duplicate handling");
 
-            // Fetch all users from both DBs
-            List<User> mysqlUsers = linkUserRepository.findAll();
-            List<User> postgresUsers = dlinkUserRepository.findAll();
-
-            // Sync missing users MySQL → PostgreSQL
-            for (User mysqlUser : mysqlUsers) {
-                boolean exists = postgresUsers.stream()
-                        .anyMatch(p -> p.getEmail().equals(mysqlUser.getEmail()));
-
-                if (!exists) {
-                    try {
-                        User newUser = new User(mysqlUser.getName(), mysqlUser.getEmail());
-                        dlinkUserRepository.save(newUser);
-                        logger.info("Synced user to PostgreSQL: {}", newUser.getEmail());
-                    } catch (Exception e) {
-                        logger.warn("Failed to sync user {} to PostgreSQL: {}",
-                                mysqlUser.getEmail(), e.getMessage());
-                    }
-                }
-            }
-
-            // Sync missing users PostgreSQL → MySQL
-            for (User postgresUser : postgresUsers) {
-                boolean exists = mysqlUsers.stream()
-                        .anyMatch(m -> m.getEmail().equals(postgresUser.getEmail()));
-
-                if (!exists) {
-                    try {
-                        User newUser = new User(postgresUser.getName(), postgresUser.getEmail());
-                        linkUserRepository.save(newUser);
-                        logger.info("Synced user to MySQL: {}", newUser.getEmail());
-                    } catch (Exception e) {
-                        logger.warn("Failed to sync user {} to MySQL: {}",
-                                postgresUser.getEmail(), e.getMessage());
-                    }
-                }
-            }
+            ReconciliationResult result = tableSyncCoordinator.syncAll("full".equals(mode));
+            long nanos = System.nanoTime() - start;
+            syncMetrics.recordCycle(mode, startedAt, nanos, result);
+            syncRunLedger.completed(run, nanos, result);
+            logger.info("Scanned {} MySQL and {} PostgreSQL rows, copied {} to PostgreSQL and {} to MySQL, {} failed",
+                    result.mysqlScanned(), result.postgresScanned(),
+                    result.copiedToPostgres(), result.copiedToMysql(), result.failed());
 
             logger.info("Bidirectional synchronization completed successfully");
+            return Optional.of(result);
 
         } catch (Exception e) {
+            long nanos = System.nanoTime() - start;
+            syncMetrics.recordFailedCycle(mode, startedAt, nanos, e);
+            syncRunLedger.failed(run, nanos, e);
             logger.error("Bidirectional synchronization failed: {}", e.getMessage(), e);
+            return Optional.empty();
+        } finally {
+            runningSyncRunId = null;
+        }
+    }
+
+    /** Ledger id of the sync cycle running now, empty while none runs or its start could not be recorded */
+    public Optional<Long> runningSyncRunId() {
+        return Optional.ofNullable(runningSyncRunId);
+    }
+
+    /**
+     * Compare both users tables by server-side checksums, without copying anything.
+     * Returns empty if a database is unhealthy.
+     */
+    public Optional<VerificationResult> verifyDatabases() {
+        if (!isMysqlHealthy() || !isPostgresHealthy()) {
+            logger.warn("Cannot verify. One or both DBs are unhealthy.");
+            return Optional.empty();
         }
+        return Optional.of(checksumVerifier.verify());
+    }
+
+    /**
+     * The given number of most recent sync cycles from the ledger in MySQL.
+     * Returns empty if MySQL is unhealthy.
+     */
+    public Optional<SyncRunHistory> getSyncRuns(int limit) {
+        if (!isMysqlHealthy()) {
+            return Optional.empty();
+        }
+        return Optional.of(syncRunLedger.history(limit));
+    }
+
+    /** Last sync cycle, outbox replication lag and circuit state of both databases */
+    public SyncStatus getSyncStatus() {
+        return new SyncStatus(runningSyncRunId, syncMetrics.lastCycle(),
+                outboxReplicator.mysqlToPostgresLagMillis(),
+                outboxReplicator.postgresToMysqlLagMillis(),
+                healthMonitor.mysql().snapshot(),
+                healthMonitor.postgres().snapshot());
     }
 }
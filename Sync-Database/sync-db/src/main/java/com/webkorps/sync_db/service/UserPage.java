@@ -0,0 +1,13 @@
+package com.webkorps.sync_db.service;
+
+import com.webkorps.sync_db.entity.User;
+
+import java.util.List;
+
+/**
+ * One keyset page of users.
+ *
+ * @param nextCursor opaque token for the following page, null on the last page
+ */
+public record UserPage(List<User> items, String nextCursor) {
+}
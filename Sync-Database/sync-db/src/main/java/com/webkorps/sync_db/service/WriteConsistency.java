@@ -0,0 +1,33 @@
+package com.webkorps.sync_db.service;
+
+import java.util.Locale;
+
+/**
+ * When a user write is acknowledged, set with {@code sync.write.consistency}.
+ */
+public enum WriteConsistency {
+
+    /** Written to MySQL only; PostgreSQL catches up through the outbox */
+    OUTBOX,
+
+    /** Written to MySQL, then to PostgreSQL in the background; acknowledged as soon as MySQL committed */
+    PRIMARY,
+
+    /**
+     * Written to MySQL, then to PostgreSQL; acknowledged once a majority of the databases that are up
+     * committed: both while both are up, MySQL alone while PostgreSQL's circuit is open. With two
+     * databases that is ALL while PostgreSQL is up, it only differs while PostgreSQL is down
+     */
+    QUORUM,
+
+    /** Written to MySQL, then to PostgreSQL; acknowledged only once both committed, refused while PostgreSQL is down */
+    ALL;
+
+    public static WriteConsistency of(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public boolean isDualWrite() {
+        return this != OUTBOX;
+    }
+}
@@ -0,0 +1,14 @@
+package com.webkorps.sync_db.sync;
+
+import java.math.BigDecimal;
+
+/**
+ * Row count and checksum of the users whose MD5(email) starts with a given hex prefix.
+ * The checksum is a sum of per-row hashes, so it does not depend on the order rows are read in.
+ */
+public record BucketChecksum(String prefix, long rows, BigDecimal checksum) {
+
+    public boolean matches(BucketChecksum other) {
+        return other != null && rows == other.rows && checksum.compareTo(other.checksum) == 0;
+    }
+}
@@ -0,0 +1,30 @@
+package com.webkorps.sync_db.sync;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of the change markers stamped on every written row.
+ * <p>
+ * A marker is the wall clock in epoch microseconds, nudged forward when needed so that
+ * markers handed out by this JVM never repeat or go backwards.
+ */
+public final class ChangeMarkers {
+
+    private static final AtomicLong last = new AtomicLong();
+
+    private ChangeMarkers() {
+    }
+
+    /** Next marker for a row being written now */
+    public static long next() {
+        long now = nowMicros();
+        return last.accumulateAndGet(now, (previous, current) -> Math.max(previous + 1, current));
+    }
+
+    /** Current wall clock in epoch microseconds */
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+}
@@ -0,0 +1,159 @@
+package com.webkorps.sync_db.sync;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks whether both users tables hold the same rows without reading the rows themselves.
+ * <p>
+ * Each database sums row hashes per bucket of MD5(email) prefixes, 256 buckets per level. The hash is the
+ * indexed {@code users.email_hash} column, so the buckets below the first level are index range scans.
+ * Only buckets whose count or checksum differ are split into their 256 sub-buckets, and only
+ * buckets small enough ({@code sync.verify.leaf-rows}) are fetched and compared row by row.
+ * With a handful of divergent users, checking millions of rows moves a few hundred buckets
+ * per level instead of the tables.
+ */
+@Component
+public class ChecksumVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChecksumVerifier.class);
+
+    // hex digits added per level, i.e. 256 sub-buckets per bucket
+    private static final int DIGITS_PER_LEVEL = 2;
+    // buckets this deep are fetched whatever their size
+    private static final int MAX_PREFIX_LENGTH = 16;
+    private static final int MAX_SAMPLE = 100;
+
+    private final UserJdbcStore mysqlStore;
+    private final UserJdbcStore postgresStore;
+    private final Timer verifyTimer;
+    private final Counter divergentRows;
+
+    @Value("${sync.verify.leaf-rows:256}")
+    private int leafRows;
+
+    public ChecksumVerifier(@Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                            @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                            MeterRegistry meterRegistry) {
+        this.mysqlStore = mysqlStore;
+        this.postgresStore = postgresStore;
+        this.verifyTimer = Timer.builder("sync.verify")
+                .description("Duration of checksum comparisons of both users tables")
+                .register(meterRegistry);
+        this.divergentRows = Counter.builder("sync.verify.divergent")
+                .description("Users found missing or different by checksum comparisons")
+                .register(meterRegistry);
+    }
+
+    /** Compare both users tables */
+    public VerificationResult verify() {
+        long start = System.nanoTime();
+        Comparison comparison = new Comparison();
+        comparison.compare("", DIGITS_PER_LEVEL);
+        VerificationResult result = comparison.result();
+        verifyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        divergentRows.increment(result.missingInMysql() + result.missingInPostgres() + result.differing());
+
+        if (result.consistent()) {
+            logger.info("Checksums of {} users match, compared {} buckets", result.mysqlRows(), result.bucketsCompared());
+        } else {
+            logger.warn("Checksum comparison found {} users missing in MySQL, {} missing in PostgreSQL, {} different",
+                    result.missingInMysql(), result.missingInPostgres(), result.differing());
+        }
+        return result;
+    }
+
+    /** State of one comparison run */
+    private class Comparison {
+
+        private long mysqlRows;
+        private long postgresRows;
+        private long buckets;
+        private long rowsFetched;
+        private long missingInMysql;
+        private long missingInPostgres;
+        private long differing;
+        private final List<String> sample = new ArrayList<>();
+
+        void compare(String prefix, int bucketLength) {
+            Map<String, BucketChecksum> mysql = mysqlStore.checksumBuckets(prefix, bucketLength);
+            Map<String, BucketChecksum> postgres = postgresStore.checksumBuckets(prefix, bucketLength);
+            if (prefix.isEmpty()) {
+                mysqlRows = mysql.values().stream().mapToLong(BucketChecksum::rows).sum();
+                postgresRows = postgres.values().stream().mapToLong(BucketChecksum::rows).sum();
+            }
+
+            TreeSet<String> keys = new TreeSet<>(mysql.keySet());
+            keys.addAll(postgres.keySet());
+            buckets += keys.size();
+            for (String bucket : keys) {
+                BucketChecksum mysqlBucket = mysql.get(bucket);
+                BucketChecksum postgresBucket = postgres.get(bucket);
+                if (mysqlBucket != null && mysqlBucket.matches(postgresBucket)) {
+                    continue;
+                }
+                long rows = Math.max(mysqlBucket == null ? 0 : mysqlBucket.rows(),
+                        postgresBucket == null ? 0 : postgresBucket.rows());
+                if (rows <= leafRows || bucketLength >= MAX_PREFIX_LENGTH) {
+                    compareRows(bucket);
+                } else {
+                    compare(bucket, bucketLength + DIGITS_PER_LEVEL);
+                }
+            }
+        }
+
+        /** Fetch one bucket from both sides and merge-join it by email */
+        private void compareRows(String prefix) {
+            List<UserRow> mysql = mysqlStore.findByEmailHashPrefix(prefix);
+            List<UserRow> postgres = postgresStore.findByEmailHashPrefix(prefix);
+            rowsFetched += mysql.size() + postgres.size();
+
+            int i = 0;
+            int j = 0;
+            while (i < mysql.size() || j < postgres.size()) {
+                int cmp = i == mysql.size() ? 1
+                        : j == postgres.size() ? -1
+                        : UserReconciliationEngine.compareCodePoints(mysql.get(i).email(), postgres.get(j).email());
+                if (cmp == 0) {
+                    UserRow a = mysql.get(i++);
+                    UserRow b = postgres.get(j++);
+                    if (!a.id().equals(b.id()) || !a.name().equals(b.name())
+                            || !Objects.equals(a.modifiedAt(), b.modifiedAt())) {
+                        differing++;
+                        addSample(a.email());
+                    }
+                } else if (cmp < 0) {
+                    missingInPostgres++;
+                    addSample(mysql.get(i++).email());
+                } else {
+                    missingInMysql++;
+                    addSample(postgres.get(j++).email());
+                }
+            }
+        }
+
+        private void addSample(String email) {
+            if (sample.size() < MAX_SAMPLE) {
+                sample.add(email);
+            }
+        }
+
+        VerificationResult result() {
+            return new VerificationResult(mysqlRows, postgresRows, buckets, rowsFetched,
+                    missingInMysql, missingInPostgres, differing, List.copyOf(sample));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.UserTombstone;
+
+/**
+ * Decides which version of a user survives when full reconciliation finds the two databases disagreeing.
+ * <p>
+ * Policies are Spring beans picked by name with {@code sync.conflict.policy}. Besides the built-in
+ * {@code last-writer-wins} and {@code primary-wins}, any other {@code ConflictPolicy} bean can be
+ * selected, e.g. one that merges both versions field by field. Replication of single writes
+ * (outbox, incremental sync) always keeps the newer change marker; the policy only settles the
+ * divergences a full pass finds, typically after a failover.
+ */
+public interface ConflictPolicy {
+
+    /**
+     * The version both databases should end up with when they hold the same email with different
+     * contents. Returning one of the arguments keeps it as is; a merged row should carry a fresh
+     * {@link ChangeMarkers#next()} marker so later replication treats it as the newest change.
+     */
+    UserRow resolve(UserRow mysql, UserRow postgres);
+
+    /**
+     * True if a delete on one database should win over the row the other database still has,
+     * false to bring the row back on the side it was deleted from.
+     *
+     * @param deletedOnMysql whether the tombstone is in MySQL and the row in PostgreSQL
+     */
+    boolean deleteWins(UserTombstone tombstone, UserRow row, boolean deletedOnMysql);
+}
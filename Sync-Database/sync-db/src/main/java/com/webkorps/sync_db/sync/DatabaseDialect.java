@@ -0,0 +1,103 @@
+package com.webkorps.sync_db.sync;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.webkorps.sync_db.sync.SqlDialect.placeholders;
+
+/**
+ * Dialects of the database servers the application runs against.
+ */
+public enum DatabaseDialect implements SqlDialect {
+
+    MYSQL {
+        @Override
+        public String binaryOrder(String column) {
+            return "BINARY " + column;
+        }
+
+        @Override
+        public String hashToLong(String expression) {
+            return "CAST(CONV(SUBSTRING(MD5(" + expression + "), 1, 15), 16, 10) AS UNSIGNED)";
+        }
+
+        @Override
+        public String insertIgnore(String table, String keyColumn, List<String> columns) {
+            return "INSERT IGNORE INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns) + ")";
+        }
+
+        @Override
+        public String upsert(String table, String keyColumn, List<String> columns, List<String> updateColumns,
+                             String versionColumn) {
+            // MySQL applies assignments left to right, so the version column has to be updated last
+            String assignments = updateColumns.stream()
+                    .sorted((a, b) -> Boolean.compare(a.equals(versionColumn), b.equals(versionColumn)))
+                    .map(column -> versionColumn == null
+                            ? column + " = VALUES(" + column + ")"
+                            : column + " = IF(" + versionColumn + " IS NULL OR " + versionColumn
+                                    + " < VALUES(" + versionColumn + "), VALUES(" + column + "), " + column + ")")
+                    .collect(Collectors.joining(", "));
+            return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns)
+                    + ") ON DUPLICATE KEY UPDATE " + assignments;
+        }
+
+        @Override
+        public void prepareCursor(Connection conn, PreparedStatement statement, int pageSize) throws SQLException {
+            // Connector/J only streams row-by-row with this magic fetch size
+            statement.setFetchSize(Integer.MIN_VALUE);
+        }
+    },
+
+    POSTGRESQL {
+        @Override
+        public String binaryOrder(String column) {
+            return column + " COLLATE \"C\"";
+        }
+
+        @Override
+        public String hashToLong(String expression) {
+            return "CAST(CAST('x' || SUBSTRING(md5(" + expression + "), 1, 15) AS bit(60)) AS bigint)";
+        }
+
+        @Override
+        public String insertIgnore(String table, String keyColumn, List<String> columns) {
+            return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns)
+                    + ") ON CONFLICT DO NOTHING";
+        }
+
+        @Override
+        public String upsert(String table, String keyColumn, List<String> columns, List<String> updateColumns,
+                             String versionColumn) {
+            String assignments = updateColumns.stream()
+                    .map(column -> column + " = EXCLUDED." + column)
+                    .collect(Collectors.joining(", "));
+            String sql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns)
+                    + ") ON CONFLICT (" + keyColumn + ") DO UPDATE SET " + assignments;
+            if (versionColumn != null) {
+                sql += " WHERE " + table + "." + versionColumn + " IS NULL OR "
+                        + table + "." + versionColumn + " < EXCLUDED." + versionColumn;
+            }
+            return sql;
+        }
+
+        @Override
+        public void prepareCursor(Connection conn, PreparedStatement statement, int pageSize) throws SQLException {
+            // pgjdbc ignores the fetch size (and buffers everything) unless autocommit is off
+            conn.setAutoCommit(false);
+            statement.setFetchSize(pageSize);
+        }
+    };
+
+    /** Dialect of the database behind a JDBC URL */
+    public static DatabaseDialect forJdbcUrl(String url) {
+        if (url.startsWith("jdbc:mysql:")) {
+            return MYSQL;
+        } else if (url.startsWith("jdbc:postgresql:")) {
+            return POSTGRESQL;
+        }
+        throw new IllegalArgumentException("Unsupported database URL: " + url);
+    }
+}
@@ -0,0 +1,54 @@
+package com.webkorps.sync_db.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slice of the user keyspace by the first byte of MD5(email), i.e. a range of the indexed
+ * {@code users.email_hash} column.
+ * <p>
+ * Both databases compute the same hash for the same email, so a partition holds the same users on
+ * either side and can be reconciled independently of the others. Hashing spreads users evenly
+ * whatever their email domains look like.
+ *
+ * @param index position of this partition, from 0
+ * @param count total number of partitions, 1 to 256
+ */
+public record EmailPartition(int index, int count) {
+
+    public static final int MAX_COUNT = 256;
+
+    public EmailPartition {
+        if (count < 1 || count > MAX_COUNT || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid partition " + index + " of " + count);
+        }
+    }
+
+    /** All partitions of a keyspace split into {@code count} slices */
+    public static List<EmailPartition> split(int count) {
+        List<EmailPartition> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(new EmailPartition(i, count));
+        }
+        return partitions;
+    }
+
+    /** True if this partition is the whole keyspace, so no hash filter is needed */
+    public boolean isWhole() {
+        return count == 1;
+    }
+
+    /** Lowest first hash byte in this partition, as two lowercase hex digits */
+    public String lowPrefix() {
+        return String.format("%02x", index * MAX_COUNT / count);
+    }
+
+    /** Highest first hash byte in this partition, inclusive */
+    public String highPrefix() {
+        return String.format("%02x", (index + 1) * MAX_COUNT / count - 1);
+    }
+
+    public String name() {
+        return "p" + index + "-of-" + count;
+    }
+}
@@ -0,0 +1,205 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Change-tracking sync driven by the {@code modified_at} high-water mark.
+ * <p>
+ * Each direction keeps a checkpoint (marker + email of the last applied row) in its target database,
+ * written in the same transaction as the rows it covers. A tick only reads rows changed since that
+ * checkpoint through the {@code modified_at} index, so an idle pair of databases costs one
+ * range query per direction. Rows younger than the settle window are left for the next tick,
+ * so transactions that commit after stamping their marker are not skipped.
+ * <p>
+ * A full {@link UserReconciliationEngine} pass bootstraps the checkpoints and runs periodically
+ * as a backstop for rows written without a marker (legacy rows, manual SQL). Once bootstrapped,
+ * the backstop first compares checksums with the {@link ChecksumVerifier} and skips the full pass
+ * when both tables already agree.
+ */
+@Component
+public class IncrementalSyncEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalSyncEngine.class);
+
+    static final String MYSQL_TO_POSTGRES = "users:mysql-to-postgres";
+    static final String POSTGRES_TO_MYSQL = "users:postgres-to-mysql";
+
+    private final UserJdbcStore mysqlStore;
+    private final UserJdbcStore postgresStore;
+    private final UserCache userCache;
+    private final UserReconciliationEngine reconciliationEngine;
+    private final ChecksumVerifier checksumVerifier;
+    private final SyncBatchStats batchStats;
+
+    @Value("${sync.page-size:1000}")
+    private int pageSize;
+
+    @Value("${sync.incremental.settle-ms:2000}")
+    private long settleMillis;
+
+    @Value("${sync.incremental.full-scan-interval-ms:600000}")
+    private long fullScanIntervalMillis;
+
+    @Value("${sync.verify.before-full-scan:true}")
+    private boolean verifyBeforeFullScan;
+
+    private volatile long lastFullScanNanos;
+    private volatile boolean fullScanDone;
+
+    public IncrementalSyncEngine(@Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                                 @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                                 UserReconciliationEngine reconciliationEngine,
+                                 ChecksumVerifier checksumVerifier,
+                                 UserCache userCache,
+                                 SyncBatchStats batchStats) {
+        this.mysqlStore = mysqlStore;
+        this.postgresStore = postgresStore;
+        this.userCache = userCache;
+        this.reconciliationEngine = reconciliationEngine;
+        this.checksumVerifier = checksumVerifier;
+        this.batchStats = batchStats;
+    }
+
+    /** Apply changes made since the last checkpoint in both directions */
+    public ReconciliationResult sync() throws SQLException {
+        long upperMarker = ChangeMarkers.nowMicros() - settleMillis * 1_000;
+
+        SyncCheckpoint toPostgres = postgresStore.loadCheckpoint(MYSQL_TO_POSTGRES);
+        SyncCheckpoint toMysql = mysqlStore.loadCheckpoint(POSTGRES_TO_MYSQL);
+        if (toPostgres == null || toMysql == null || fullScanDue()) {
+            return fullScan(toPostgres, toMysql, upperMarker);
+        }
+
+        DirectionResult mysqlToPostgres = apply(mysqlStore, postgresStore, toPostgres, upperMarker);
+        DirectionResult postgresToMysql = apply(postgresStore, mysqlStore, toMysql, upperMarker);
+
+        return new ReconciliationResult(mysqlToPostgres.scanned, postgresToMysql.scanned,
+                mysqlToPostgres.applied, postgresToMysql.applied, mysqlToPostgres.failed + postgresToMysql.failed);
+    }
+
+    /**
+     * Only the full reconciliation backstop, when it is due; for when changes reach the other
+     * database some other way, e.g. through log-based change data capture.
+     */
+    public ReconciliationResult backstop() throws SQLException {
+        if (!fullScanDue()) {
+            return ReconciliationResult.EMPTY;
+        }
+        long upperMarker = ChangeMarkers.nowMicros() - settleMillis * 1_000;
+        return fullScan(postgresStore.loadCheckpoint(MYSQL_TO_POSTGRES), mysqlStore.loadCheckpoint(POSTGRES_TO_MYSQL),
+                upperMarker);
+    }
+
+    private boolean fullScanDue() {
+        return !fullScanDone || System.nanoTime() - lastFullScanNanos > fullScanIntervalMillis * 1_000_000;
+    }
+
+    /** Reconcile everything, then make sure both directions have a checkpoint to continue from */
+    private ReconciliationResult fullScan(SyncCheckpoint toPostgres, SyncCheckpoint toMysql, long upperMarker)
+            throws SQLException {
+        boolean bootstrapped = toPostgres != null && toMysql != null;
+        if (bootstrapped && verifyBeforeFullScan) {
+            VerificationResult verification = checksumVerifier.verify();
+            if (verification.consistent()) {
+                lastFullScanNanos = System.nanoTime();
+                fullScanDone = true;
+                return new ReconciliationResult(verification.mysqlRows(), verification.postgresRows(), 0, 0, 0);
+            }
+        }
+
+        logger.info("Running full reconciliation pass");
+        ReconciliationResult result = reconciliationEngine.reconcile();
+
+        // The full pass only copies missing rows, so existing checkpoints stay where they are
+        // and keep feeding updates; missing ones start from the moment this pass began.
+        if (toPostgres == null) {
+            postgresStore.saveCheckpoint(new SyncCheckpoint(MYSQL_TO_POSTGRES, upperMarker, ""));
+        }
+        if (toMysql == null) {
+            mysqlStore.saveCheckpoint(new SyncCheckpoint(POSTGRES_TO_MYSQL, upperMarker, ""));
+        }
+        lastFullScanNanos = System.nanoTime();
+        fullScanDone = true;
+        return result;
+    }
+
+    /** Drain all pending changes from source into target, page by page */
+    private DirectionResult apply(UserJdbcStore source, UserJdbcStore target, SyncCheckpoint checkpoint, long upperMarker) {
+        DirectionResult result = new DirectionResult();
+
+        while (true) {
+            List<UserRow> page = source.findChangedSince(checkpoint, upperMarker, pageSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            UserRow last = page.get(page.size() - 1);
+            SyncCheckpoint next = new SyncCheckpoint(checkpoint.getName(), last.modifiedAt(), last.email());
+
+            long start = System.nanoTime();
+            boolean stalled = false;
+            try {
+                result.applied += target.inTransaction(() -> {
+                    int applied = target.upsertNewer(page);
+                    target.saveCheckpoint(next);
+                    return applied;
+                });
+            } catch (RuntimeException batchException) {
+                logger.warn("Batch apply to {} failed, retrying row by row: {}",
+                        target.getName(), batchException.getMessage());
+                int firstFailure = applyOneByOne(page, target, result);
+                // stop in front of the first failed row, so the next tick retries it and everything after it
+                stalled = firstFailure < page.size();
+                if (firstFailure > 0) {
+                    UserRow applied = page.get(firstFailure - 1);
+                    target.saveCheckpoint(new SyncCheckpoint(checkpoint.getName(), applied.modifiedAt(), applied.email()));
+                }
+            }
+            batchStats.record(System.nanoTime() - start);
+            userCache.invalidateEmails(page.stream().map(UserRow::email).toList());
+
+            result.scanned += page.size();
+            checkpoint = next;
+            if (stalled || page.size() < pageSize) {
+                break;
+            }
+        }
+
+        if (result.applied > 0) {
+            logger.info("Applied {} changed users from {} to {}", result.applied, source.getName(), target.getName());
+        }
+        return result;
+    }
+
+    /** Apply each row on its own; returns the index of the first row that failed, or the page size */
+    private int applyOneByOne(List<UserRow> page, UserJdbcStore target, DirectionResult result) {
+        int firstFailure = page.size();
+        for (int i = 0; i < page.size(); i++) {
+            UserRow row = page.get(i);
+            try {
+                if (target.upsertNewer(row)) {
+                    result.applied++;
+                }
+            } catch (RuntimeException e) {
+                result.failed++;
+                firstFailure = Math.min(firstFailure, i);
+                logger.warn("Failed to apply user {} to {}: {}", row.email(), target.getName(), e.getMessage());
+            }
+        }
+        return firstFailure;
+    }
+
+    private static class DirectionResult {
+        long scanned;
+        long applied;
+        long failed;
+    }
+}
@@ -0,0 +1,27 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.UserTombstone;
+import org.springframework.stereotype.Component;
+
+/**
+ * The change with the newer marker wins, whichever database it was made on.
+ * Ties go to MySQL, so both sides still settle on the same version.
+ */
+@Component("last-writer-wins")
+public class LastWriterWinsPolicy implements ConflictPolicy {
+
+    @Override
+    public UserRow resolve(UserRow mysql, UserRow postgres) {
+        return marker(postgres.modifiedAt()) > marker(mysql.modifiedAt()) ? postgres : mysql;
+    }
+
+    @Override
+    public boolean deleteWins(UserTombstone tombstone, UserRow row, boolean deletedOnMysql) {
+        return tombstone.getDeletedAt() >= marker(row.modifiedAt());
+    }
+
+    /** Rows written before change markers existed count as older than everything else */
+    static long marker(Long modifiedAt) {
+        return modifiedAt == null ? Long.MIN_VALUE : modifiedAt;
+    }
+}
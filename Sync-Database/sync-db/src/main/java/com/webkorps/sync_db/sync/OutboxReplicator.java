@@ -0,0 +1,308 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.UserOutboxEvent;
+import com.webkorps.sync_db.entity.UserTombstone;
+import com.webkorps.sync_db.health.DatabaseHealth;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.repository.UserOutboxRepository;
+import com.webkorps.sync_db.repository.dlink.DLinkUserOutboxRepository;
+import com.webkorps.sync_db.repository.link.LinkUserOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the user outbox of each database into the other one.
+ * <p>
+ * Events are applied strictly in outbox order, in batches, and only removed from the outbox
+ * once the target accepted them. Applying is idempotent (newer-marker-wins upsert, delete plus tombstone),
+ * so a crash between applying and removing just replays the batch. When the target rejects a batch
+ * the lane applies its events one by one up to the one that failed, and retries that event with
+ * exponential backoff. An event the target itself keeps rejecting (a constraint it violates, not an
+ * unreachable database) is marked skipped after {@code sync.outbox.max-attempts} tries, so it cannot
+ * hold up its lane forever; it stays in the outbox for inspection and counts as {@code sync.outbox.skipped}.
+ * <p>
+ * Replication lag is the age of the oldest event a lane has seen but not applied yet. It keeps
+ * growing while a lane is stuck or skipped, and drops to zero once the lane drained its outbox.
+ * While the target is down the lane still looks at the head of its outbox, so an outage shows as lag.
+ * <p>
+ * Applying the events is the secondary write of saveUser and deleteUser; its latency per batch is
+ * the {@code sync.outbox.apply} timer.
+ */
+@Component
+public class OutboxReplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxReplicator.class);
+
+    private final Lane mysqlToPostgres;
+    private final Lane postgresToMysql;
+    private final UserCache userCache;
+
+    @Value("${sync.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${sync.outbox.initial-backoff-ms:500}")
+    private long initialBackoffMillis;
+
+    @Value("${sync.outbox.max-backoff-ms:60000}")
+    private long maxBackoffMillis;
+
+    @Value("${sync.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    public OutboxReplicator(LinkUserOutboxRepository linkOutboxRepository,
+                            @Lazy DLinkUserOutboxRepository dlinkOutboxRepository,
+                            @Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                            @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                            DatabaseHealthMonitor healthMonitor,
+                            UserCache userCache,
+                            MeterRegistry meterRegistry) {
+        this.mysqlToPostgres = new Lane(healthMonitor.mysql(), linkOutboxRepository,
+                healthMonitor.postgres(), postgresStore, "mysql-to-postgres", meterRegistry);
+        this.postgresToMysql = new Lane(healthMonitor.postgres(), dlinkOutboxRepository,
+                healthMonitor.mysql(), mysqlStore, "postgres-to-mysql", meterRegistry);
+        this.userCache = userCache;
+    }
+
+    @Scheduled(fixedDelayString = "${sync.outbox.poll-interval-ms:200}")
+    public void replicateMysqlToPostgres() {
+        mysqlToPostgres.drain();
+    }
+
+    @Scheduled(fixedDelayString = "${sync.outbox.poll-interval-ms:200}")
+    public void replicatePostgresToMysql() {
+        postgresToMysql.drain();
+    }
+
+    public long mysqlToPostgresLagMillis() {
+        return mysqlToPostgres.lagMillis();
+    }
+
+    public long postgresToMysqlLagMillis() {
+        return postgresToMysql.lagMillis();
+    }
+
+    /** One replication direction with its own backoff state */
+    private class Lane {
+
+        private final DatabaseHealth sourceHealth;
+        private final String sourceName;
+        private final UserOutboxRepository outbox;
+        private final DatabaseHealth targetHealth;
+        private final UserJdbcStore target;
+        private final Counter replicated;
+        private final Counter skipped;
+        private final Timer applyTimer;
+        private int consecutiveFailures;
+        private long nextAttemptNanos;
+        // created_at of the oldest pending event, 0 when nothing is pending
+        private volatile long oldestPendingMillis;
+
+        Lane(DatabaseHealth sourceHealth, UserOutboxRepository outbox, DatabaseHealth targetHealth, UserJdbcStore target,
+             String direction, MeterRegistry meterRegistry) {
+            this.sourceHealth = sourceHealth;
+            this.sourceName = sourceHealth.getName();
+            this.outbox = outbox;
+            this.targetHealth = targetHealth;
+            this.target = target;
+            this.replicated = Counter.builder("sync.outbox.replicated")
+                    .description("Outbox events applied to the other database")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+            this.skipped = Counter.builder("sync.outbox.skipped")
+                    .description("Outbox events given up on after the other database kept rejecting them")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+            this.applyTimer = Timer.builder("sync.outbox.apply")
+                    .description("Time to apply one batch of outbox events to the other database")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+            TimeGauge.builder("sync.replication.lag", this, TimeUnit.MILLISECONDS, Lane::lagMillis)
+                    .description("Age of the oldest outbox event not yet replicated")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+        }
+
+        long lagMillis() {
+            long oldest = oldestPendingMillis;
+            return oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+        }
+
+        void drain() {
+            if (!sourceHealth.isAvailable()) {
+                return;
+            }
+            if (!targetHealth.isAvailable()) {
+                notePendingHead();
+                return;
+            }
+            if (consecutiveFailures > 0 && System.nanoTime() < nextAttemptNanos) {
+                return;
+            }
+
+            List<UserOutboxEvent> events;
+            do {
+                try {
+                    events = outbox.findBySkippedAtIsNullOrderByIdAsc(PageRequest.of(0, batchSize));
+                } catch (RuntimeException e) {
+                    backOff("Reading " + sourceName + " outbox failed: " + e.getMessage());
+                    return;
+                }
+                if (events.isEmpty()) {
+                    oldestPendingMillis = 0;
+                    return;
+                }
+                oldestPendingMillis = events.get(0).getCreatedAt().toEpochMilli();
+
+                List<UserOutboxEvent> batch = events;
+                try {
+                    applyTimer.record(() -> apply(batch));
+                    outbox.deleteAllByIdInBatch(events.stream().map(UserOutboxEvent::getId).toList());
+                    consecutiveFailures = 0;
+                    replicated.increment(events.size());
+                    if (events.size() < batchSize) {
+                        oldestPendingMillis = 0;
+                    }
+                    logger.info("Replicated {} outbox events from {} to {}", events.size(), sourceName, target.getName());
+                } catch (RuntimeException e) {
+                    logger.warn("Replicating {} outbox events to {} failed, retrying one by one: {}",
+                            events.size(), target.getName(), e.getMessage());
+                    applyOneByOne(events);
+                    return;
+                }
+            } while (events.size() == batchSize);
+        }
+
+        /** Apply events in order until one fails, so the failure is charged to the event that caused it */
+        private void applyOneByOne(List<UserOutboxEvent> events) {
+            for (UserOutboxEvent event : events) {
+                try {
+                    apply(List.of(event));
+                    outbox.deleteById(event.getId());
+                    replicated.increment();
+                } catch (RuntimeException e) {
+                    recordFailure(event, e);
+                    return;
+                }
+            }
+            consecutiveFailures = 0;
+        }
+
+        /** Start the lag clock at the oldest pending event while the lane cannot apply anything */
+        private void notePendingHead() {
+            if (oldestPendingMillis != 0) {
+                // only this lane removes events, the head cannot have become younger
+                return;
+            }
+            try {
+                List<UserOutboxEvent> head = outbox.findBySkippedAtIsNullOrderByIdAsc(PageRequest.of(0, 1));
+                if (!head.isEmpty()) {
+                    oldestPendingMillis = head.get(0).getCreatedAt().toEpochMilli();
+                }
+            } catch (RuntimeException e) {
+                logger.debug("Reading the head of the {} outbox failed: {}", sourceName, e.getMessage());
+            }
+        }
+
+        /** Apply events in order, batching consecutive events of the same kind */
+        private void apply(List<UserOutboxEvent> events) {
+            int start = 0;
+            while (start < events.size()) {
+                UserOutboxEvent.Operation operation = events.get(start).getOperation();
+                int end = start;
+                while (end < events.size() && events.get(end).getOperation() == operation) {
+                    end++;
+                }
+                List<UserOutboxEvent> run = events.subList(start, end);
+                if (operation == UserOutboxEvent.Operation.UPSERT) {
+                    target.upsertNewer(latestPerEmail(run));
+                } else {
+                    target.applyDeletes(latestDeletePerEmail(run));
+                }
+                userCache.invalidateEmails(run.stream().map(UserOutboxEvent::getEmail).toList());
+                start = end;
+            }
+        }
+
+        /**
+         * Keep only the last upsert per email; a rewritten multi-row upsert
+         * may not touch the same row twice on PostgreSQL.
+         */
+        private List<UserRow> latestPerEmail(List<UserOutboxEvent> run) {
+            Map<String, UserRow> rows = new LinkedHashMap<>();
+            for (UserOutboxEvent event : run) {
+                rows.put(event.getEmail(), new UserRow(event.getUserId(), event.getName(), event.getEmail(), event.getModifiedAt()));
+            }
+            return new ArrayList<>(rows.values());
+        }
+
+        /** One tombstone per email, with the latest delete marker */
+        private List<UserTombstone> latestDeletePerEmail(List<UserOutboxEvent> run) {
+            Map<String, UserTombstone> tombstones = new LinkedHashMap<>();
+            for (UserOutboxEvent event : run) {
+                // older delete events of rows without a marker: delete whatever is there now
+                long deletedAt = event.getModifiedAt() != null ? event.getModifiedAt() : ChangeMarkers.next();
+                tombstones.merge(event.getEmail(), new UserTombstone(event.getEmail(), deletedAt),
+                        (a, b) -> a.getDeletedAt() >= b.getDeletedAt() ? a : b);
+            }
+            return new ArrayList<>(tombstones.values());
+        }
+
+        private void recordFailure(UserOutboxEvent event, RuntimeException cause) {
+            event.setAttempts(event.getAttempts() + 1);
+            event.setLastError(truncate(cause.getMessage()));
+            boolean skip = event.getAttempts() >= maxAttempts && WriteFailures.rejectedByTarget(cause);
+            if (skip) {
+                event.setSkippedAt(Instant.now());
+                logger.error("Skipping {} outbox event {} for {} after {} attempts: {}", sourceName, event.getId(),
+                        event.getEmail(), event.getAttempts(), cause.getMessage());
+            } else {
+                backOff("Replicating " + sourceName + " outbox event " + event.getId() + " to " + target.getName()
+                        + " failed: " + cause.getMessage());
+            }
+            try {
+                outbox.save(event);
+            } catch (RuntimeException e) {
+                logger.debug("Could not record outbox failure on event {}: {}", event.getId(), e.getMessage());
+                return;
+            }
+            if (skip) {
+                // the lane goes on with the next event right away
+                skipped.increment();
+                consecutiveFailures = 0;
+            }
+        }
+
+        private void backOff(String message) {
+            consecutiveFailures++;
+            long backoff = Math.min(maxBackoffMillis,
+                    initialBackoffMillis << Math.min(consecutiveFailures - 1, 20));
+            nextAttemptNanos = System.nanoTime() + backoff * 1_000_000;
+            logger.warn("{} (attempt {}, retrying in {} ms)", message, consecutiveFailures, backoff);
+        }
+
+        private String truncate(String message) {
+            if (message == null || message.length() <= 500) {
+                return message;
+            }
+            return message.substring(0, 500);
+        }
+    }
+}
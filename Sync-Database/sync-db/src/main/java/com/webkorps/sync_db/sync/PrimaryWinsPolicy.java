@@ -0,0 +1,22 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.UserTombstone;
+import org.springframework.stereotype.Component;
+
+/**
+ * MySQL's version wins every conflict, including deletes against rows PostgreSQL still has
+ * and rows MySQL still has against deletes made on PostgreSQL during a failover.
+ */
+@Component("primary-wins")
+public class PrimaryWinsPolicy implements ConflictPolicy {
+
+    @Override
+    public UserRow resolve(UserRow mysql, UserRow postgres) {
+        return mysql;
+    }
+
+    @Override
+    public boolean deleteWins(UserTombstone tombstone, UserRow row, boolean deletedOnMysql) {
+        return deletedOnMysql;
+    }
+}
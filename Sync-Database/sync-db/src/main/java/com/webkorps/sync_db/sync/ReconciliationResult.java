@@ -0,0 +1,40 @@
+package com.webkorps.sync_db.sync;
+
+/**
+ * Row counts of one reconciliation pass.
+ *
+ * @param conflictsResolved emails held by both databases with different contents or ids, settled by the conflict policy
+ * @param deletesApplied    rows removed because the other database had deleted them
+ */
+public record ReconciliationResult(long mysqlScanned,
+                                   long postgresScanned,
+                                   long copiedToPostgres,
+                                   long copiedToMysql,
+                                   long failed,
+                                   long conflictsResolved,
+                                   long deletesApplied) {
+
+    static final ReconciliationResult EMPTY = new ReconciliationResult(0, 0, 0, 0, 0);
+
+    /** Result of a pass that only copies rows, without conflicts or deletes */
+    public ReconciliationResult(long mysqlScanned, long postgresScanned, long copiedToPostgres, long copiedToMysql,
+                                long failed) {
+        this(mysqlScanned, postgresScanned, copiedToPostgres, copiedToMysql, failed, 0, 0);
+    }
+
+    /** Counts of this and the other pass added up, e.g. of two partitions */
+    public ReconciliationResult plus(ReconciliationResult other) {
+        return new ReconciliationResult(mysqlScanned + other.mysqlScanned,
+                postgresScanned + other.postgresScanned,
+                copiedToPostgres + other.copiedToPostgres,
+                copiedToMysql + other.copiedToMysql,
+                failed + other.failed,
+                conflictsResolved + other.conflictsResolved,
+                deletesApplied + other.deletesApplied);
+    }
+
+    /** True if the databases disagreed on any user */
+    public boolean hadDivergence() {
+        return copiedToPostgres > 0 || copiedToMysql > 0 || failed > 0 || conflictsResolved > 0 || deletesApplied > 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.webkorps.sync_db.sync;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Forward-only cursor over a query that keeps exactly one mapped row in hand.
+ * The underlying result set is fetched page by page, so memory use does not depend on table size.
+ * The cursor owns its connection and closes it along with the result set.
+ */
+public class RowCursor<T> implements AutoCloseable {
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> rowMapper;
+    private T current;
+    private long scanned;
+
+    RowCursor(Connection connection, PreparedStatement statement, ResultSet resultSet, RowMapper<T> rowMapper)
+            throws SQLException {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
+        advance();
+    }
+
+    /** Row under the cursor, or null once the cursor is exhausted */
+    public T current() {
+        return current;
+    }
+
+    /** Move to the next row */
+    public void advance() throws SQLException {
+        if (resultSet.next()) {
+            current = rowMapper.mapRow(resultSet, (int) scanned);
+            scanned++;
+        } else {
+            current = null;
+        }
+    }
+
+    /** Number of rows read so far */
+    public long scanned() {
+        return scanned;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+            statement.close();
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Run a query on a connection of its own and return a cursor over the result.
+     * The connection is closed again if the query cannot be started.
+     */
+    static <T> RowCursor<T> open(DataSource dataSource, SqlDialect dialect, String sql, int pageSize,
+                                 RowMapper<T> rowMapper, Object... params) throws SQLException {
+        Connection conn = dataSource.getConnection();
+        try {
+            conn.setReadOnly(true);
+            PreparedStatement statement = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            dialect.prepareCursor(conn, statement, pageSize);
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+            return new RowCursor<>(conn, statement, statement.executeQuery(), rowMapper);
+        } catch (SQLException | RuntimeException e) {
+            conn.close();
+            throw e;
+        }
+    }
+}
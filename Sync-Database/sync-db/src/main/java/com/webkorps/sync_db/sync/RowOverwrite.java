@@ -0,0 +1,10 @@
+package com.webkorps.sync_db.sync;
+
+/**
+ * New contents for a user row, to be written only if the row still has the marker it was read with.
+ *
+ * @param row            the version to write, keyed by its email
+ * @param expectedMarker change marker of the row when it was read, null for rows without one
+ */
+public record RowOverwrite(UserRow row, Long expectedMarker) {
+}
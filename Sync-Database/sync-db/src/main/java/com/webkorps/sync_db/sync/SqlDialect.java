@@ -0,0 +1,54 @@
+package com.webkorps.sync_db.sync;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * SQL differences between the two databases that the sync engine has to care about.
+ * The server dialects are the {@link DatabaseDialect} constants.
+ */
+public interface SqlDialect {
+
+    /** Expression that sorts the column by code point, independent of the database collation */
+    String binaryOrder(String column);
+
+    /**
+     * First 60 bits of the MD5 of the expression's UTF-8 bytes as a non-negative BIGINT, so sums of it
+     * fit a DECIMAL and can be compared across databases. Each dialect takes the same 15 leading hex
+     * digits.
+     */
+    String hashToLong(String expression);
+
+    /**
+     * Insert statement that silently skips rows violating a unique constraint.
+     * The key column is only used by dialects that cannot ignore conflicts on any constraint.
+     */
+    String insertIgnore(String table, String keyColumn, List<String> columns);
+
+    /**
+     * Insert-or-update statement keyed on a unique column. When a version column is given,
+     * an existing row is only overwritten if its version is older than the incoming one.
+     */
+    default String upsert(String table, String keyColumn, List<String> columns, String versionColumn) {
+        return upsert(table, keyColumn, columns,
+                columns.stream().filter(column -> !column.equals(keyColumn)).toList(), versionColumn);
+    }
+
+    /**
+     * As {@link #upsert(String, String, List, String)}, but a conflict only updates the given
+     * columns; the others, e.g. a surrogate id, keep their stored values.
+     */
+    String upsert(String table, String keyColumn, List<String> columns, List<String> updateColumns,
+                   String versionColumn);
+
+    /** Configure a statement so its result set is fetched in pages instead of fully buffered */
+    void prepareCursor(Connection conn, PreparedStatement statement, int pageSize) throws SQLException;
+
+    /** One "?" per value, comma separated */
+    static String placeholders(List<?> values) {
+        return values.stream().map(value -> "?").collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,38 @@
+package com.webkorps.sync_db.sync;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency of the batches the sync engines write, summed up per sync cycle for the {@link SyncRunLedger}.
+ * Cycles never overlap, so the batches recorded between two {@link #drain()} calls belong to one cycle.
+ */
+@Component
+public class SyncBatchStats {
+
+    /**
+     * @param batches    batches written, incremental pages included
+     * @param totalNanos time spent writing them
+     * @param maxNanos   slowest batch
+     */
+    public record Snapshot(long batches, long totalNanos, long maxNanos) {
+    }
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /** Record one batch, measured from its first statement to its commit */
+    public void record(long nanos) {
+        batches.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /** Batches recorded since the last call */
+    public Snapshot drain() {
+        return new Snapshot(batches.sumThenReset(), totalNanos.sumThenReset(), maxNanos.getThenReset());
+    }
+}
@@ -0,0 +1,66 @@
+package com.webkorps.sync_db.sync;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.concurrent.Semaphore;
+
+/**
+ * How many pooled connections per database background sync work may hold at the same time.
+ * <p>
+ * The budget is the pool size minus a reserve for user requests, outbox replication and health
+ * probes, so a parallel catch-up cannot starve the request path of connections.
+ */
+@Component
+public class SyncConnectionBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncConnectionBudget.class);
+
+    /** Connections one reconciliation partition holds per database: its cursor plus one for writes */
+    public static final int PER_PARTITION = 2;
+
+    private final Semaphore mysql;
+    private final Semaphore postgres;
+
+    @Autowired
+    public SyncConnectionBudget(@Qualifier("mysqlDataSource") DataSource mysqlDataSource,
+                                @Qualifier("postgresDataSource") DataSource postgresDataSource,
+                                @Value("${sync.partition.reserved-connections:4}") int reservedConnections) {
+        this(poolSize(mysqlDataSource) - reservedConnections, poolSize(postgresDataSource) - reservedConnections);
+        logger.info("Sync connection budget: {} MySQL, {} PostgreSQL",
+                mysql.availablePermits(), postgres.availablePermits());
+    }
+
+    public SyncConnectionBudget(int mysqlConnections, int postgresConnections) {
+        // never below what a single partition needs, or sync could not run at all
+        this.mysql = new Semaphore(Math.max(PER_PARTITION, mysqlConnections), true);
+        this.postgres = new Semaphore(Math.max(PER_PARTITION, postgresConnections), true);
+    }
+
+    private static int poolSize(DataSource dataSource) {
+        return dataSource instanceof HikariDataSource hikari ? hikari.getMaximumPoolSize() : PER_PARTITION;
+    }
+
+    /** Block until one partition's worth of connections is available on both databases */
+    public void acquirePartition() throws InterruptedException {
+        // always MySQL first, so two partitions cannot each hold one database while waiting for the other
+        mysql.acquire(PER_PARTITION);
+        try {
+            postgres.acquire(PER_PARTITION);
+        } catch (InterruptedException e) {
+            mysql.release(PER_PARTITION);
+            throw e;
+        }
+    }
+
+    public void releasePartition() {
+        postgres.release(PER_PARTITION);
+        mysql.release(PER_PARTITION);
+    }
+}
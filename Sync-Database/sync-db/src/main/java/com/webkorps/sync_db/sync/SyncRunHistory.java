@@ -0,0 +1,50 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.SyncRun;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Recent sync cycles as shown by {@code GET /api/users/sync/runs}, newest first.
+ *
+ * @param rowsPerSecond                 rows copied per second of sync time over the finished runs listed
+ * @param mysqlToPostgresLagTrendMillis outbox lag to PostgreSQL after the newest run minus after the oldest,
+ *                                      positive while replication falls behind; null with fewer than two runs
+ * @param postgresToMysqlLagTrendMillis the same towards MySQL
+ */
+public record SyncRunHistory(List<SyncRun> runs,
+                             long succeeded,
+                             long failed,
+                             long interrupted,
+                             double rowsPerSecond,
+                             Long mysqlToPostgresLagTrendMillis,
+                             Long postgresToMysqlLagTrendMillis) {
+
+    static SyncRunHistory of(List<SyncRun> runs) {
+        long rows = 0;
+        long millis = 0;
+        for (SyncRun run : runs) {
+            if (run.getDurationMillis() != null) {
+                rows += run.getRowsCopied();
+                millis += run.getDurationMillis();
+            }
+        }
+        return new SyncRunHistory(runs,
+                count(runs, SyncRun.Status.SUCCEEDED),
+                count(runs, SyncRun.Status.FAILED),
+                count(runs, SyncRun.Status.INTERRUPTED),
+                millis == 0 ? 0 : rows * 1000.0 / millis,
+                trend(runs, SyncRun::getMysqlToPostgresLagMillis),
+                trend(runs, SyncRun::getPostgresToMysqlLagMillis));
+    }
+
+    private static long count(List<SyncRun> runs, SyncRun.Status status) {
+        return runs.stream().filter(run -> run.getStatus() == status).count();
+    }
+
+    private static Long trend(List<SyncRun> runs, Function<SyncRun, Long> lag) {
+        List<Long> lags = runs.stream().map(lag).filter(value -> value != null).toList();
+        return lags.size() < 2 ? null : lags.get(0) - lags.get(lags.size() - 1);
+    }
+}
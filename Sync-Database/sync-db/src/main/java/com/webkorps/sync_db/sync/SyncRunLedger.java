@@ -0,0 +1,142 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.entity.SyncRun;
+import com.webkorps.sync_db.repository.link.LinkSyncRunRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Persisted history of sync cycles, kept in MySQL for {@code GET /api/users/sync/runs}.
+ * <p>
+ * A cycle's row is written when it starts and completed when it ends, with its row counts, batch
+ * latencies, the outbox lag and the position its changes were committed up to. That position is where
+ * the next cycle resumes: incremental sync commits its checkpoint with every page it applies, and a
+ * full pass that fails keeps its partition checkpoints, so a catch-up interrupted by an outage continues
+ * instead of starting over. The ledger is best effort; failing to write it never fails a cycle.
+ */
+@Component
+public class SyncRunLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncRunLedger.class);
+
+    private static final int MAX_ERROR_LENGTH = 500;
+    private static final long PURGE_INTERVAL_NANOS = 3_600_000_000_000L;
+
+    private final LinkSyncRunRepository runs;
+    private final UserJdbcStore mysqlStore;
+    private final UserJdbcStore postgresStore;
+    private final OutboxReplicator outboxReplicator;
+    private final SyncBatchStats batchStats;
+    private final long retentionMillis;
+    // runs started before this process and still RUNNING were cut short by a restart
+    private final Instant startedUp = Instant.now();
+
+    private volatile boolean staleRunsClosed;
+    private volatile long lastPurgeNanos;
+
+    public SyncRunLedger(LinkSyncRunRepository runs,
+                         @Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                         @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                         OutboxReplicator outboxReplicator,
+                         SyncBatchStats batchStats,
+                         @Value("${sync.runs.retention-ms:604800000}") long retentionMillis) {
+        this.runs = runs;
+        this.mysqlStore = mysqlStore;
+        this.postgresStore = postgresStore;
+        this.outboxReplicator = outboxReplicator;
+        this.batchStats = batchStats;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /** Record the start of a cycle; the returned run is passed to {@link #completed} or {@link #failed} */
+    public SyncRun begin(String mode, Instant startedAt) {
+        SyncRun run = new SyncRun();
+        run.setMode(mode);
+        run.setStatus(SyncRun.Status.RUNNING);
+        run.setStartedAt(startedAt);
+        try {
+            if (!staleRunsClosed) {
+                int interrupted = runs.updateStatus(SyncRun.Status.RUNNING, SyncRun.Status.INTERRUPTED, startedUp);
+                if (interrupted > 0) {
+                    logger.warn("{} sync runs were interrupted by a restart, their committed progress is kept", interrupted);
+                }
+                staleRunsClosed = true;
+            }
+            purgeIfDue();
+            return runs.save(run);
+        } catch (RuntimeException e) {
+            logger.warn("Recording the start of the sync cycle failed: {}", e.getMessage());
+            return run;
+        }
+    }
+
+    public void completed(SyncRun run, long nanos, ReconciliationResult result) {
+        run.setStatus(SyncRun.Status.SUCCEEDED);
+        run.setMysqlScanned(result.mysqlScanned());
+        run.setPostgresScanned(result.postgresScanned());
+        run.setCopiedToPostgres(result.copiedToPostgres());
+        run.setCopiedToMysql(result.copiedToMysql());
+        run.setFailedRows(result.failed());
+        run.setConflictsResolved(result.conflictsResolved());
+        run.setDeletesApplied(result.deletesApplied());
+        finish(run, nanos);
+    }
+
+    public void failed(SyncRun run, long nanos, Exception error) {
+        run.setStatus(SyncRun.Status.FAILED);
+        String message = String.valueOf(error.getMessage());
+        run.setError(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+        finish(run, nanos);
+    }
+
+    /** The given number of most recent runs, with throughput and lag trends over them */
+    public SyncRunHistory history(int limit) {
+        return SyncRunHistory.of(runs.findByOrderByIdDesc(Limit.of(limit)));
+    }
+
+    private void finish(SyncRun run, long nanos) {
+        run.setFinishedAt(Instant.now());
+        run.setDurationMillis(nanos / 1_000_000);
+        SyncBatchStats.Snapshot batches = batchStats.drain();
+        run.setBatches(batches.batches());
+        run.setBatchTotalNanos(batches.totalNanos());
+        run.setBatchMaxNanos(batches.maxNanos());
+        run.setMysqlToPostgresLagMillis(outboxReplicator.mysqlToPostgresLagMillis());
+        run.setPostgresToMysqlLagMillis(outboxReplicator.postgresToMysqlLagMillis());
+        try {
+            run.setMysqlToPostgresMarker(marker(postgresStore.loadCheckpoint(IncrementalSyncEngine.MYSQL_TO_POSTGRES)));
+            run.setPostgresToMysqlMarker(marker(mysqlStore.loadCheckpoint(IncrementalSyncEngine.POSTGRES_TO_MYSQL)));
+            run.setReconcileCheckpoints(mysqlStore.loadCheckpoints(UserReconciliationEngine.CHECKPOINT_PREFIX).size());
+        } catch (RuntimeException e) {
+            logger.warn("Reading the committed sync position failed: {}", e.getMessage());
+        }
+        try {
+            runs.save(run);
+        } catch (RuntimeException e) {
+            logger.warn("Recording the end of the sync cycle failed: {}", e.getMessage());
+        }
+    }
+
+    private static Long marker(SyncCheckpoint checkpoint) {
+        return checkpoint == null ? null : checkpoint.getMarker();
+    }
+
+    private void purgeIfDue() {
+        long now = System.nanoTime();
+        if (lastPurgeNanos != 0 && now - lastPurgeNanos < PURGE_INTERVAL_NANOS) {
+            return;
+        }
+        lastPurgeNanos = now;
+        int purged = runs.deleteStartedBefore(Instant.now().minusMillis(retentionMillis));
+        if (purged > 0) {
+            logger.info("Purged {} sync runs older than the retention period", purged);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.webkorps.sync_db.sync;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * One table the {@link TableSyncCoordinator} keeps in sync between both databases.
+ */
+public interface SyncedTable {
+
+    String name();
+
+    /** Tables whose rows this table's rows reference; they are synced before this one */
+    List<String> dependsOn();
+
+    /**
+     * Bring both copies of the table in line.
+     *
+     * @param full rescan the whole table instead of only applying changes since the last cycle
+     */
+    ReconciliationResult sync(boolean full) throws SQLException;
+}
@@ -0,0 +1,22 @@
+package com.webkorps.sync_db.sync;
+
+/**
+ * Decides which version of a row of a registered table survives when both databases hold its key
+ * with different contents. The counterpart of {@link ConflictPolicy} for tables other than users.
+ */
+@FunctionalInterface
+public interface TableConflictPolicy {
+
+    /** The newer change marker wins, ties and rows without a marker go to MySQL */
+    TableConflictPolicy LAST_WRITER_WINS = (mysql, postgres) ->
+            LastWriterWinsPolicy.marker(postgres.marker()) > LastWriterWinsPolicy.marker(mysql.marker()) ? postgres : mysql;
+
+    /** MySQL's version always wins */
+    TableConflictPolicy PRIMARY_WINS = (mysql, postgres) -> mysql;
+
+    /**
+     * The version both databases should end up with. Returning one of the arguments keeps it as is;
+     * a merged row should carry a fresh {@link ChangeMarkers#next()} marker.
+     */
+    TableRow resolve(TableRow mysql, TableRow postgres);
+}
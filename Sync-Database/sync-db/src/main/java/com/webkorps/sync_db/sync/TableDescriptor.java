@@ -0,0 +1,66 @@
+package com.webkorps.sync_db.sync;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A table kept in sync between both databases by {@link TableSync}.
+ * <p>
+ * Register a table by declaring a {@code TableDescriptor} bean. Rows are matched across the
+ * databases by their natural key, which must be unique on both sides; surrogate ids assigned by
+ * either database are not replicated unless listed in {@code columns}.
+ *
+ * @param name           table name, the same in both databases
+ * @param keyColumn      natural key, unique in both databases
+ * @param keyType        how the key sorts, so both databases return rows in the same order
+ * @param markerColumn   BIGINT change marker ({@link ChangeMarkers}) written with every change, or null.
+ *                       Tables without one are fully rescanned every cycle and cannot tell which side is newer.
+ * @param columns        every replicated column, key and marker included
+ * @param dependsOn      tables this table has foreign keys to; they are synced first
+ * @param conflictPolicy which version survives when both databases hold the key with different contents
+ */
+public record TableDescriptor(String name,
+                              String keyColumn,
+                              KeyType keyType,
+                              String markerColumn,
+                              List<String> columns,
+                              List<String> dependsOn,
+                              TableConflictPolicy conflictPolicy) {
+
+    public enum KeyType { TEXT, NUMBER }
+
+    // names end up in SQL, so only plain identifiers are accepted
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    public TableDescriptor {
+        columns = List.copyOf(columns);
+        dependsOn = List.copyOf(dependsOn);
+        checkIdentifier(name);
+        columns.forEach(TableDescriptor::checkIdentifier);
+        if (!columns.contains(keyColumn)) {
+            throw new IllegalArgumentException("Key column " + keyColumn + " of " + name + " is not among its columns");
+        }
+        if (markerColumn != null && !columns.contains(markerColumn)) {
+            throw new IllegalArgumentException("Marker column " + markerColumn + " of " + name + " is not among its columns");
+        }
+        if (keyType == null || conflictPolicy == null) {
+            throw new IllegalArgumentException("Table " + name + " needs a key type and a conflict policy");
+        }
+    }
+
+    private static void checkIdentifier(String identifier) {
+        if (identifier == null || !IDENTIFIER.matcher(identifier).matches()) {
+            throw new IllegalArgumentException("Not a plain SQL identifier: " + identifier);
+        }
+    }
+
+    /** Position of the key column in {@link #columns()} and in {@link TableRow#values()} */
+    public int keyIndex() {
+        return columns.indexOf(keyColumn);
+    }
+
+    /** Position of the marker column, or -1 if the table has none */
+    public int markerIndex() {
+        return markerColumn == null ? -1 : columns.indexOf(markerColumn);
+    }
+}
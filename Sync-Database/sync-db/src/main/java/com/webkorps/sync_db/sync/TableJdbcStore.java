@@ -0,0 +1,251 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Plain JDBC access to one {@link TableDescriptor registered table} of one database,
+ * the counterpart of {@link UserJdbcStore} for tables other than users.
+ * Obtained from {@link UserJdbcStore#forTable}, so it shares that store's connection pool.
+ */
+public class TableJdbcStore {
+
+    /**
+     * New contents for a row, to be written only if the row still has the marker it was read with.
+     *
+     * @param row            the version to write, keyed by its key column
+     * @param expectedMarker change marker of the row when it was read, null for rows without one
+     */
+    public record Overwrite(TableRow row, Long expectedMarker) {
+    }
+
+    private final String name;
+    private final SqlDialect dialect;
+    private final TableDescriptor table;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RowMapper<TableRow> rowMapper;
+    private final String keyOrder;
+    private final String selectSql;
+    private final String insertIgnoreSql;
+    private final String upsertNewerSql;
+    private final String overwriteSql;
+    private final String changedSinceSql;
+    private final String saveCheckpointSql;
+
+    TableJdbcStore(String name, SqlDialect dialect, DataSource dataSource, TableDescriptor table) {
+        this.name = name;
+        this.dialect = dialect;
+        this.table = table;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.rowMapper = this::mapRow;
+
+        List<String> columns = table.columns();
+        this.keyOrder = table.keyType() == TableDescriptor.KeyType.TEXT
+                ? dialect.binaryOrder(table.keyColumn()) : table.keyColumn();
+        this.selectSql = "SELECT " + String.join(", ", columns) + " FROM " + table.name();
+        this.insertIgnoreSql = dialect.insertIgnore(table.name(), table.keyColumn(), columns);
+        this.upsertNewerSql = dialect.upsert(table.name(), table.keyColumn(), columns, table.markerColumn());
+        String assignments = columns.stream()
+                .filter(column -> !column.equals(table.keyColumn()))
+                .map(column -> column + " = ?")
+                .collect(Collectors.joining(", "));
+        this.overwriteSql = "UPDATE " + table.name() + " SET " + assignments + " WHERE " + table.keyColumn() + " = ?"
+                + (table.markerColumn() == null ? "" : " AND COALESCE(" + table.markerColumn() + ", -1) = ?");
+        this.changedSinceSql = table.markerColumn() == null ? null
+                : selectSql + " WHERE " + table.markerColumn() + " <= ? AND (" + table.markerColumn() + " > ? OR ("
+                        + table.markerColumn() + " = ? AND " + keyOrder + " > ?))"
+                        + " ORDER BY " + table.markerColumn() + ", " + keyOrder + " LIMIT ?";
+        this.saveCheckpointSql = dialect.upsert(UserJdbcStore.CHECKPOINT_TABLE, "name",
+                List.of("name", "marker", "last_key"), null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public TableDescriptor getTable() {
+        return table;
+    }
+
+    private TableRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Object[] values = new Object[table.columns().size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = normalize(rs.getObject(i + 1));
+        }
+        Object key = values[table.keyIndex()];
+        if (table.keyType() == TableDescriptor.KeyType.NUMBER && key != null) {
+            key = ((Number) key).longValue();
+        }
+        Long marker = table.markerColumn() == null || values[table.markerIndex()] == null
+                ? null : ((Number) values[table.markerIndex()]).longValue();
+        return new TableRow(key, marker, Collections.unmodifiableList(Arrays.asList(values)));
+    }
+
+    // Connector/J returns java.time types for DATETIME and DATE where pgjdbc returns java.sql ones
+    private static Object normalize(Object value) {
+        if (value instanceof LocalDateTime dateTime) {
+            return Timestamp.valueOf(dateTime);
+        }
+        if (value instanceof LocalDate date) {
+            return Date.valueOf(date);
+        }
+        return value;
+    }
+
+    /** Open a cursor over the whole table in key order, which is the same order on both databases */
+    public RowCursor<TableRow> openKeyCursor(int pageSize) throws SQLException {
+        return RowCursor.open(dataSource, dialect, selectSql + " ORDER BY " + keyOrder, pageSize, rowMapper);
+    }
+
+    /**
+     * Next page of rows changed after the given checkpoint, in (marker, key) order.
+     * Rows with a marker above {@code upperMarker} are left for a later call.
+     */
+    public List<TableRow> findChangedSince(SyncCheckpoint checkpoint, long upperMarker, int limit) {
+        if (changedSinceSql == null) {
+            throw new IllegalStateException("Table " + table.name() + " has no change marker");
+        }
+        return jdbcTemplate.query(changedSinceSql, rowMapper, upperMarker, checkpoint.getMarker(),
+                checkpoint.getMarker(), checkpointKey(checkpoint.getLastKey()), limit);
+    }
+
+    /** Key stored in a checkpoint, in the type the key column compares with */
+    private Object checkpointKey(String lastKey) {
+        if (table.keyType() == TableDescriptor.KeyType.TEXT) {
+            return lastKey;
+        }
+        return lastKey.isEmpty() ? Long.MIN_VALUE : Long.parseLong(lastKey);
+    }
+
+    /**
+     * Insert rows in one JDBC batch, skipping keys that already exist.
+     * @return number of rows inserted; callers pass rows they found missing, so a row whose outcome
+     *         the driver does not report counts as inserted
+     */
+    public int insertMissing(List<TableRow> rows) {
+        return UserJdbcStore.countWritten(jdbcTemplate.batchUpdate(insertIgnoreSql, rows, rows.size(),
+                (ps, row) -> bindValues(ps, row, 1)));
+    }
+
+    /** Single-row variant of {@link #insertMissing(List)} */
+    public boolean insertMissing(TableRow row) {
+        return jdbcTemplate.update(insertIgnoreSql, row.values().toArray()) != 0;
+    }
+
+    /**
+     * Insert or update rows in one JDBC batch. Existing rows are only overwritten
+     * when the incoming change marker is newer than the stored one; as for users, rows held here
+     * at the same or a newer marker are dropped before the batch.
+     * @return number of rows inserted or updated
+     */
+    public int upsertNewer(List<TableRow> rows) {
+        rows = newerThanStored(rows);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        return UserJdbcStore.countWritten(jdbcTemplate.batchUpdate(upsertNewerSql, rows, rows.size(),
+                (ps, row) -> bindValues(ps, row, 1)));
+    }
+
+    /** The rows the marker check of an upsert would let through; all of them for tables without a marker */
+    private List<TableRow> newerThanStored(List<TableRow> rows) {
+        if (table.markerColumn() == null || rows.isEmpty()) {
+            return rows;
+        }
+        Map<Object, Long> stored = new HashMap<>();
+        List<Object> keys = rows.stream().map(TableRow::key).toList();
+        jdbcTemplate.query("SELECT " + table.keyColumn() + ", " + table.markerColumn() + " FROM " + table.name()
+                + " WHERE " + table.keyColumn() + " IN (" + SqlDialect.placeholders(keys) + ")", rs -> {
+            Object key = rs.getObject(1);
+            if (table.keyType() == TableDescriptor.KeyType.NUMBER) {
+                key = ((Number) key).longValue();
+            }
+            stored.put(key, rs.getObject(2) == null ? null : ((Number) rs.getObject(2)).longValue());
+        }, keys.toArray());
+        List<TableRow> newer = new ArrayList<>(rows.size());
+        for (TableRow row : rows) {
+            Long marker = stored.get(row.key());
+            if (!stored.containsKey(row.key()) || marker == null || (row.marker() != null && marker < row.marker())) {
+                newer.add(row);
+            }
+        }
+        return newer;
+    }
+
+    /** Single-row variant of {@link #upsertNewer(List)} */
+    public boolean upsertNewer(TableRow row) {
+        return jdbcTemplate.update(upsertNewerSql, row.values().toArray()) != 0;
+    }
+
+    /**
+     * Overwrite rows in one JDBC batch, each only if it still has the change marker it was read with
+     * (always, for tables without a marker).
+     * @return number of rows overwritten
+     */
+    public int overwriteIfUnchanged(List<Overwrite> overwrites) {
+        int keyIndex = table.keyIndex();
+        int[][] counts = jdbcTemplate.batchUpdate(overwriteSql, overwrites, overwrites.size(), (ps, overwrite) -> {
+            TableRow row = overwrite.row();
+            int parameter = 1;
+            for (int i = 0; i < row.values().size(); i++) {
+                if (i != keyIndex) {
+                    ps.setObject(parameter++, row.values().get(i));
+                }
+            }
+            ps.setObject(parameter++, row.key());
+            if (table.markerColumn() != null) {
+                ps.setLong(parameter, overwrite.expectedMarker() == null ? -1 : overwrite.expectedMarker());
+            }
+        });
+        return UserJdbcStore.countAffected(counts);
+    }
+
+    private static void bindValues(PreparedStatement ps, TableRow row, int first) throws SQLException {
+        for (int i = 0; i < row.values().size(); i++) {
+            ps.setObject(first + i, row.values().get(i));
+        }
+    }
+
+    /** Load a checkpoint stored in this database, or null if the stream never ran */
+    public SyncCheckpoint loadCheckpoint(String streamName) {
+        List<SyncCheckpoint> found = jdbcTemplate.query(
+                "SELECT name, marker, last_key FROM " + UserJdbcStore.CHECKPOINT_TABLE + " WHERE name = ?",
+                (rs, rowNum) -> new SyncCheckpoint(rs.getString("name"), rs.getLong("marker"), rs.getString("last_key")),
+                streamName);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /** Store a checkpoint in this database */
+    public void saveCheckpoint(SyncCheckpoint checkpoint) {
+        jdbcTemplate.update(saveCheckpointSql, checkpoint.getName(), checkpoint.getMarker(), checkpoint.getLastKey());
+    }
+
+    /** Run the given work in a single local transaction on this database */
+    public <T> T inTransaction(Supplier<T> work) {
+        return transactionTemplate.execute(status -> work.get());
+    }
+}
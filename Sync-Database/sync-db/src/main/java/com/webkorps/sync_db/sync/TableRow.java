@@ -0,0 +1,13 @@
+package com.webkorps.sync_db.sync;
+
+import java.util.List;
+
+/**
+ * Detached copy of a row of a {@link TableDescriptor registered table}.
+ *
+ * @param key    value of the key column, a String or a Long
+ * @param marker value of the change marker column, null if the row or the table has none
+ * @param values every replicated column, in {@link TableDescriptor#columns()} order; may contain nulls
+ */
+public record TableRow(Object key, Long marker, List<Object> values) {
+}
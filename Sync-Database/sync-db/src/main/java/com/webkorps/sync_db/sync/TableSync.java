@@ -0,0 +1,358 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Sync of one {@link TableDescriptor registered table}, the generic counterpart of
+ * {@link UserReconciliationEngine} and {@link IncrementalSyncEngine}.
+ * <p>
+ * A full pass merge-joins both copies of the table on the natural key through forward-only cursors,
+ * copies rows missing on one side to the other in JDBC batches, and settles keys both sides hold with
+ * different contents by the table's {@link TableConflictPolicy}. Tables with a change marker only
+ * need a full pass to bootstrap and as a periodic backstop; in between, each direction applies the
+ * rows changed since its checkpoint, as the users table does. Tables without a marker have nothing
+ * to read changes from, so they only get the periodic full pass. A pass holds one partition's worth
+ * of the {@link SyncConnectionBudget} while it runs.
+ * <p>
+ * Deletes are not tracked: a row deleted on only one database comes back on the next full pass.
+ * Registered tables should delete on both databases, or soft-delete through a replicated column.
+ */
+public class TableSync implements SyncedTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableSync.class);
+
+    /**
+     * @param pageSize               rows fetched per round trip, and per incremental page
+     * @param batchSize              missing or conflicting rows written per JDBC batch
+     * @param settleMillis           rows younger than this are left for the next incremental cycle
+     * @param fullScanIntervalMillis how often a table gets a full pass: the backstop of tables with a marker,
+     *                               the only sync of tables without one
+     */
+    public record Settings(int pageSize, int batchSize, long settleMillis, long fullScanIntervalMillis) {
+    }
+
+    private final TableDescriptor table;
+    private final TableJdbcStore mysqlStore;
+    private final TableJdbcStore postgresStore;
+    private final SyncConnectionBudget connectionBudget;
+    private final Settings settings;
+    private final SyncBatchStats batchStats;
+    private final String toPostgresStream;
+    private final String toMysqlStream;
+
+    private volatile long lastFullScanNanos;
+    private volatile boolean fullScanDone;
+
+    public TableSync(TableJdbcStore mysqlStore, TableJdbcStore postgresStore,
+                     SyncConnectionBudget connectionBudget, Settings settings, SyncBatchStats batchStats) {
+        this.table = mysqlStore.getTable();
+        this.mysqlStore = mysqlStore;
+        this.postgresStore = postgresStore;
+        this.connectionBudget = connectionBudget;
+        this.settings = settings;
+        this.batchStats = batchStats;
+        this.toPostgresStream = table.name() + ":mysql-to-postgres";
+        this.toMysqlStream = table.name() + ":postgres-to-mysql";
+    }
+
+    @Override
+    public String name() {
+        return table.name();
+    }
+
+    @Override
+    public List<String> dependsOn() {
+        return table.dependsOn();
+    }
+
+    @Override
+    public ReconciliationResult sync(boolean full) throws SQLException {
+        if (!full && table.markerColumn() == null && !fullScanDue()) {
+            return ReconciliationResult.EMPTY;
+        }
+        try {
+            connectionBudget.acquirePartition();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for connections to sync " + table.name(), e);
+        }
+        try {
+            return full || table.markerColumn() == null ? fullPass() : syncChanges();
+        } finally {
+            connectionBudget.releasePartition();
+        }
+    }
+
+    private ReconciliationResult syncChanges() throws SQLException {
+        long upperMarker = ChangeMarkers.nowMicros() - settings.settleMillis() * 1_000;
+        SyncCheckpoint toPostgres = postgresStore.loadCheckpoint(toPostgresStream);
+        SyncCheckpoint toMysql = mysqlStore.loadCheckpoint(toMysqlStream);
+
+        if (toPostgres == null || toMysql == null || fullScanDue()) {
+            ReconciliationResult result = fullPass();
+            // as for users, existing checkpoints keep feeding updates and missing ones start now
+            if (toPostgres == null) {
+                postgresStore.saveCheckpoint(new SyncCheckpoint(toPostgresStream, upperMarker, ""));
+            }
+            if (toMysql == null) {
+                mysqlStore.saveCheckpoint(new SyncCheckpoint(toMysqlStream, upperMarker, ""));
+            }
+            return result;
+        }
+
+        DirectionResult mysqlToPostgres = apply(mysqlStore, postgresStore, toPostgres, upperMarker);
+        DirectionResult postgresToMysql = apply(postgresStore, mysqlStore, toMysql, upperMarker);
+        return new ReconciliationResult(mysqlToPostgres.scanned, postgresToMysql.scanned,
+                mysqlToPostgres.applied, postgresToMysql.applied, mysqlToPostgres.failed + postgresToMysql.failed);
+    }
+
+    private ReconciliationResult fullPass() throws SQLException {
+        ReconciliationResult result = reconcile();
+        lastFullScanNanos = System.nanoTime();
+        fullScanDone = true;
+        return result;
+    }
+
+    private boolean fullScanDue() {
+        return !fullScanDone || System.nanoTime() - lastFullScanNanos > settings.fullScanIntervalMillis() * 1_000_000;
+    }
+
+    /** Drain all pending changes from source into target, page by page */
+    private DirectionResult apply(TableJdbcStore source, TableJdbcStore target, SyncCheckpoint checkpoint, long upperMarker) {
+        DirectionResult result = new DirectionResult();
+        while (true) {
+            List<TableRow> page = source.findChangedSince(checkpoint, upperMarker, settings.pageSize());
+            if (page.isEmpty()) {
+                break;
+            }
+            TableRow last = page.get(page.size() - 1);
+            SyncCheckpoint next = new SyncCheckpoint(checkpoint.getName(), last.marker(), String.valueOf(last.key()));
+            long start = System.nanoTime();
+            boolean stalled = false;
+            try {
+                result.applied += target.inTransaction(() -> {
+                    int written = target.upsertNewer(page);
+                    target.saveCheckpoint(next);
+                    return written;
+                });
+            } catch (RuntimeException batchException) {
+                logger.warn("Batch apply of {} to {} failed, retrying row by row: {}",
+                        table.name(), target.getName(), batchException.getMessage());
+                int firstFailure = page.size();
+                for (int i = 0; i < page.size(); i++) {
+                    TableRow row = page.get(i);
+                    try {
+                        result.applied += target.upsertNewer(row) ? 1 : 0;
+                    } catch (RuntimeException e) {
+                        result.failed++;
+                        firstFailure = Math.min(firstFailure, i);
+                        logger.warn("Failed to apply {} {} to {}: {}", table.name(), row.key(), target.getName(), e.getMessage());
+                    }
+                }
+                // as for users, the checkpoint stops in front of the first failed row so the next cycle retries it
+                stalled = firstFailure < page.size();
+                if (firstFailure > 0) {
+                    TableRow applied = page.get(firstFailure - 1);
+                    target.saveCheckpoint(new SyncCheckpoint(checkpoint.getName(), applied.marker(), String.valueOf(applied.key())));
+                }
+            }
+            batchStats.record(System.nanoTime() - start);
+            result.scanned += page.size();
+            checkpoint = next;
+            if (stalled || page.size() < settings.pageSize()) {
+                break;
+            }
+        }
+        if (result.applied > 0) {
+            logger.info("Applied {} changed {} rows from {} to {}",
+                    result.applied, table.name(), source.getName(), target.getName());
+        }
+        return result;
+    }
+
+    /** Merge-join both copies of the table on the key */
+    private ReconciliationResult reconcile() throws SQLException {
+        BatchWriter toPostgres = new BatchWriter(postgresStore);
+        BatchWriter toMysql = new BatchWriter(mysqlStore);
+        ConflictWriter conflicts = new ConflictWriter();
+
+        try (RowCursor<TableRow> mysql = mysqlStore.openKeyCursor(settings.pageSize());
+             RowCursor<TableRow> postgres = postgresStore.openKeyCursor(settings.pageSize())) {
+
+            while (mysql.current() != null || postgres.current() != null) {
+                int cmp = compare(mysql.current(), postgres.current());
+                if (cmp == 0) {
+                    if (!sameValues(mysql.current(), postgres.current())) {
+                        conflicts.add(mysql.current(), postgres.current());
+                    }
+                    mysql.advance();
+                    postgres.advance();
+                } else if (cmp < 0) {
+                    toPostgres.add(mysql.current());
+                    mysql.advance();
+                } else {
+                    toMysql.add(postgres.current());
+                    postgres.advance();
+                }
+            }
+            toPostgres.flush();
+            toMysql.flush();
+            conflicts.flush();
+
+            return new ReconciliationResult(mysql.scanned(), postgres.scanned(),
+                    toPostgres.inserted, toMysql.inserted, toPostgres.failed + toMysql.failed + conflicts.failed,
+                    conflicts.resolved, 0);
+        }
+    }
+
+    /** Order rows by key; an exhausted cursor (null) sorts after everything */
+    private int compare(TableRow a, TableRow b) {
+        if (a == null) {
+            return 1;
+        }
+        if (b == null) {
+            return -1;
+        }
+        if (table.keyType() == TableDescriptor.KeyType.TEXT) {
+            return UserReconciliationEngine.compareCodePoints((String) a.key(), (String) b.key());
+        }
+        return Long.compare((Long) a.key(), (Long) b.key());
+    }
+
+    /**
+     * True if both rows hold the same values. The two drivers may map a column to different
+     * Java types, so numbers are compared by value rather than by class.
+     */
+    static boolean sameValues(TableRow a, TableRow b) {
+        for (int i = 0; i < a.values().size(); i++) {
+            Object x = a.values().get(i);
+            Object y = b.values().get(i);
+            if (x instanceof Number nx && y instanceof Number ny) {
+                if (new BigDecimal(nx.toString()).compareTo(new BigDecimal(ny.toString())) != 0) {
+                    return false;
+                }
+            } else if (x instanceof byte[] bx && y instanceof byte[] by) {
+                if (!Arrays.equals(bx, by)) {
+                    return false;
+                }
+            } else if (!Objects.equals(x, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class DirectionResult {
+        long scanned;
+        long applied;
+        long failed;
+    }
+
+    /** Buffers rows missing on one target database and writes them in batches */
+    private class BatchWriter {
+
+        private final TableJdbcStore target;
+        private final List<TableRow> buffer = new ArrayList<>();
+        private long inserted;
+        private long failed;
+
+        BatchWriter(TableJdbcStore target) {
+            this.target = target;
+        }
+
+        void add(TableRow row) {
+            buffer.add(row);
+            if (buffer.size() >= settings.batchSize()) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                inserted += target.insertMissing(buffer);
+                logger.info("Synced {} {} rows to {}", buffer.size(), table.name(), target.getName());
+            } catch (RuntimeException batchException) {
+                // typically a row whose parent is missing on the target; don't let it hold up the others
+                logger.warn("Batch sync of {} to {} failed, retrying row by row: {}",
+                        table.name(), target.getName(), batchException.getMessage());
+                for (TableRow row : buffer) {
+                    try {
+                        inserted += target.insertMissing(row) ? 1 : 0;
+                    } catch (RuntimeException e) {
+                        failed++;
+                        logger.warn("Failed to sync {} {} to {}: {}", table.name(), row.key(), target.getName(), e.getMessage());
+                    }
+                }
+            }
+            batchStats.record(System.nanoTime() - start);
+            buffer.clear();
+        }
+    }
+
+    /** Buffers keys both databases hold with different contents and settles them in batches */
+    private class ConflictWriter {
+
+        private final List<TableRow> mysqlRows = new ArrayList<>();
+        private final List<TableRow> postgresRows = new ArrayList<>();
+        private long resolved;
+        private long failed;
+
+        void add(TableRow mysql, TableRow postgres) {
+            mysqlRows.add(mysql);
+            postgresRows.add(postgres);
+            if (mysqlRows.size() >= settings.batchSize()) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (mysqlRows.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            List<TableJdbcStore.Overwrite> toMysql = new ArrayList<>();
+            List<TableJdbcStore.Overwrite> toPostgres = new ArrayList<>();
+            for (int i = 0; i < mysqlRows.size(); i++) {
+                TableRow mysql = mysqlRows.get(i);
+                TableRow postgres = postgresRows.get(i);
+                TableRow winner = table.conflictPolicy().resolve(mysql, postgres);
+                if (!sameValues(winner, mysql)) {
+                    toMysql.add(new TableJdbcStore.Overwrite(winner, mysql.marker()));
+                }
+                if (!sameValues(winner, postgres)) {
+                    toPostgres.add(new TableJdbcStore.Overwrite(winner, postgres.marker()));
+                }
+            }
+            try {
+                // rows changed since they were read are skipped; the next pass looks at them again
+                if (!toMysql.isEmpty()) {
+                    mysqlStore.overwriteIfUnchanged(toMysql);
+                }
+                if (!toPostgres.isEmpty()) {
+                    postgresStore.overwriteIfUnchanged(toPostgres);
+                }
+                resolved += mysqlRows.size();
+                logger.info("Resolved {} conflicting {} rows", mysqlRows.size(), table.name());
+            } catch (RuntimeException e) {
+                failed += mysqlRows.size();
+                logger.warn("Resolving {} conflicting {} rows failed: {}", mysqlRows.size(), table.name(), e.getMessage());
+            }
+            batchStats.record(System.nanoTime() - start);
+            mysqlRows.clear();
+            postgresRows.clear();
+        }
+    }
+}
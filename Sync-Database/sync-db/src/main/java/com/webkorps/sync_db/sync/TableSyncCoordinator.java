@@ -0,0 +1,186 @@
+package com.webkorps.sync_db.sync;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Syncs every replicated table in one cycle: the users table plus each registered {@link TableDescriptor}.
+ * <p>
+ * Tables are ordered by their dependencies into levels, so rows a foreign key points to are copied
+ * before the rows pointing to them. The tables of one level are independent and run at the same time,
+ * drawing connections from the shared {@link SyncConnectionBudget}. A table whose sync fails is
+ * reported after the rest of the cycle has run, and the tables depending on it are skipped until the
+ * next cycle, since their rows could reference rows the failed table did not copy.
+ */
+@Component
+public class TableSyncCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableSyncCoordinator.class);
+
+    private final List<List<SyncedTable>> levels;
+    private final Map<String, Timer> timers = new HashMap<>();
+    private final Map<String, Counter> failures = new HashMap<>();
+    private final ExecutorService tableExecutor;
+
+    @Autowired
+    public TableSyncCoordinator(List<SyncedTable> tables,
+                                ObjectProvider<TableDescriptor> descriptors,
+                                @Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                                @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                                SyncConnectionBudget connectionBudget,
+                                SyncBatchStats batchStats,
+                                MeterRegistry meterRegistry,
+                                @Value("${sync.page-size:1000}") int pageSize,
+                                @Value("${sync.batch-size:500}") int batchSize,
+                                @Value("${sync.incremental.settle-ms:2000}") long settleMillis,
+                                @Value("${sync.incremental.full-scan-interval-ms:600000}") long fullScanIntervalMillis,
+                                @Value("${sync.tables.threads:2}") int threads) {
+        this(Stream.concat(tables.stream(), descriptors.orderedStream().map(table -> new TableSync(
+                        mysqlStore.forTable(table), postgresStore.forTable(table), connectionBudget,
+                        new TableSync.Settings(pageSize, batchSize, settleMillis, fullScanIntervalMillis),
+                        batchStats))).toList(),
+                meterRegistry, threads);
+        logger.info("Syncing tables in order {}", levels.stream()
+                .map(level -> level.stream().map(SyncedTable::name).toList()).toList());
+    }
+
+    public TableSyncCoordinator(List<SyncedTable> tables, MeterRegistry meterRegistry, int threads) {
+        this.levels = levels(tables);
+        for (SyncedTable table : tables) {
+            timers.put(table.name(), Timer.builder("sync.table")
+                    .description("Duration of syncing one table within a sync cycle")
+                    .tag("table", table.name())
+                    .register(meterRegistry));
+            failures.put(table.name(), Counter.builder("sync.table.failed")
+                    .description("Table syncs that failed or were skipped because a table they depend on failed")
+                    .tag("table", table.name())
+                    .register(meterRegistry));
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.tableExecutor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "sync-table-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        tableExecutor.shutdownNow();
+    }
+
+    /**
+     * Group tables into levels: each table comes after every table it depends on,
+     * and tables keep their registration order within a level.
+     */
+    static List<List<SyncedTable>> levels(List<SyncedTable> tables) {
+        Map<String, SyncedTable> byName = new LinkedHashMap<>();
+        for (SyncedTable table : tables) {
+            if (byName.put(table.name(), table) != null) {
+                throw new IllegalStateException("Table " + table.name() + " is registered twice for sync");
+            }
+        }
+        for (SyncedTable table : tables) {
+            for (String parent : table.dependsOn()) {
+                if (!byName.containsKey(parent)) {
+                    throw new IllegalStateException("Table " + table.name() + " depends on " + parent
+                            + ", which is not synced");
+                }
+            }
+        }
+
+        List<List<SyncedTable>> levels = new ArrayList<>();
+        Set<String> placed = new HashSet<>();
+        List<SyncedTable> remaining = new ArrayList<>(byName.values());
+        while (!remaining.isEmpty()) {
+            List<SyncedTable> level = remaining.stream()
+                    .filter(table -> placed.containsAll(table.dependsOn()))
+                    .toList();
+            if (level.isEmpty()) {
+                throw new IllegalStateException("Tables " + remaining.stream().map(SyncedTable::name).toList()
+                        + " depend on each other in a cycle");
+            }
+            levels.add(level);
+            level.forEach(table -> placed.add(table.name()));
+            remaining.removeAll(level);
+        }
+        return levels;
+    }
+
+    /**
+     * Sync every table, level by level.
+     * @return the row counts of all tables added up
+     * @throws SQLException if a table failed, once all tables not depending on it have been synced
+     */
+    public ReconciliationResult syncAll(boolean full) throws SQLException {
+        ReconciliationResult total = ReconciliationResult.EMPTY;
+        Set<String> failed = new HashSet<>();
+        Throwable failure = null;
+
+        for (List<SyncedTable> level : levels) {
+            Map<SyncedTable, CompletableFuture<ReconciliationResult>> tasks = new LinkedHashMap<>();
+            for (SyncedTable table : level) {
+                if (table.dependsOn().stream().anyMatch(failed::contains)) {
+                    logger.warn("Skipping sync of {}, a table it depends on failed", table.name());
+                    failures.get(table.name()).increment();
+                    failed.add(table.name());
+                    continue;
+                }
+                tasks.put(table, CompletableFuture.supplyAsync(() -> sync(table, full), tableExecutor));
+            }
+            for (Map.Entry<SyncedTable, CompletableFuture<ReconciliationResult>> task : tasks.entrySet()) {
+                try {
+                    total = total.plus(task.getValue().join());
+                } catch (CompletionException e) {
+                    failed.add(task.getKey().name());
+                    failure = failure == null ? e.getCause() : failure;
+                }
+            }
+        }
+
+        if (failure instanceof SQLException sqlException) {
+            throw sqlException;
+        } else if (failure != null) {
+            throw new RuntimeException("Sync of " + failed + " failed: " + failure.getMessage(), failure);
+        }
+        return total;
+    }
+
+    private ReconciliationResult sync(SyncedTable table, boolean full) {
+        long start = System.nanoTime();
+        try {
+            return table.sync(full);
+        } catch (SQLException | RuntimeException e) {
+            failures.get(table.name()).increment();
+            logger.warn("Sync of {} failed: {}", table.name(), e.getMessage());
+            throw new CompletionException(e);
+        } finally {
+            timers.get(table.name()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
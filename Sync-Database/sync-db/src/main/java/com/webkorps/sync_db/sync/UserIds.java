@@ -0,0 +1,80 @@
+package com.webkorps.sync_db.sync;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of user ids that are the same in both databases.
+ * <p>
+ * Ids are allocated here instead of by either database's auto-increment, so a user keeps its id
+ * when it is copied to the other side, and Hibernate knows the id before the insert and can batch
+ * inserts. An id is time-ordered: milliseconds since 2024-01-01 (41 bits), then the node id of this
+ * application instance (10 bits), then a sequence within the millisecond (12 bits). Instances
+ * writing to the same databases need distinct {@code sync.id.node-id}s.
+ */
+public final class UserIds {
+
+    private static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    /**
+     * Smallest id handed out by this class. Anything below was assigned by a database's own
+     * auto-increment before ids were shared, and may mean a different user on the other side.
+     */
+    static final long FIRST_SHARED_ID =
+            (Instant.parse("2025-01-01T00:00:00Z").toEpochMilli() - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS);
+
+    // milliseconds since the epoch << SEQUENCE_BITS | sequence of the last id handed out
+    private static final AtomicLong last = new AtomicLong();
+    private static volatile long nodeId;
+
+    private UserIds() {
+    }
+
+    public static void setNodeId(int id) {
+        if (id < 0 || id > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ", was " + id);
+        }
+        nodeId = id;
+    }
+
+    /**
+     * Next id for a user being created now.
+     * When the sequence of a millisecond runs out, or the clock steps back, ids keep counting up
+     * from the last one instead of waiting for the clock.
+     */
+    public static long next() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long state = last.accumulateAndGet(now, (previous, current) -> Math.max(previous + 1, current));
+        return (state >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                | nodeId << SEQUENCE_BITS
+                | (state & SEQUENCE_MASK);
+    }
+
+    /** True for ids allocated by this class, which mean the same user in both databases */
+    public static boolean isShared(Long id) {
+        return id != null && id >= FIRST_SHARED_ID;
+    }
+
+    /**
+     * The id both databases should use for a user they hold under ids {@code a} and {@code b}:
+     * the id both already use, the older of two shared ids, the only shared one, or a new one
+     * if they hold the user under two different ids that are not shared.
+     */
+    public static long agree(Long a, Long b) {
+        if (a != null && a.equals(b)) {
+            return a;
+        }
+        if (isShared(a) && isShared(b)) {
+            return Math.min(a, b);
+        }
+        if (isShared(a)) {
+            return a;
+        }
+        return isShared(b) ? b : next();
+    }
+}
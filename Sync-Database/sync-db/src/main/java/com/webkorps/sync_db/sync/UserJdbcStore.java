@@ -0,0 +1,524 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.entity.UserTombstone;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Plain JDBC access to the users table of one database, used by the sync engine
+ * where going through JPA would mean materializing entities or giving up batching.
+ */
+public class UserJdbcStore {
+
+    static final String TABLE = "users";
+    static final String CHECKPOINT_TABLE = "sync_checkpoint";
+    static final String OUTBOX_TABLE = "user_outbox";
+    static final String TOMBSTONE_TABLE = "user_tombstone";
+
+    static final RowMapper<UserRow> ROW_MAPPER = (rs, rowNum) -> new UserRow(
+            rs.getLong("id"),
+            rs.getString("name"),
+            rs.getString("email"),
+            rs.getObject("modified_at", Long.class));
+
+    private final String name;
+    private final SqlDialect dialect;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String insertIgnoreSql;
+    private final String upsertNewerSql;
+    private final String upsertByEmailSql;
+    private final String changedSinceSql;
+    private final String saveCheckpointSql;
+    private final String saveTombstoneSql;
+
+    public UserJdbcStore(String name, SqlDialect dialect, DataSource dataSource) {
+        this.name = name;
+        this.dialect = dialect;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.insertIgnoreSql = dialect.insertIgnore(TABLE, "email", List.of("id", "name", "email", "modified_at"));
+        this.upsertNewerSql = dialect.upsert(TABLE, "email", List.of("id", "name", "email", "modified_at"), "modified_at");
+        this.upsertByEmailSql = dialect.upsert(TABLE, "email", List.of("id", "name", "email", "modified_at"),
+                List.of("name", "modified_at"), "modified_at");
+        this.changedSinceSql = "SELECT id, name, email, modified_at FROM " + TABLE
+                + " WHERE modified_at <= ? AND (modified_at > ? OR (modified_at = ? AND "
+                + dialect.binaryOrder("email") + " > ?))"
+                + " ORDER BY modified_at, " + dialect.binaryOrder("email")
+                + " LIMIT ?";
+        this.saveCheckpointSql = dialect.upsert(CHECKPOINT_TABLE, "name", List.of("name", "marker", "last_key"), null);
+        this.saveTombstoneSql = dialect.upsert(TOMBSTONE_TABLE, "email", List.of("email", "deleted_at"), "deleted_at");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /** Store for another table of this database, sharing its connection pool */
+    public TableJdbcStore forTable(TableDescriptor table) {
+        return new TableJdbcStore(name, dialect, dataSource, table);
+    }
+
+    /**
+     * Open a cursor over the users of one partition whose email sorts after {@code afterEmail},
+     * in code point order of their email. Pass "" to start at the beginning.
+     */
+    public RowCursor<UserRow> openEmailCursor(int pageSize, EmailPartition partition, String afterEmail) throws SQLException {
+        String orderKey = dialect.binaryOrder("email");
+        if (partition.isWhole()) {
+            return openCursor("SELECT id, name, email, modified_at FROM " + TABLE
+                    + " WHERE " + orderKey + " > ? ORDER BY " + orderKey, pageSize, afterEmail);
+        }
+        // the partition is read through the email_hash index, only its own users get sorted
+        HashRange range = new HashRange(partition.lowPrefix(), HashRange.prefixEnd(partition.highPrefix()));
+        List<Object> params = new ArrayList<>(List.of(range.bounds()));
+        params.add(afterEmail);
+        return openCursor("SELECT id, name, email, modified_at FROM " + TABLE + range.where()
+                + " AND " + orderKey + " > ? ORDER BY " + orderKey, pageSize, params.toArray());
+    }
+
+    /**
+     * Row count and checksum of each bucket of {@code bucketLength} hex digits of the email hash
+     * below the given prefix ("" for the whole table), computed by the database so only the
+     * buckets travel. Each row hashes its id, email, name and change marker.
+     */
+    public Map<String, BucketChecksum> checksumBuckets(String prefix, int bucketLength) {
+        String bucket = "SUBSTRING(email_hash, 1, " + bucketLength + ")";
+        String rowHash = dialect.hashToLong("CONCAT(id, '|', email, '|', name, '|', COALESCE(modified_at, -1))");
+        HashRange range = HashRange.of(prefix);
+        String sql = "SELECT " + bucket + " AS bucket, COUNT(*) AS row_count, SUM(" + rowHash + ") AS checksum"
+                + " FROM " + TABLE + range.where()
+                + " GROUP BY " + bucket;
+        Map<String, BucketChecksum> buckets = new HashMap<>();
+        RowCallbackHandler collect = rs -> buckets.put(rs.getString("bucket"),
+                new BucketChecksum(rs.getString("bucket"), rs.getLong("row_count"), rs.getBigDecimal("checksum")));
+        jdbcTemplate.query(sql, collect, range.bounds());
+        return buckets;
+    }
+
+    /** Users whose email hash starts with the given hex prefix, in code point order of their email */
+    public List<UserRow> findByEmailHashPrefix(String prefix) {
+        HashRange range = HashRange.of(prefix);
+        return jdbcTemplate.query("SELECT id, name, email, modified_at FROM " + TABLE + range.where()
+                + " ORDER BY " + dialect.binaryOrder("email"), ROW_MAPPER, range.bounds());
+    }
+
+    /**
+     * Users whose email hash lies in [from, to), as a range the email_hash index can serve.
+     * Either bound may be null for an open end. Hex digits sort the same under every collation.
+     */
+    record HashRange(String from, String to) {
+
+        /** Range of the hashes starting with the given hex prefix */
+        static HashRange of(String prefix) {
+            return new HashRange(prefix.isEmpty() ? null : prefix, prefixEnd(prefix));
+        }
+
+        /** Smallest hex string above everything starting with the prefix, null if there is none */
+        static String prefixEnd(String prefix) {
+            int last = prefix.length() - 1;
+            while (last >= 0 && prefix.charAt(last) == 'f') {
+                last--;
+            }
+            if (last < 0) {
+                return null;
+            }
+            return prefix.substring(0, last) + Character.forDigit(Character.digit(prefix.charAt(last), 16) + 1, 16);
+        }
+
+        String where() {
+            if (from == null && to == null) {
+                return "";
+            }
+            return " WHERE " + (from == null ? "" : "email_hash >= ?")
+                    + (from != null && to != null ? " AND " : "") + (to == null ? "" : "email_hash < ?");
+        }
+
+        Object[] bounds() {
+            return Stream.of(from, to).filter(Objects::nonNull).toArray();
+        }
+    }
+
+    /**
+     * Keyset page: up to {@code limit} users whose email sorts after {@code afterEmail}, in code point
+     * order of their email, so a page walk continues the same way whichever database serves the next page.
+     * Pass "" to start at the beginning.
+     */
+    public List<UserRow> findPageAfterEmail(String afterEmail, int limit) {
+        String orderKey = dialect.binaryOrder("email");
+        return jdbcTemplate.query("SELECT id, name, email, modified_at FROM " + TABLE
+                + " WHERE " + orderKey + " > ? ORDER BY " + orderKey + " LIMIT ?", ROW_MAPPER, afterEmail, limit);
+    }
+
+    /** Open a cursor over all users in primary key order, which needs no sort on the server */
+    public RowCursor<UserRow> openIdCursor(int pageSize) throws SQLException {
+        return openCursor("SELECT id, name, email, modified_at FROM " + TABLE + " ORDER BY id", pageSize);
+    }
+
+    private RowCursor<UserRow> openCursor(String sql, int pageSize, Object... params) throws SQLException {
+        return RowCursor.open(dataSource, dialect, sql, pageSize, ROW_MAPPER, params);
+    }
+
+    /**
+     * Next page of rows changed after the given checkpoint, in (marker, email) order.
+     * Rows with a marker above {@code upperMarker} are left for a later call.
+     */
+    public List<UserRow> findChangedSince(SyncCheckpoint checkpoint, long upperMarker, int limit) {
+        return jdbcTemplate.query(changedSinceSql, ROW_MAPPER,
+                upperMarker, checkpoint.getMarker(), checkpoint.getMarker(), checkpoint.getLastKey(), limit);
+    }
+
+    /**
+     * Insert rows in one JDBC batch, skipping emails that already exist.
+     * Rows keep their id if it is a {@linkplain UserIds#isShared shared} one and get a new one otherwise.
+     * @return number of rows inserted; callers pass rows they found missing, so a row whose outcome
+     *         the driver does not report counts as inserted
+     */
+    public int insertMissing(List<UserRow> rows) {
+        int[][] counts = jdbcTemplate.batchUpdate(insertIgnoreSql, rows, rows.size(), (ps, row) -> {
+            ps.setLong(1, idFor(row));
+            ps.setString(2, row.name());
+            ps.setString(3, row.email());
+            ps.setObject(4, row.modifiedAt());
+        });
+        return countWritten(counts);
+    }
+
+    /**
+     * As {@link #insertMissing(List)}, but every row keeps its id, including one that is not shared.
+     * Callers make sure no other user holds such an id here.
+     * @return number of rows inserted, counted as by {@link #insertMissing(List)}
+     */
+    public int insertMissingWithIds(List<UserRow> rows) {
+        int[][] counts = jdbcTemplate.batchUpdate(insertIgnoreSql, rows, rows.size(), (ps, row) -> {
+            ps.setLong(1, row.id());
+            ps.setString(2, row.name());
+            ps.setString(3, row.email());
+            ps.setObject(4, row.modifiedAt());
+        });
+        return countWritten(counts);
+    }
+
+    /** Those of the given ids that a user holds here */
+    public Set<Long> findTakenIds(List<Long> ids) {
+        Set<Long> taken = new HashSet<>();
+        if (ids.isEmpty()) {
+            return taken;
+        }
+        jdbcTemplate.query("SELECT id FROM " + TABLE + " WHERE id IN (" + SqlDialect.placeholders(ids) + ")",
+                rs -> {
+                    taken.add(rs.getLong("id"));
+                }, ids.toArray());
+        return taken;
+    }
+
+    /**
+     * Insert a single row, skipping it if the email already exists.
+     * @return true if the row was inserted
+     */
+    public boolean insertMissing(UserRow row) {
+        return jdbcTemplate.update(insertIgnoreSql, idFor(row), row.name(), row.email(), row.modifiedAt()) != 0;
+    }
+
+    // an id the other database assigned itself may belong to a different user here
+    private static long idFor(UserRow row) {
+        return UserIds.isShared(row.id()) ? row.id() : UserIds.next();
+    }
+
+    /**
+     * Insert or update rows in one JDBC batch. Existing rows are only overwritten
+     * when the incoming change marker is newer than the stored one, and rows deleted
+     * here after the incoming change are not brought back. Ids are handled as by {@link #insertMissing(List)}.
+     * <p>
+     * Rows this database already holds at the same or a newer marker, typically ones the outbox
+     * replicated first, are dropped before the batch, so they are neither written nor counted.
+     * @return number of rows inserted or updated
+     */
+    public int upsertNewer(List<UserRow> rows) {
+        rows = newerThanStored(withoutDeleted(rows));
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        int[][] counts = jdbcTemplate.batchUpdate(upsertNewerSql, rows, rows.size(), (ps, row) -> {
+            ps.setLong(1, idFor(row));
+            ps.setString(2, row.name());
+            ps.setString(3, row.email());
+            ps.setObject(4, row.modifiedAt());
+        });
+        return countWritten(counts);
+    }
+
+    /** The rows the marker check of an upsert would let through: missing here, or newer than the stored row */
+    private List<UserRow> newerThanStored(List<UserRow> rows) {
+        if (rows.isEmpty()) {
+            return rows;
+        }
+        Map<String, Long> stored = findMarkersByEmail(rows.stream().map(UserRow::email).toList());
+        List<UserRow> newer = new ArrayList<>(rows.size());
+        for (UserRow row : rows) {
+            Long marker = stored.get(row.email());
+            if (!stored.containsKey(row.email()) || marker == null
+                    || (row.modifiedAt() != null && marker < row.modifiedAt())) {
+                newer.add(row);
+            }
+        }
+        return newer;
+    }
+
+    /**
+     * Create a user, or rename the user holding the email, in one statement on the unique email index.
+     * An existing user keeps its id; the name is only overwritten if the marker is newer than the stored one.
+     * @return the user as stored afterwards
+     */
+    public UserRow upsertByEmail(String name, String email, long marker) {
+        jdbcTemplate.update(upsertByEmailSql, UserIds.next(), name, email, marker);
+        return jdbcTemplate.queryForObject("SELECT id, name, email, modified_at FROM " + TABLE + " WHERE email = ?",
+                ROW_MAPPER, email);
+    }
+
+    /**
+     * Update users by id in one JDBC batch, email included, each only if the stored row is older,
+     * as saveUser updates a user. An id not held here is inserted with the row, and rows deleted here
+     * after the change are not brought back.
+     * @return number of rows updated or inserted
+     */
+    public int updateNewerById(List<UserRow> rows) {
+        rows = withoutDeleted(rows);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        int[][] counts = jdbcTemplate.batchUpdate("UPDATE " + TABLE + " SET name = ?, email = ?, modified_at = ?"
+                + " WHERE id = ? AND (modified_at IS NULL OR modified_at < ?)", rows, rows.size(), (ps, row) -> {
+            ps.setString(1, row.name());
+            ps.setString(2, row.email());
+            ps.setObject(3, row.modifiedAt());
+            ps.setLong(4, row.id());
+            ps.setObject(5, row.modifiedAt());
+        });
+        Set<Long> taken = findTakenIds(rows.stream().map(UserRow::id).toList());
+        List<UserRow> missing = rows.stream().filter(row -> !taken.contains(row.id())).toList();
+        return countAffected(counts) + (missing.isEmpty() ? 0 : insertMissingWithIds(missing));
+    }
+
+    /** Single-row variant of {@link #upsertNewer(List)} */
+    public boolean upsertNewer(UserRow row) {
+        return !withoutDeleted(List.of(row)).isEmpty()
+                && jdbcTemplate.update(upsertNewerSql, idFor(row), row.name(), row.email(), row.modifiedAt()) != 0;
+    }
+
+    private List<UserRow> withoutDeleted(List<UserRow> rows) {
+        Map<String, Long> tombstones = findTombstones(rows.stream().map(UserRow::email).toList());
+        if (tombstones.isEmpty()) {
+            return rows;
+        }
+        List<UserRow> live = new ArrayList<>(rows.size());
+        for (UserRow row : rows) {
+            Long deletedAt = tombstones.get(row.email());
+            if (deletedAt == null || deletedAt < LastWriterWinsPolicy.marker(row.modifiedAt())) {
+                live.add(row);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Overwrite rows in one JDBC batch, id included, each only if it still has the change marker it was
+     * read with, so a conflict resolution never clobbers a write that happened after the rows were read.
+     * @return number of rows overwritten
+     */
+    public int overwriteIfUnchanged(List<RowOverwrite> overwrites) {
+        int[][] counts = jdbcTemplate.batchUpdate("UPDATE " + TABLE + " SET id = ?, name = ?, modified_at = ?"
+                        + " WHERE email = ? AND COALESCE(modified_at, -1) = ?", overwrites, overwrites.size(),
+                (ps, overwrite) -> {
+                    ps.setLong(1, overwrite.row().id());
+                    ps.setString(2, overwrite.row().name());
+                    ps.setObject(3, overwrite.row().modifiedAt());
+                    ps.setString(4, overwrite.row().email());
+                    ps.setLong(5, overwrite.expectedMarker() == null ? -1 : overwrite.expectedMarker());
+                });
+        return countAffected(counts);
+    }
+
+    /**
+     * Apply deletes in one transaction: remove the users not changed after their delete and keep
+     * the tombstones, so a later sync does not copy the users back from the other database.
+     * @return number of rows deleted
+     */
+    public int applyDeletes(List<UserTombstone> tombstones) {
+        return inTransaction(() -> {
+            int[][] counts = jdbcTemplate.batchUpdate("DELETE FROM " + TABLE
+                            + " WHERE email = ? AND COALESCE(modified_at, -1) <= ?", tombstones, tombstones.size(),
+                    (ps, tombstone) -> {
+                        ps.setString(1, tombstone.getEmail());
+                        ps.setLong(2, tombstone.getDeletedAt());
+                    });
+            jdbcTemplate.batchUpdate(saveTombstoneSql, tombstones, tombstones.size(), (ps, tombstone) -> {
+                ps.setString(1, tombstone.getEmail());
+                ps.setLong(2, tombstone.getDeletedAt());
+            });
+            return countAffected(counts);
+        });
+    }
+
+    /** Delete markers of the given emails that were deleted here, keyed by email */
+    public Map<String, Long> findTombstones(List<String> emails) {
+        Map<String, Long> tombstones = new HashMap<>();
+        if (emails.isEmpty()) {
+            return tombstones;
+        }
+        jdbcTemplate.query("SELECT email, deleted_at FROM " + TOMBSTONE_TABLE
+                + " WHERE email IN (" + SqlDialect.placeholders(emails) + ")", rs -> {
+            tombstones.put(rs.getString("email"), rs.getLong("deleted_at"));
+        }, emails.toArray());
+        return tombstones;
+    }
+
+    /** Forget the deletes of the given emails, once their users have been restored here */
+    public void deleteTombstones(List<String> emails) {
+        jdbcTemplate.batchUpdate("DELETE FROM " + TOMBSTONE_TABLE + " WHERE email = ?", emails, emails.size(),
+                (ps, email) -> ps.setString(1, email));
+    }
+
+    /**
+     * Drop tombstones of deletes older than the given marker. Both databases have long agreed
+     * on those users by then, so there is nothing left for the tombstones to protect.
+     * @return number of tombstones dropped
+     */
+    public int purgeTombstones(long deletedBefore) {
+        return jdbcTemplate.update("DELETE FROM " + TOMBSTONE_TABLE + " WHERE deleted_at < ?", deletedBefore);
+    }
+
+    /**
+     * Change markers of the users with the given emails, keyed by the email as stored.
+     * Lets callers tell which rows of an insert-ignore batch were actually written.
+     */
+    public Map<String, Long> findMarkersByEmail(List<String> emails) {
+        Map<String, Long> markers = new HashMap<>();
+        if (emails.isEmpty()) {
+            return markers;
+        }
+        String sql = "SELECT email, modified_at FROM " + TABLE
+                + " WHERE email IN (" + SqlDialect.placeholders(emails) + ")";
+        jdbcTemplate.query(sql, rs -> {
+            markers.put(rs.getString("email"), rs.getObject("modified_at", Long.class));
+        }, emails.toArray());
+        return markers;
+    }
+
+    /** Record upsert events for the given rows in this database's outbox, in one JDBC batch */
+    public void appendUpsertEvents(List<UserRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        // Same UTC encoding Hibernate uses for the Instant column, so JPA reads it back unchanged
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        jdbcTemplate.batchUpdate("INSERT INTO " + OUTBOX_TABLE
+                        + " (operation, user_id, email, name, modified_at, created_at, attempts)"
+                        + " VALUES ('UPSERT', ?, ?, ?, ?, ?, 0)",
+                rows, rows.size(), (ps, row) -> {
+                    ps.setObject(1, row.id());
+                    ps.setString(2, row.email());
+                    ps.setString(3, row.name());
+                    ps.setObject(4, row.modifiedAt());
+                    ps.setTimestamp(5, now, utc);
+                });
+    }
+
+    /** Load a checkpoint stored in this database, or null if the stream never ran */
+    public SyncCheckpoint loadCheckpoint(String streamName) {
+        List<SyncCheckpoint> found = jdbcTemplate.query(
+                "SELECT name, marker, last_key FROM " + CHECKPOINT_TABLE + " WHERE name = ?",
+                (rs, rowNum) -> new SyncCheckpoint(rs.getString("name"), rs.getLong("marker"), rs.getString("last_key")),
+                streamName);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /** Load all checkpoints whose name starts with the given prefix, keyed by name */
+    public Map<String, SyncCheckpoint> loadCheckpoints(String namePrefix) {
+        Map<String, SyncCheckpoint> checkpoints = new HashMap<>();
+        jdbcTemplate.query("SELECT name, marker, last_key FROM " + CHECKPOINT_TABLE + " WHERE name LIKE ?", rs -> {
+            checkpoints.put(rs.getString("name"),
+                    new SyncCheckpoint(rs.getString("name"), rs.getLong("marker"), rs.getString("last_key")));
+        }, namePrefix + "%");
+        return checkpoints;
+    }
+
+    /** Store a checkpoint in this database */
+    public void saveCheckpoint(SyncCheckpoint checkpoint) {
+        jdbcTemplate.update(saveCheckpointSql, checkpoint.getName(), checkpoint.getMarker(), checkpoint.getLastKey());
+    }
+
+    /** Delete all checkpoints whose name starts with the given prefix */
+    public void deleteCheckpoints(String namePrefix) {
+        jdbcTemplate.update("DELETE FROM " + CHECKPOINT_TABLE + " WHERE name LIKE ?", namePrefix + "%");
+    }
+
+    /** Run the given work in a single local transaction on this database */
+    public <T> T inTransaction(Supplier<T> work) {
+        return transactionTemplate.execute(status -> work.get());
+    }
+
+    /** As {@link #inTransaction(Supplier)}, with its statements cancelled once the timeout has passed */
+    public <T> T inTransaction(Supplier<T> work, int timeoutSeconds) {
+        TransactionTemplate timed = new TransactionTemplate(transactionTemplate.getTransactionManager(), transactionTemplate);
+        timed.setTimeout(timeoutSeconds);
+        return timed.execute(status -> work.get());
+    }
+
+    /**
+     * Rows a batch of updates or deletes changed. A statement reported as SUCCESS_NO_INFO has an
+     * unknown outcome and is not counted, so it cannot pass for a divergence between the databases.
+     */
+    static int countAffected(int[][] counts) {
+        int affected = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                affected += Math.max(0, Math.min(count, 1));
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Rows a batch of inserts or upserts wrote, for rows already known to be missing or older here.
+     * Drivers that rewrite batched inserts (rewriteBatchedStatements, reWriteBatchedInserts) report
+     * SUCCESS_NO_INFO for every row; such a row counts as written, as the check before the batch expects.
+     */
+    static int countWritten(int[][] counts) {
+        int written = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                written += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, Math.min(count, 1));
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,478 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.entity.UserTombstone;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bidirectional reconciliation of the users table.
+ * <p>
+ * Both databases are read through forward-only cursors sorted by email and merge-joined,
+ * so a pass is linear in the number of rows and keeps only one page per side in memory.
+ * Rows missing on one side are collected and written to the other side in JDBC batches, unless
+ * the other side has a tombstone for them and the {@link ConflictPolicy} lets the delete win, in
+ * which case the delete is applied to this side instead. Emails held by both sides with different
+ * contents are settled by the same policy, batch by batch within the same pass.
+ * <p>
+ * Users must have the same id on both sides. Emails held under different ids (created before ids
+ * were shared, or on both sides while the databases were split) are moved to the id
+ * {@link UserIds#agree} picks. Rows copied without a shared id keep their id if the other side has
+ * no user under it, and only get a shared one, on both sides, if it does. Users that are given a
+ * new id are dropped from the {@link UserCache} under their old one.
+ * <p>
+ * The keyspace is split into {@link EmailPartition}s that are merge-joined in parallel, as many at a
+ * time as there are worker threads and connections in the {@link SyncConnectionBudget}. Each partition
+ * checkpoints its progress in MySQL, so a pass that fails half way resumes where it stopped.
+ */
+@Component
+public class UserReconciliationEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserReconciliationEngine.class);
+
+    static final String CHECKPOINT_PREFIX = "users:reconcile:";
+    // SyncCheckpoint.marker of a partition checkpoint
+    static final long IN_PROGRESS = 0;
+    static final long DONE = 1;
+
+    private final UserJdbcStore mysqlStore;
+    private final UserJdbcStore postgresStore;
+    private final UserCache userCache;
+    private final SyncConnectionBudget connectionBudget;
+    private final ConflictPolicy conflictPolicy;
+    private final SyncBatchStats batchStats;
+    private final ExecutorService partitionExecutor;
+
+    @Value("${sync.page-size:1000}")
+    private int pageSize;
+
+    @Value("${sync.batch-size:500}")
+    private int batchSize;
+
+    @Value("${sync.partition.count:8}")
+    private int partitionCount;
+
+    @Value("${sync.partition.checkpoint-every:10000}")
+    private int checkpointEvery;
+
+    @Value("${sync.conflict.tombstone-retention-ms:604800000}")
+    private long tombstoneRetentionMillis;
+
+    @Autowired
+    public UserReconciliationEngine(@Qualifier("mysqlUserStore") UserJdbcStore mysqlStore,
+                                    @Qualifier("postgresUserStore") UserJdbcStore postgresStore,
+                                    UserCache userCache,
+                                    SyncConnectionBudget connectionBudget,
+                                    Map<String, ConflictPolicy> conflictPolicies,
+                                    @Value("${sync.conflict.policy:last-writer-wins}") String conflictPolicyName,
+                                    @Value("${sync.partition.threads:4}") int threads,
+                                    SyncBatchStats batchStats) {
+        this(mysqlStore, postgresStore, userCache, connectionBudget,
+                conflictPolicy(conflictPolicies, conflictPolicyName), threads, batchStats);
+        logger.info("Resolving sync conflicts with the {} policy", conflictPolicyName);
+    }
+
+    public UserReconciliationEngine(UserJdbcStore mysqlStore,
+                                    UserJdbcStore postgresStore,
+                                    UserCache userCache,
+                                    SyncConnectionBudget connectionBudget,
+                                    ConflictPolicy conflictPolicy,
+                                    int threads,
+                                    SyncBatchStats batchStats) {
+        this.mysqlStore = mysqlStore;
+        this.postgresStore = postgresStore;
+        this.userCache = userCache;
+        this.connectionBudget = connectionBudget;
+        this.conflictPolicy = conflictPolicy;
+        this.batchStats = batchStats;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.partitionExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "sync-partition-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ConflictPolicy conflictPolicy(Map<String, ConflictPolicy> policies, String name) {
+        ConflictPolicy policy = policies.get(name);
+        if (policy == null) {
+            throw new IllegalStateException("Unknown sync.conflict.policy '" + name + "', available: " + policies.keySet());
+        }
+        return policy;
+    }
+
+    @PreDestroy
+    public void stop() {
+        partitionExecutor.shutdownNow();
+    }
+
+    /** Copy every user that exists on only one side to the other side */
+    public ReconciliationResult reconcile() throws SQLException {
+        List<EmailPartition> partitions = EmailPartition.split(partitionCount);
+        Map<String, SyncCheckpoint> progress = mysqlStore.loadCheckpoints(CHECKPOINT_PREFIX);
+
+        List<CompletableFuture<ReconciliationResult>> tasks = new ArrayList<>();
+        for (EmailPartition partition : partitions) {
+            SyncCheckpoint checkpoint = progress.get(checkpointName(partition));
+            if (checkpoint != null && checkpoint.getMarker() == DONE) {
+                continue;
+            }
+            String after = checkpoint == null ? "" : checkpoint.getLastKey();
+            tasks.add(CompletableFuture.supplyAsync(() -> runPartition(partition, after), partitionExecutor));
+        }
+        if (tasks.size() < partitions.size()) {
+            logger.info("Resuming interrupted reconciliation, {} of {} partitions left", tasks.size(), partitions.size());
+        }
+
+        // wait for every partition before failing, the others' progress is checkpointed either way
+        ReconciliationResult total = ReconciliationResult.EMPTY;
+        Throwable failure = null;
+        for (CompletableFuture<ReconciliationResult> task : tasks) {
+            try {
+                total = total.plus(task.join());
+            } catch (CompletionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            }
+        }
+        if (failure instanceof SQLException sqlException) {
+            throw sqlException;
+        } else if (failure != null) {
+            throw new RuntimeException("Reconciliation failed: " + failure.getMessage(), failure);
+        }
+
+        mysqlStore.deleteCheckpoints(CHECKPOINT_PREFIX);
+        purgeTombstones();
+        return total;
+    }
+
+    private void purgeTombstones() {
+        long cutoff = ChangeMarkers.nowMicros() - tombstoneRetentionMillis * 1_000;
+        int purged = mysqlStore.purgeTombstones(cutoff) + postgresStore.purgeTombstones(cutoff);
+        if (purged > 0) {
+            logger.info("Purged {} expired user tombstones", purged);
+        }
+    }
+
+    private static String checkpointName(EmailPartition partition) {
+        return CHECKPOINT_PREFIX + partition.name();
+    }
+
+    private ReconciliationResult runPartition(EmailPartition partition, String after) {
+        try {
+            connectionBudget.acquirePartition();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        try {
+            return reconcile(partition, after);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        } finally {
+            connectionBudget.releasePartition();
+        }
+    }
+
+    /** Merge-join one partition, starting after the given email */
+    private ReconciliationResult reconcile(EmailPartition partition, String after) throws SQLException {
+        BatchWriter toPostgres = new BatchWriter(postgresStore, mysqlStore, false);
+        BatchWriter toMysql = new BatchWriter(mysqlStore, postgresStore, true);
+        ConflictWriter conflicts = new ConflictWriter();
+        String checkpointName = checkpointName(partition);
+
+        try (RowCursor<UserRow> mysql = mysqlStore.openEmailCursor(pageSize, partition, after);
+             RowCursor<UserRow> postgres = postgresStore.openEmailCursor(pageSize, partition, after)) {
+
+            String lastEmail = after;
+            int sinceCheckpoint = 0;
+            while (mysql.current() != null || postgres.current() != null) {
+                int cmp = compare(mysql.current(), postgres.current());
+                if (cmp == 0) {
+                    lastEmail = mysql.current().email();
+                    if (!sameVersion(mysql.current(), postgres.current())
+                            || !Objects.equals(mysql.current().id(), postgres.current().id())) {
+                        conflicts.add(mysql.current(), postgres.current());
+                    }
+                    mysql.advance();
+                    postgres.advance();
+                } else if (cmp < 0) {
+                    lastEmail = mysql.current().email();
+                    toPostgres.add(mysql.current());
+                    mysql.advance();
+                } else {
+                    lastEmail = postgres.current().email();
+                    toMysql.add(postgres.current());
+                    postgres.advance();
+                }
+
+                if (++sinceCheckpoint >= checkpointEvery) {
+                    // everything up to lastEmail must be written before the checkpoint may move past it
+                    toPostgres.flush();
+                    toMysql.flush();
+                    conflicts.flush();
+                    mysqlStore.saveCheckpoint(new SyncCheckpoint(checkpointName, IN_PROGRESS, lastEmail));
+                    sinceCheckpoint = 0;
+                }
+            }
+            toPostgres.flush();
+            toMysql.flush();
+            conflicts.flush();
+            mysqlStore.saveCheckpoint(new SyncCheckpoint(checkpointName, DONE, lastEmail));
+
+            return new ReconciliationResult(mysql.scanned(), postgres.scanned(),
+                    toPostgres.inserted, toMysql.inserted, toPostgres.failed + toMysql.failed + conflicts.failed,
+                    conflicts.resolved, toPostgres.deleted + toMysql.deleted);
+        }
+    }
+
+    private static boolean sameVersion(UserRow a, UserRow b) {
+        return Objects.equals(a.name(), b.name()) && Objects.equals(a.modifiedAt(), b.modifiedAt());
+    }
+
+    /** Order rows by email; an exhausted cursor (null) sorts after everything */
+    private static int compare(UserRow a, UserRow b) {
+        if (a == null) {
+            return 1;
+        }
+        if (b == null) {
+            return -1;
+        }
+        return compareCodePoints(a.email(), b.email());
+    }
+
+    /**
+     * Compare strings by Unicode code point, which is the order both databases
+     * produce for {@link SqlDialect#binaryOrder(String)} on UTF-8 columns.
+     */
+    static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        if (i < a.length()) {
+            return 1;
+        }
+        return j < b.length() ? -1 : 0;
+    }
+
+    /**
+     * Buffers rows missing on one target database and writes them in batches.
+     * Rows the target has a tombstone for are handed to the conflict policy first, and
+     * deleted from the source instead of copied if the delete wins.
+     */
+    private class BatchWriter {
+
+        private final UserJdbcStore target;
+        private final UserJdbcStore source;
+        private final boolean targetIsMysql;
+        private final List<UserRow> buffer = new ArrayList<>();
+        private long inserted;
+        private long deleted;
+        private long failed;
+
+        BatchWriter(UserJdbcStore target, UserJdbcStore source, boolean targetIsMysql) {
+            this.target = target;
+            this.source = source;
+            this.targetIsMysql = targetIsMysql;
+        }
+
+        void add(UserRow row) {
+            buffer.add(row);
+            if (buffer.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            List<String> emails = buffer.stream().map(UserRow::email).toList();
+            List<UserRow> copies = buffer;
+            try {
+                Map<String, Long> tombstones = target.findTombstones(emails);
+                if (!tombstones.isEmpty()) {
+                    copies = resolveDeletes(tombstones);
+                }
+            } catch (RuntimeException e) {
+                failed += buffer.size();
+                logger.warn("Checking deletes on {} failed: {}", target.getName(), e.getMessage());
+                buffer.clear();
+                return;
+            }
+
+            if (!copies.isEmpty()) {
+                try {
+                    copies = withFreeIds(copies);
+                    inserted += target.insertMissingWithIds(copies);
+                    logger.info("Synced {} users to {}", copies.size(), target.getName());
+                } catch (RuntimeException batchException) {
+                    logger.warn("Batch sync to {} failed, retrying row by row: {}",
+                            target.getName(), batchException.getMessage());
+                    insertOneByOne(copies);
+                }
+            }
+            batchStats.record(System.nanoTime() - start);
+            userCache.invalidateEmails(emails);
+            buffer.clear();
+        }
+
+        /** Apply the deletes that win to the source; returns the rows still to be copied */
+        private List<UserRow> resolveDeletes(Map<String, Long> tombstones) {
+            List<UserRow> copies = new ArrayList<>();
+            List<String> restored = new ArrayList<>();
+            List<UserTombstone> deletes = new ArrayList<>();
+            for (UserRow row : buffer) {
+                Long deletedAt = tombstones.get(row.email());
+                if (deletedAt == null) {
+                    copies.add(row);
+                } else if (conflictPolicy.deleteWins(new UserTombstone(row.email(), deletedAt), row, targetIsMysql)) {
+                    deletes.add(new UserTombstone(row.email(), deletedAt));
+                } else {
+                    copies.add(row);
+                    restored.add(row.email());
+                }
+            }
+            if (!deletes.isEmpty()) {
+                deleted += source.applyDeletes(deletes);
+                logger.info("Deleted {} users from {} that were deleted on {}",
+                        deletes.size(), source.getName(), target.getName());
+            }
+            if (!restored.isEmpty()) {
+                target.deleteTombstones(restored);
+            }
+            return copies;
+        }
+
+        /**
+         * Make sure every copy can keep its id on the target. Shared ids and ids of the source's own
+         * auto-increment that the target does not use travel as they are; a row whose legacy id the target
+         * holds for another user gets a shared id, on the source first. A row changed since it was read
+         * keeps its id there until the next pass.
+         */
+        private List<UserRow> withFreeIds(List<UserRow> rows) {
+            Set<Long> taken = target.findTakenIds(rows.stream()
+                    .map(UserRow::id)
+                    .filter(id -> !UserIds.isShared(id))
+                    .toList());
+            List<UserRow> copies = new ArrayList<>(rows.size());
+            List<RowOverwrite> reassigned = new ArrayList<>();
+            for (UserRow row : rows) {
+                if (!taken.contains(row.id())) {
+                    copies.add(row);
+                } else {
+                    UserRow shared = row.withId(UserIds.next());
+                    copies.add(shared);
+                    reassigned.add(new RowOverwrite(shared, row.modifiedAt()));
+                }
+            }
+            if (!reassigned.isEmpty()) {
+                source.overwriteIfUnchanged(reassigned);
+                rows.stream().filter(row -> taken.contains(row.id())).forEach(row -> userCache.invalidateId(row.id()));
+            }
+            return copies;
+        }
+
+        private void insertOneByOne(List<UserRow> rows) {
+            for (UserRow row : rows) {
+                try {
+                    if (target.insertMissingWithIds(List.of(row)) != 0) {
+                        inserted++;
+                    }
+                } catch (RuntimeException e) {
+                    failed++;
+                    logger.warn("Failed to sync user {} to {}: {}", row.email(), target.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Buffers users both databases hold with different contents or ids and settles them in batches */
+    private class ConflictWriter {
+
+        private final List<UserRow> mysqlRows = new ArrayList<>();
+        private final List<UserRow> postgresRows = new ArrayList<>();
+        private long resolved;
+        private long failed;
+
+        void add(UserRow mysql, UserRow postgres) {
+            mysqlRows.add(mysql);
+            postgresRows.add(postgres);
+            if (mysqlRows.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (mysqlRows.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            List<RowOverwrite> toMysql = new ArrayList<>();
+            List<RowOverwrite> toPostgres = new ArrayList<>();
+            // ids a user was known by before it was moved to the agreed one
+            List<Long> renumbered = new ArrayList<>();
+            for (int i = 0; i < mysqlRows.size(); i++) {
+                UserRow mysql = mysqlRows.get(i);
+                UserRow postgres = postgresRows.get(i);
+                UserRow winner = conflictPolicy.resolve(mysql, postgres).withId(UserIds.agree(mysql.id(), postgres.id()));
+                if (!sameVersion(winner, mysql) || !winner.id().equals(mysql.id())) {
+                    toMysql.add(new RowOverwrite(winner, mysql.modifiedAt()));
+                }
+                if (!sameVersion(winner, postgres) || !winner.id().equals(postgres.id())) {
+                    toPostgres.add(new RowOverwrite(winner, postgres.modifiedAt()));
+                }
+                for (UserRow row : List.of(mysql, postgres)) {
+                    if (!winner.id().equals(row.id())) {
+                        renumbered.add(row.id());
+                    }
+                }
+            }
+            try {
+                // rows changed since they were read are skipped; the next pass looks at them again
+                if (!toMysql.isEmpty()) {
+                    mysqlStore.overwriteIfUnchanged(toMysql);
+                }
+                if (!toPostgres.isEmpty()) {
+                    postgresStore.overwriteIfUnchanged(toPostgres);
+                }
+                resolved += mysqlRows.size();
+                logger.info("Resolved {} conflicting users", mysqlRows.size());
+            } catch (RuntimeException e) {
+                failed += mysqlRows.size();
+                logger.warn("Resolving {} conflicting users failed: {}", mysqlRows.size(), e.getMessage());
+            }
+            batchStats.record(System.nanoTime() - start);
+            userCache.invalidateEmails(mysqlRows.stream().map(UserRow::email).toList());
+            renumbered.forEach(userCache::invalidateId);
+            mysqlRows.clear();
+            postgresRows.clear();
+        }
+    }
+}
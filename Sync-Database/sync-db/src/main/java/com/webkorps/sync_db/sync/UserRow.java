@@ -0,0 +1,11 @@
+package com.webkorps.sync_db.sync;
+
+/**
+ * Lightweight, detached copy of a users row as seen by the sync engine.
+ */
+public record UserRow(Long id, String name, String email, Long modifiedAt) {
+
+    public UserRow withId(Long newId) {
+        return new UserRow(newId, name, email, modifiedAt);
+    }
+}
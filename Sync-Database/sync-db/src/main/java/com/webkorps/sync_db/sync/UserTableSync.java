@@ -0,0 +1,46 @@
+package com.webkorps.sync_db.sync;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The users table as seen by the {@link TableSyncCoordinator}. Users keep their dedicated engines,
+ * which also handle shared ids, tombstones and the user cache. While change data capture streams
+ * changes between the databases, polling for changes is left out and only the backstop runs.
+ */
+@Component
+public class UserTableSync implements SyncedTable {
+
+    private final UserReconciliationEngine reconciliationEngine;
+    private final IncrementalSyncEngine incrementalSyncEngine;
+    private final boolean changeDataCapture;
+
+    public UserTableSync(UserReconciliationEngine reconciliationEngine,
+                         IncrementalSyncEngine incrementalSyncEngine,
+                         @Value("${sync.cdc.enabled:false}") boolean changeDataCapture) {
+        this.reconciliationEngine = reconciliationEngine;
+        this.incrementalSyncEngine = incrementalSyncEngine;
+        this.changeDataCapture = changeDataCapture;
+    }
+
+    @Override
+    public String name() {
+        return UserJdbcStore.TABLE;
+    }
+
+    @Override
+    public List<String> dependsOn() {
+        return List.of();
+    }
+
+    @Override
+    public ReconciliationResult sync(boolean full) throws SQLException {
+        if (full) {
+            return reconciliationEngine.reconcile();
+        }
+        return changeDataCapture ? incrementalSyncEngine.backstop() : incrementalSyncEngine.sync();
+    }
+}
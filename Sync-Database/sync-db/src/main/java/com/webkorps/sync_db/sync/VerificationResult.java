@@ -0,0 +1,29 @@
+package com.webkorps.sync_db.sync;
+
+import java.util.List;
+
+/**
+ * Outcome of one checksum comparison of the users tables.
+ *
+ * @param mysqlRows         users in MySQL
+ * @param postgresRows      users in PostgreSQL
+ * @param bucketsCompared   bucket checksums compared at all levels
+ * @param rowsFetched       rows actually read into the service, from both databases
+ * @param missingInMysql    emails only PostgreSQL has
+ * @param missingInPostgres emails only MySQL has
+ * @param differing         emails both have, with different id, name or change marker
+ * @param sampleEmails      some of the divergent emails, for a closer look
+ */
+public record VerificationResult(long mysqlRows,
+                                 long postgresRows,
+                                 long bucketsCompared,
+                                 long rowsFetched,
+                                 long missingInMysql,
+                                 long missingInPostgres,
+                                 long differing,
+                                 List<String> sampleEmails) {
+
+    public boolean consistent() {
+        return missingInMysql == 0 && missingInPostgres == 0 && differing == 0;
+    }
+}
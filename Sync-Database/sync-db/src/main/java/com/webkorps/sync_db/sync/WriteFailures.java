@@ -0,0 +1,26 @@
+package com.webkorps.sync_db.sync;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.TransactionException;
+
+/**
+ * Tells apart writes a database refused from writes that just did not reach it.
+ */
+public final class WriteFailures {
+
+    private WriteFailures() {
+    }
+
+    /**
+     * True if the target refused the write itself, e.g. for a constraint it violates. An unreachable
+     * or timed out target says nothing about the write, however often it happens.
+     */
+    public static boolean rejectedByTarget(RuntimeException cause) {
+        return !(cause instanceof DataAccessResourceFailureException
+                || cause instanceof TransientDataAccessException
+                || cause instanceof RecoverableDataAccessException
+                || cause instanceof TransactionException);
+    }
+}
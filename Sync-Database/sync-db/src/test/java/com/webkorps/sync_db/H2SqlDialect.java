@@ -0,0 +1,67 @@
+package com.webkorps.sync_db;
+
+import com.webkorps.sync_db.sync.SqlDialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Dialect of the {@link TestDatabases}, in either compatibility mode. H2 knows neither of the
+ * server conflict clauses, so both statements are standard MERGE: tests on H2 exercise the sync
+ * logic, not the MySQL or PostgreSQL statements of {@link com.webkorps.sync_db.sync.DatabaseDialect}.
+ */
+public final class H2SqlDialect implements SqlDialect {
+
+	public static final H2SqlDialect INSTANCE = new H2SqlDialect();
+
+	private H2SqlDialect() {
+	}
+
+	@Override
+	public String binaryOrder(String column) {
+		// H2 compares strings by UTF-16 code unit, which only differs from code point order
+		// for supplementary characters against U+E000..U+FFFF
+		return column;
+	}
+
+	@Override
+	public String hashToLong(String expression) {
+		return "URSHIFT(CAST(SUBSTRING(HASH('MD5', " + expression + "), 1, 8) AS BIGINT), 4)";
+	}
+
+	@Override
+	public String insertIgnore(String table, String keyColumn, List<String> columns) {
+		return merge(table, keyColumn, columns) + " WHEN NOT MATCHED THEN " + mergeInsert(columns);
+	}
+
+	@Override
+	public String upsert(String table, String keyColumn, List<String> columns, List<String> updateColumns,
+						 String versionColumn) {
+		String assignments = updateColumns.stream()
+				.map(column -> column + " = s." + column)
+				.collect(Collectors.joining(", "));
+		String condition = versionColumn == null ? ""
+				: " AND (" + table + "." + versionColumn + " IS NULL OR " + table + "." + versionColumn
+						+ " < s." + versionColumn + ")";
+		return merge(table, keyColumn, columns) + " WHEN MATCHED" + condition + " THEN UPDATE SET " + assignments
+				+ " WHEN NOT MATCHED THEN " + mergeInsert(columns);
+	}
+
+	@Override
+	public void prepareCursor(Connection conn, PreparedStatement statement, int pageSize) throws SQLException {
+		statement.setFetchSize(pageSize);
+	}
+
+	private static String merge(String table, String keyColumn, List<String> columns) {
+		return "MERGE INTO " + table + " USING (VALUES (" + SqlDialect.placeholders(columns) + ")) AS s ("
+				+ String.join(", ", columns) + ") ON " + table + "." + keyColumn + " = s." + keyColumn;
+	}
+
+	private static String mergeInsert(List<String> columns) {
+		return "INSERT (" + String.join(", ", columns) + ") VALUES ("
+				+ columns.stream().map(column -> "s." + column).collect(Collectors.joining(", ")) + ")";
+	}
+}
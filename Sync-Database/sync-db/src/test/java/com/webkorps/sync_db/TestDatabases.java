@@ -0,0 +1,80 @@
+package com.webkorps.sync_db;
+
+import jakarta.persistence.Entity;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.tool.schema.internal.SchemaCreatorImpl;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * In-memory H2 databases standing in for MySQL and PostgreSQL, with the schema Hibernate
+ * creates from the entities, so tests run against the same tables, keys and indexes as the application.
+ * H2 has no md5 function for the generated email hash, so it gets one, and it computes generated
+ * columns on every write without being told to store them.
+ */
+public final class TestDatabases {
+
+	private static final String ENTITY_PACKAGE = "com.webkorps.sync_db.entity";
+
+	private static final List<String> SCHEMA = entitySchema();
+
+	private TestDatabases() {
+	}
+
+	/** Fresh database in the given compatibility mode ("MySQL" or "PostgreSQL") holding the entity tables */
+	public static SingleConnectionDataSource h2(String mode) {
+		SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=" + mode + ";DATABASE_TO_LOWER=TRUE", "sa", "", true);
+		createSchema(new JdbcTemplate(dataSource));
+		return dataSource;
+	}
+
+	/** Create the entity tables in an existing database */
+	public static void createSchema(JdbcTemplate jdbcTemplate) {
+		jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS md5 DETERMINISTIC FOR '" + TestDatabases.class.getName() + ".md5'");
+		SCHEMA.forEach(jdbcTemplate::execute);
+	}
+
+	/** MD5 of the UTF-8 bytes as 32 lowercase hex digits, as MySQL and PostgreSQL compute it */
+	public static String md5(String value) throws NoSuchAlgorithmException {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static List<String> entitySchema() {
+		StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+				.applySetting(AvailableSettings.DIALECT, H2Dialect.class.getName())
+				.applySetting(AvailableSettings.ALLOW_METADATA_ON_BOOT, false)
+				.applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY, CamelCaseToUnderscoresNamingStrategy.class.getName())
+				.build();
+		try {
+			MetadataSources sources = new MetadataSources(registry);
+			ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+			scanner.addIncludeFilter(new AnnotationTypeFilter(Entity.class));
+			for (BeanDefinition entity : scanner.findCandidateComponents(ENTITY_PACKAGE)) {
+				sources.addAnnotatedClassName(entity.getBeanClassName());
+			}
+			Metadata metadata = sources.buildMetadata();
+			return new SchemaCreatorImpl(registry).generateCreationCommands(metadata, false).stream()
+					.map(command -> command.replace(" generated always as (md5(email)) stored", " generated always as (md5(email))"))
+					.toList();
+		} finally {
+			StandardServiceRegistryBuilder.destroy(registry);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.webkorps.sync_db.cache;
+
+import com.webkorps.sync_db.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserCacheTests {
+
+	@Test
+	void servesFreshEntriesByIdAndEmail() {
+		UserCache cache = new UserCache(100, 60_000, 600_000);
+		cache.put(new User(1L, "Ann", "ann@example.com", 10L));
+
+		assertThat(cache.getFreshById(1L)).map(User::getName).contains("Ann");
+		assertThat(cache.getFreshByEmail("ann@example.com")).map(User::getId).contains(1L);
+		assertThat(cache.getFreshById(2L)).isEmpty();
+		assertThat(cache.stats().hitCount()).isEqualTo(2);
+		assertThat(cache.stats().missCount()).isEqualTo(1);
+	}
+
+	@Test
+	void expiredEntriesAreOnlyServedAsStale() {
+		UserCache cache = new UserCache(100, 0, 600_000);
+		cache.put(new User(1L, "Ann", "ann@example.com", 10L));
+
+		assertThat(cache.getFreshById(1L)).isEmpty();
+		assertThat(cache.getStaleById(1L)).map(User::getName).contains("Ann");
+	}
+
+	@Test
+	void invalidatingAnEmailAlsoForgetsTheIdLookup() {
+		UserCache cache = new UserCache(100, 60_000, 600_000);
+		cache.put(new User(1L, "Ann", "ann@example.com", 10L));
+
+		cache.invalidateEmails(List.of("ann@example.com"));
+
+		assertThat(cache.getFreshById(1L)).isEmpty();
+		assertThat(cache.getStaleById(1L)).isEmpty();
+	}
+
+	@Test
+	void changedEmailDropsTheOldEntryAndCallersGetCopies() {
+		UserCache cache = new UserCache(100, 60_000, 600_000);
+		cache.put(new User(1L, "Ann", "ann@example.com", 10L));
+		cache.put(new User(1L, "Ann", "ann@example.org", 11L));
+
+		assertThat(cache.getStaleByEmail("ann@example.com")).isEmpty();
+		User user = cache.getFreshById(1L).orElseThrow();
+		assertThat(user.getEmail()).isEqualTo("ann@example.org");
+
+		user.setName("Changed");
+		assertThat(cache.getFreshById(1L)).map(User::getName).contains("Ann");
+	}
+}
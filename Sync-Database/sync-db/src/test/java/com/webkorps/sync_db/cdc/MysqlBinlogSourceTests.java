@@ -0,0 +1,178 @@
+package com.webkorps.sync_db.cdc;
+
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventMetadata;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.XidEventData;
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Feeds recorded binlog events, as the client deserializes them, into the source and checks what
+ * lands in an H2 stand-in for PostgreSQL.
+ */
+class MysqlBinlogSourceTests {
+
+	private SingleConnectionDataSource postgres;
+	private JdbcTemplate jdbc;
+	private UserJdbcStore postgresStore;
+	private MysqlBinlogSource source;
+	private long position = 4;
+
+	@BeforeEach
+	void setUp() {
+		postgres = TestDatabases.h2("PostgreSQL");
+		jdbc = new JdbcTemplate(postgres);
+		postgresStore = new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres);
+
+		ChangeApplier applier = new ChangeApplier(postgresStore, new UserCache(100, 1000, 1000),
+				new SimpleMeterRegistry(), "mysql");
+		// tombstones are looked up, users carry their column names in the table map
+		source = new MysqlBinlogSource(applier, mock(DatabaseHealthMonitor.class),
+				(schema, table) -> List.of("email", "deleted_at"),
+				URI.create("mysql://localhost:3306/link"), "sync", "secret", 54001);
+	}
+
+	@AfterEach
+	void tearDown() {
+		postgres.destroy();
+	}
+
+	@Test
+	void appliesCommittedTransactionsAndStoresThePosition() {
+		rotate("binlog.000042");
+		tableMap(101, "link", "users", List.of("id", "name", "email", "modified_at"));
+		tableMap(102, "other_schema", "users", List.of("id", "name", "email", "modified_at"));
+		insert(101, 7L, "Ann", "ann@x", 100L);
+		insert(102, 8L, "Not ours", "other@x", 100L);
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isZero();
+
+		commit();
+		assertThat(jdbc.queryForList("SELECT email FROM users", String.class)).containsExactly("ann@x");
+		SyncCheckpoint checkpoint = postgresStore.loadCheckpoint(MysqlBinlogSource.STREAM);
+		assertThat(checkpoint.getLastKey()).isEqualTo("binlog.000042");
+		assertThat(checkpoint.getMarker()).isEqualTo(position);
+
+		// an update carrying an older marker, e.g. the echo of a change PostgreSQL already has, is ignored
+		jdbc.update("UPDATE users SET name = 'Ann B', modified_at = 200 WHERE email = 'ann@x'");
+		tableMap(101, "link", "users", List.of("id", "name", "email", "modified_at"));
+		update(101, new Serializable[]{7L, bytes("Ann"), bytes("ann@x"), 100L},
+				new Serializable[]{7L, bytes("Ann A"), bytes("ann@x"), 150L});
+		commit();
+		assertThat(jdbc.queryForObject("SELECT name FROM users WHERE email = 'ann@x'", String.class)).isEqualTo("Ann B");
+	}
+
+	@Test
+	void replayingAfterReconnectIsHarmlessAndTombstonesDelete() {
+		tableMap(101, "link", "users", List.of("id", "name", "email", "modified_at"));
+		insert(101, 7L, "Ann", "ann@x", 100L);
+		commit();
+
+		// reconnecting from an older position delivers the same transaction again
+		source.reset("binlog.000042");
+		tableMap(101, "link", "users", List.of("id", "name", "email", "modified_at"));
+		insert(101, 7L, "Ann", "ann@x", 100L);
+		commit();
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isEqualTo(1);
+
+		tableMap(103, "link", "user_tombstone", List.of());
+		WriteRowsEventData tombstone = new WriteRowsEventData();
+		tombstone.setTableId(103);
+		tombstone.setIncludedColumns(columns(2));
+		tombstone.setRows(List.<Serializable[]>of(new Serializable[]{bytes("ann@x"), 300L}));
+		event(EventType.EXT_WRITE_ROWS, tombstone);
+		commit();
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isZero();
+	}
+
+	private void rotate(String file) {
+		RotateEventData data = new RotateEventData();
+		data.setBinlogFilename(file);
+		data.setBinlogPosition(4);
+		event(EventType.ROTATE, data);
+	}
+
+	private void tableMap(long tableId, String database, String table, List<String> columnNames) {
+		TableMapEventData data = new TableMapEventData();
+		data.setTableId(tableId);
+		data.setDatabase(database);
+		data.setTable(table);
+		if (!columnNames.isEmpty()) {
+			TableMapEventMetadata metadata = new TableMapEventMetadata();
+			metadata.setColumnNames(columnNames);
+			data.setEventMetadata(metadata);
+		}
+		event(EventType.TABLE_MAP, data);
+	}
+
+	private void insert(long tableId, long id, String name, String email, long modifiedAt) {
+		WriteRowsEventData data = new WriteRowsEventData();
+		data.setTableId(tableId);
+		data.setIncludedColumns(columns(4));
+		data.setRows(List.<Serializable[]>of(new Serializable[]{id, bytes(name), bytes(email), modifiedAt}));
+		event(EventType.EXT_WRITE_ROWS, data);
+	}
+
+	private void update(long tableId, Serializable[] before, Serializable[] after) {
+		UpdateRowsEventData data = new UpdateRowsEventData();
+		data.setTableId(tableId);
+		data.setIncludedColumnsBeforeUpdate(columns(4));
+		data.setIncludedColumns(columns(4));
+		List<java.util.Map.Entry<Serializable[], Serializable[]>> rows = new ArrayList<>();
+		rows.add(new AbstractMap.SimpleEntry<>(before, after));
+		data.setRows(rows);
+		event(EventType.EXT_UPDATE_ROWS, data);
+	}
+
+	private void commit() {
+		XidEventData data = new XidEventData();
+		data.setXid(position);
+		event(EventType.XID, data);
+	}
+
+	private void event(EventType type, EventData data) {
+		position += 100;
+		EventHeaderV4 header = new EventHeaderV4();
+		header.setEventType(type);
+		header.setTimestamp(System.currentTimeMillis());
+		header.setNextPosition(position);
+		source.onEvent(new Event(header, data));
+	}
+
+	private static BitSet columns(int count) {
+		BitSet included = new BitSet();
+		included.set(0, count);
+		return included;
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,137 @@
+package com.webkorps.sync_db.cdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Decodes a pgoutput stream laid out as PostgreSQL sends it for one transaction inserting a user,
+ * updating it, deleting another one and writing a tombstone.
+ */
+class PgOutputDecoderTests {
+
+	// commit timestamps are microseconds since 2000-01-01
+	private static final long COMMIT_MICROS = 815_443_200_000_000L;
+
+	@Test
+	void decodesATransaction() throws IOException {
+		PgOutputDecoder decoder = new PgOutputDecoder();
+
+		assertThat(decoder.decode(begin())).isNull();
+		assertThat(decoder.decode(relation(16384, "users", "id", "name", "email", "modified_at"))).isNull();
+		assertThat(decoder.decode(relation(16390, "user_tombstone", "email", "deleted_at"))).isNull();
+		assertThat(decoder.decode(change('I', 16384, null, "7", "Ann", "ann@x", "100"))).isNull();
+		assertThat(decoder.decode(change('U', 16384, new String[]{"7", "Ann", "ann@x", "100"}, "7", "Ann B", "ann@x", null)))
+				.isNull();
+		assertThat(decoder.decode(change('D', 16384, null, "8", null, "bob@x", null))).isNull();
+		assertThat(decoder.decode(change('I', 16390, null, "bob@x", "300"))).isNull();
+
+		PgOutputDecoder.Transaction transaction = decoder.decode(commit(0x16B3748L));
+
+		assertThat(transaction.endLsn()).isEqualTo(0x16B3748L);
+		assertThat(transaction.committedAt()).isEqualTo(Instant.parse("2025-11-03T00:00:00Z"));
+		assertThat(transaction.events()).extracting(ChangeEvent::table, ChangeEvent::kind).containsExactly(
+				tuple("users", ChangeEvent.Kind.UPSERT),
+				tuple("users", ChangeEvent.Kind.UPSERT),
+				tuple("users", ChangeEvent.Kind.DELETE),
+				tuple("user_tombstone", ChangeEvent.Kind.UPSERT));
+		assertThat(transaction.events().get(0).values())
+				.containsExactly(Map.entry("id", "7"), Map.entry("name", "Ann"), Map.entry("email", "ann@x"),
+						Map.entry("modified_at", "100"));
+		assertThat(transaction.events().get(1).values()).containsEntry("name", "Ann B").containsEntry("modified_at", null);
+		assertThat(transaction.events().get(3).values()).containsEntry("email", "bob@x").containsEntry("deleted_at", "300");
+
+		// the relations stay known for the next transaction on the same stream
+		decoder.decode(begin());
+		decoder.decode(change('I', 16384, null, "9", "Cy", "cy@x", "400"));
+		assertThat(decoder.decode(commit(0x16B3800L)).events()).hasSize(1);
+	}
+
+	private static ByteBuffer begin() throws IOException {
+		return message(out -> {
+			out.writeByte('B');
+			out.writeLong(0x16B3740L);
+			out.writeLong(COMMIT_MICROS);
+			out.writeInt(731);
+		});
+	}
+
+	private static ByteBuffer relation(int id, String table, String... columns) throws IOException {
+		return message(out -> {
+			out.writeByte('R');
+			out.writeInt(id);
+			string(out, "public");
+			string(out, table);
+			out.writeByte('d');
+			out.writeShort(columns.length);
+			for (String column : columns) {
+				out.writeByte(0);
+				string(out, column);
+				out.writeInt(25);
+				out.writeInt(-1);
+			}
+		});
+	}
+
+	private static ByteBuffer change(char type, int relation, String[] oldValues, String... values) throws IOException {
+		return message(out -> {
+			out.writeByte(type);
+			out.writeInt(relation);
+			if (oldValues != null) {
+				out.writeByte('O');
+				writeTuple(out, oldValues);
+			}
+			out.writeByte(type == 'D' ? 'K' : 'N');
+			writeTuple(out, values);
+		});
+	}
+
+	private static ByteBuffer commit(long endLsn) throws IOException {
+		return message(out -> {
+			out.writeByte('C');
+			out.writeByte(0);
+			out.writeLong(endLsn - 8);
+			out.writeLong(endLsn);
+			out.writeLong(COMMIT_MICROS);
+		});
+	}
+
+	private static void writeTuple(DataOutputStream out, String[] values) throws IOException {
+		out.writeShort(values.length);
+		for (String value : Arrays.asList(values)) {
+			if (value == null) {
+				out.writeByte('n');
+			} else {
+				byte[] text = value.getBytes(StandardCharsets.UTF_8);
+				out.writeByte('t');
+				out.writeInt(text.length);
+				out.write(text);
+			}
+		}
+	}
+
+	private static void string(DataOutputStream out, String value) throws IOException {
+		out.write(value.getBytes(StandardCharsets.UTF_8));
+		out.writeByte(0);
+	}
+
+	private interface Writer {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private static ByteBuffer message(Writer writer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writer.write(new DataOutputStream(bytes));
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+}
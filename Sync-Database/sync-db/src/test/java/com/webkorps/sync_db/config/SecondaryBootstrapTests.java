@@ -0,0 +1,37 @@
+package com.webkorps.sync_db.config;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecondaryBootstrapTests {
+
+	@Test
+	void buildsTheFactoryOnceTheDatabaseAcceptsConnections() throws Exception {
+		DataSource dataSource = mock(DataSource.class);
+		when(dataSource.getConnection())
+				.thenThrow(new SQLException("connection refused"))
+				.thenThrow(new SQLException("connection refused"))
+				.thenReturn(mock(Connection.class));
+		SecondaryBootstrap bootstrap = new SecondaryBootstrap(dataSource, true, 10);
+		assertThat(bootstrap.isReady()).isFalse();
+
+		Future<String> factory = bootstrap.submit(() -> "factory");
+
+		assertThat(factory.get(5, TimeUnit.SECONDS)).isEqualTo("factory");
+		assertThat(bootstrap.isReady()).isTrue();
+		verify(dataSource, times(3)).getConnection();
+		// eager mode builds during startup, so there is nothing to wait for
+		assertThat(new SecondaryBootstrap(dataSource, false, 10).isReady()).isTrue();
+	}
+}
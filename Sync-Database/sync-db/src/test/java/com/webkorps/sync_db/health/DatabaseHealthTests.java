@@ -0,0 +1,75 @@
+package com.webkorps.sync_db.health;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DatabaseHealthTests {
+
+	private final DataSource dataSource = mock(DataSource.class);
+	private final Connection connection = mock(Connection.class);
+
+	@Test
+	void opensAfterFailureThresholdAndClosesAfterSuccessfulHalfOpenProbes() throws Exception {
+		DatabaseHealth health = new DatabaseHealth("test", dataSource, 1, 2, 2, 0);
+
+		doThrow(new SQLException("down")).when(dataSource).getConnection();
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.CLOSED);
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.OPEN);
+		assertThat(health.isAvailable()).isFalse();
+		assertThat(health.snapshot().lastError()).isEqualTo("down");
+
+		doReturn(connection).when(dataSource).getConnection();
+		when(connection.isValid(anyInt())).thenReturn(true);
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.HALF_OPEN);
+		assertThat(health.isAvailable()).isFalse();
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.CLOSED);
+		assertThat(health.isAvailable()).isTrue();
+	}
+
+	@Test
+	void failedHalfOpenProbeReopensImmediately() throws Exception {
+		DatabaseHealth health = new DatabaseHealth("test", dataSource, 1, 1, 3, 0);
+
+		doThrow(new SQLException("down")).when(dataSource).getConnection();
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.OPEN);
+
+		doReturn(connection).when(dataSource).getConnection();
+		when(connection.isValid(anyInt())).thenReturn(true);
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.HALF_OPEN);
+
+		when(connection.isValid(anyInt())).thenReturn(false);
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.OPEN);
+	}
+
+	@Test
+	void openCircuitSkipsProbesUntilOpenDurationElapsed() throws Exception {
+		DatabaseHealth health = new DatabaseHealth("test", dataSource, 1, 1, 1, 60_000);
+
+		doThrow(new SQLException("down")).when(dataSource).getConnection();
+		health.probe();
+		long checkedAt = health.snapshot().lastCheckedAtMillis();
+
+		doReturn(connection).when(dataSource).getConnection();
+		when(connection.isValid(anyInt())).thenReturn(true);
+		health.probe();
+		assertThat(health.snapshot().state()).isEqualTo(CircuitState.OPEN);
+		assertThat(health.snapshot().lastCheckedAtMillis()).isEqualTo(checkedAt);
+	}
+}
@@ -0,0 +1,142 @@
+package com.webkorps.sync_db.journal;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.sync.UserIds;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JournalReplayerTests {
+
+	@TempDir
+	Path directory;
+
+	private final DatabaseHealthMonitor healthMonitor = mock(DatabaseHealthMonitor.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private SingleConnectionDataSource mysql;
+	private WriteJournal journal;
+	private JournalReplayer replayer;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		mysql = TestDatabases.h2("MySQL");
+		UserJdbcStore mysqlStore = new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql);
+		UserJdbcStore postgresStore = mock(UserJdbcStore.class);
+
+		journal = new WriteJournal(directory, 4096);
+		replayer = new JournalReplayer(journal, mysqlStore, postgresStore, healthMonitor,
+				new UserCache(100, 1000, 1000), meterRegistry);
+		ReflectionTestUtils.setField(replayer, "batchSize", 2);
+		ReflectionTestUtils.setField(replayer, "maxAttempts", 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		journal.close();
+		mysql.destroy();
+	}
+
+	@Test
+	void replaysInOrderOnceADatabaseIsBack() {
+		new JdbcTemplate(mysql).update("INSERT INTO users (id, name, email, modified_at) VALUES (7, 'Taken', 'taken@x', 1)");
+		long ann = UserIds.next();
+		long bob = UserIds.next();
+		journal.append(new UserRow(ann, "Ann", "ann@x", 10L));
+		journal.append(new UserRow(UserIds.next(), "Someone else", "taken@x", 11L));
+		journal.append(new UserRow(bob, "Bob", "bob@x", 12L));
+
+		replayer.replay();
+		assertThat(journal.backlog()).isEqualTo(3);
+
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+		replayer.replay();
+
+		assertThat(journal.backlog()).isZero();
+		assertThat(journal.read(10)).isEmpty();
+		JdbcTemplate jdbc = new JdbcTemplate(mysql);
+		assertThat(jdbc.queryForList("SELECT id FROM users ORDER BY id", Long.class)).containsExactly(7L, ann, bob);
+		// the outbox carries the replayed users on to PostgreSQL, in journal order
+		assertThat(jdbc.queryForList("SELECT email FROM user_outbox ORDER BY id", String.class))
+				.containsExactly("ann@x", "bob@x");
+		assertThat(jdbc.queryForList("SELECT user_id FROM user_outbox ORDER BY id", Long.class))
+				.containsExactly(ann, bob);
+	}
+
+	@Test
+	void journaledUpdateOfAnExistingUserLandsOnReplay() {
+		long ann = UserIds.next();
+		JdbcTemplate jdbc = new JdbcTemplate(mysql);
+		jdbc.update("INSERT INTO users (id, name, email, modified_at) VALUES (?, 'Ann', 'ann@x', 1)", ann);
+		journal.append(new UserRow(ann, "Ann Smith", "ann@x", 10L), true);
+		// a new user whose email is taken is still dropped
+		journal.append(new UserRow(UserIds.next(), "Impostor", "ann@x", 11L));
+
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+		replayer.replay();
+
+		assertThat(journal.backlog()).isZero();
+		assertThat(jdbc.queryForList("SELECT id FROM users", Long.class)).containsExactly(ann);
+		assertThat(jdbc.queryForObject("SELECT name FROM users WHERE id = ?", String.class, ann)).isEqualTo("Ann Smith");
+		assertThat(jdbc.queryForObject("SELECT modified_at FROM users WHERE id = ?", Long.class, ann)).isEqualTo(10L);
+		assertThat(jdbc.queryForList("SELECT name FROM user_outbox ORDER BY id", String.class))
+				.containsExactly("Ann Smith");
+	}
+
+	@Test
+	void journaledUpdateCanChangeTheEmail() {
+		long ann = UserIds.next();
+		JdbcTemplate jdbc = new JdbcTemplate(mysql);
+		jdbc.update("INSERT INTO users (id, name, email, modified_at) VALUES (?, 'Ann', 'ann@x', 1)", ann);
+		journal.append(new UserRow(ann, "Ann", "ann.smith@x", 10L), true);
+
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+		replayer.replay();
+
+		assertThat(journal.backlog()).isZero();
+		assertThat(jdbc.queryForList("SELECT email FROM users WHERE id = ?", String.class, ann))
+				.containsExactly("ann.smith@x");
+		assertThat(jdbc.queryForList("SELECT email FROM user_outbox", String.class)).containsExactly("ann.smith@x");
+		assertThat(meterRegistry.get("sync.journal.skipped").counter().count()).isZero();
+	}
+
+	@Test
+	void writeTheDatabaseKeepsRejectingIsSkipped() {
+		long ann = UserIds.next();
+		long cid = UserIds.next();
+		journal.append(new UserRow(ann, "Ann", "ann@x", 10L));
+		// longer than the name column, as an entry journaled before saveUser validated would be
+		journal.append(new UserRow(UserIds.next(), "B".repeat(150), "bob@x", 11L));
+		journal.append(new UserRow(cid, "Cid", "cid@x", 12L));
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+
+		replayer.replay();
+		// ann went through on her own, bob holds up the rest
+		assertThat(journal.backlog()).isEqualTo(2);
+
+		replayer.replay();
+		assertThat(journal.backlog()).isEqualTo(1);
+		assertThat(meterRegistry.get("sync.journal.skipped").counter().count()).isEqualTo(1);
+
+		replayer.replay();
+		assertThat(journal.backlog()).isZero();
+		assertThat(new JdbcTemplate(mysql).queryForList("SELECT id FROM users ORDER BY id", Long.class))
+				.containsExactly(ann, cid);
+	}
+}
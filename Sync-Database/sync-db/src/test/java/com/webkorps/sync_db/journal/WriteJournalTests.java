@@ -0,0 +1,130 @@
+package com.webkorps.sync_db.journal;
+
+import com.webkorps.sync_db.sync.UserRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteJournalTests {
+
+	@TempDir
+	Path directory;
+
+	private WriteJournal journal;
+
+	@AfterEach
+	void tearDown() {
+		journal.close();
+	}
+
+	private static UserRow row(int i) {
+		return new UserRow((long) i, "User " + i, "user" + i + "@x", 100L + i);
+	}
+
+	private static List<UserRow> rows(List<WriteJournal.Entry> entries) {
+		return entries.stream().map(WriteJournal.Entry::row).toList();
+	}
+
+	private WriteJournal reopen(int segmentSize) throws IOException {
+		if (journal != null) {
+			journal.close();
+		}
+		journal = new WriteJournal(directory, segmentSize);
+		return journal;
+	}
+
+	private long segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.toString().endsWith(".journal")).count();
+		}
+	}
+
+	@Test
+	void appendsSurviveARestartUntilReplayed() throws IOException {
+		reopen(4096);
+		journal.append(row(1));
+		journal.append(row(2), true);
+		journal.append(row(3));
+
+		reopen(4096);
+		List<WriteJournal.Entry> entries = journal.read(10);
+		assertThat(rows(entries)).containsExactly(row(1), row(2), row(3));
+		assertThat(entries).extracting(WriteJournal.Entry::update).containsExactly(false, true, false);
+		assertThat(journal.backlog()).isEqualTo(3);
+
+		journal.markReplayed(entries.get(0).end(), 1);
+		reopen(4096);
+		assertThat(rows(journal.read(10))).containsExactly(row(2), row(3));
+		assertThat(journal.backlog()).isEqualTo(2);
+	}
+
+	@Test
+	void rollsOverSegmentsAndDeletesReplayedOnes() throws IOException {
+		reopen(256);
+		for (int i = 0; i < 20; i++) {
+			journal.append(row(i));
+		}
+		assertThat(segmentFiles()).isGreaterThan(3);
+
+		List<WriteJournal.Entry> entries = journal.read(100);
+		assertThat(entries).hasSize(20);
+		journal.markReplayed(entries.get(19).end(), 20);
+
+		assertThat(segmentFiles()).isEqualTo(1);
+		assertThat(journal.backlog()).isZero();
+		journal.append(row(20));
+		reopen(256);
+		assertThat(rows(journal.read(100))).containsExactly(row(20));
+	}
+
+	@Test
+	void tornTailIsDroppedOnRecovery() throws IOException {
+		reopen(4096);
+		journal.append(row(1));
+		long secondEnd = journal.append(row(2));
+		journal.close();
+		// a crash in the middle of writing the second record
+		try (RandomAccessFile segment = new RandomAccessFile(directory.resolve(String.format("%020d.journal", 0)).toFile(), "rw")) {
+			segment.seek(secondEnd - 3);
+			segment.write(new byte[] {1, 2, 3});
+		}
+
+		reopen(4096);
+		assertThat(rows(journal.read(10))).containsExactly(row(1));
+		journal.append(row(3));
+		reopen(4096);
+		assertThat(rows(journal.read(10))).containsExactly(row(1), row(3));
+	}
+
+	@Test
+	void concurrentAppendsShareFlushes() throws IOException {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		journal = new WriteJournal(directory, 1 << 20, registry);
+		List<CompletableFuture<Void>> writers = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			int thread = t;
+			writers.add(CompletableFuture.runAsync(() -> {
+				for (int i = 0; i < 100; i++) {
+					journal.append(row(thread * 100 + i));
+				}
+			}));
+		}
+		writers.forEach(CompletableFuture::join);
+
+		assertThat(journal.read(1000)).hasSize(800);
+		assertThat(registry.get("sync.journal.group.size").summary().totalAmount()).isEqualTo(800);
+		assertThat(registry.get("sync.journal.flush").timer().count()).isLessThanOrEqualTo(800);
+	}
+}
@@ -0,0 +1,52 @@
+package com.webkorps.sync_db.metrics;
+
+import com.webkorps.sync_db.metrics.SyncMetrics.Operation;
+import com.webkorps.sync_db.metrics.SyncMetrics.Route;
+import com.webkorps.sync_db.sync.ReconciliationResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SyncMetricsTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final SyncMetrics metrics = new SyncMetrics(registry);
+
+	@Test
+	void countsRoutesAndTimesWritesPerRoute() {
+		metrics.recordRoute(Operation.SAVE, Route.SECONDARY);
+		metrics.recordWrite(Operation.SAVE, Route.SECONDARY, TimeUnit.MILLISECONDS.toNanos(5));
+		metrics.recordRoute(Operation.READ, Route.UNAVAILABLE);
+
+		assertThat(registry.get("users.requests").tags("operation", "save", "route", "secondary").counter().count())
+				.isEqualTo(1);
+		assertThat(registry.get("users.requests").tags("operation", "read", "route", "unavailable").counter().count())
+				.isEqualTo(1);
+		assertThat(registry.get("users.write").tags("operation", "save", "route", "secondary").timer()
+				.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(5);
+		assertThat(registry.get("users.write").tags("operation", "save", "route", "primary").timer().count())
+				.isZero();
+	}
+
+	@Test
+	void recordsRowCountsAndLastCycle() {
+		Instant startedAt = Instant.now();
+		metrics.recordCycle("incremental", startedAt, TimeUnit.MILLISECONDS.toNanos(40),
+				new ReconciliationResult(10, 8, 2, 0, 1));
+
+		assertThat(registry.get("sync.rows.copied").tag("direction", "mysql-to-postgres").counter().count()).isEqualTo(2);
+		assertThat(registry.get("sync.rows.scanned").tag("db", "postgresql").counter().count()).isEqualTo(8);
+		assertThat(registry.get("sync.rows.failed").counter().count()).isEqualTo(1);
+		assertThat(registry.get("sync.cycle").tag("mode", "incremental").timer().count()).isEqualTo(1);
+		assertThat(metrics.lastCycle().succeeded()).isTrue();
+		assertThat(metrics.lastCycle().durationMillis()).isEqualTo(40);
+
+		metrics.recordFailedCycle("incremental", startedAt, 0, new IllegalStateException("boom"));
+		assertThat(metrics.lastCycle().succeeded()).isFalse();
+		assertThat(metrics.lastCycle().error()).isEqualTo("boom");
+	}
+}
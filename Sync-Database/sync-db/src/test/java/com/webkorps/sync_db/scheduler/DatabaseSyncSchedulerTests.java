@@ -0,0 +1,79 @@
+package com.webkorps.sync_db.scheduler;
+
+import com.webkorps.sync_db.service.UserFailoverService;
+import com.webkorps.sync_db.sync.ReconciliationResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class DatabaseSyncSchedulerTests {
+
+	private static final ReconciliationResult IDLE = new ReconciliationResult(10, 10, 0, 0, 0);
+	private static final ReconciliationResult COPIED = new ReconciliationResult(10, 9, 1, 0, 0);
+
+	private final UserFailoverService service = mock(UserFailoverService.class);
+	private ThreadPoolTaskScheduler taskScheduler;
+	private DatabaseSyncScheduler scheduler;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(4);
+		taskScheduler.initialize();
+		// intervals long enough that only manual triggers run cycles during a test
+		scheduler = new DatabaseSyncScheduler(service, taskScheduler, new SimpleMeterRegistry(), 60_000, 120_000);
+	}
+
+	@AfterEach
+	void tearDown() {
+		scheduler.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void triggersDuringACycleJoinIt() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			started.countDown();
+			release.await();
+			return Optional.of(COPIED);
+		}).when(service).syncDatabases();
+
+		CompletableFuture<Optional<ReconciliationResult>> first = scheduler.trigger();
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		CompletableFuture<Optional<ReconciliationResult>> second = scheduler.trigger();
+		assertThat(second).isSameAs(first);
+		assertThat(scheduler.isRunning()).isTrue();
+
+		release.countDown();
+		assertThat(first.get(5, TimeUnit.SECONDS)).contains(COPIED);
+		verify(service, times(1)).syncDatabases();
+		assertThat(scheduler.isRunning()).isFalse();
+
+		// the next trigger starts a fresh cycle
+		scheduler.trigger().get(5, TimeUnit.SECONDS);
+		verify(service, times(2)).syncDatabases();
+	}
+
+	@Test
+	void intervalShrinksWithBacklogAndGrowsWhenIdle() {
+		assertThat(DatabaseSyncScheduler.nextInterval(500, Optional.of(IDLE), 500, 30_000)).isEqualTo(1000);
+		assertThat(DatabaseSyncScheduler.nextInterval(20_000, Optional.of(IDLE), 500, 30_000)).isEqualTo(30_000);
+		assertThat(DatabaseSyncScheduler.nextInterval(20_000, Optional.empty(), 500, 30_000)).isEqualTo(30_000);
+		assertThat(DatabaseSyncScheduler.nextInterval(16_000, Optional.of(COPIED), 500, 30_000)).isEqualTo(500);
+	}
+}
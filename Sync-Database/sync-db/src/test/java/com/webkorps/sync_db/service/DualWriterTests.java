@@ -0,0 +1,190 @@
+package com.webkorps.sync_db.service;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.sync.ChangeMarkers;
+import com.webkorps.sync_db.sync.UserIds;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import com.webkorps.sync_db.sync.UserRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class DualWriterTests {
+
+	private final UserJdbcStore postgresStore = mock(UserJdbcStore.class);
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final CountDownLatch postgresHangs = new CountDownLatch(1);
+
+	@AfterEach
+	void tearDown() {
+		postgresHangs.countDown();
+		executor.shutdownNow();
+	}
+
+	private DualWriter writer(WriteConsistency consistency) {
+		return new DualWriter(postgresStore, consistency, 1000, 100, executor);
+	}
+
+	// stands in for the MySQL transaction, stamping id and marker like Hibernate and the entity listener do
+	private static User mysqlWrite(User user) {
+		user.setId(UserIds.next());
+		user.setModifiedAt(ChangeMarkers.next());
+		return user;
+	}
+
+	@Test
+	void bothCopiesCarryTheSameIdAndMarker() {
+		User user = new User("Ann", "ann@x");
+
+		User saved = writer(WriteConsistency.ALL).save(user, () -> mysqlWrite(user), true);
+
+		// a new user is only inserted, never over a row PostgreSQL already holds
+		ArgumentCaptor<UserRow> row = ArgumentCaptor.forClass(UserRow.class);
+		verify(postgresStore).insertMissing(row.capture());
+		assertThat(row.getValue()).isEqualTo(new UserRow(saved.getId(), "Ann", "ann@x", saved.getModifiedAt()));
+		assertThat(UserIds.isShared(saved.getId())).isTrue();
+	}
+
+	@Test
+	void hungPostgresDoesNotDelayPrimaryAcknowledgement() {
+		doAnswer(invocation -> {
+			postgresHangs.await();
+			return true;
+		}).when(postgresStore).insertMissing(any(UserRow.class));
+		User user = new User("Ann", "ann@x");
+
+		// waiting for PostgreSQL would fail after its 100 ms timeout
+		User saved = writer(WriteConsistency.PRIMARY).save(user, () -> mysqlWrite(user), true);
+
+		assertThat(saved.getId()).isNotNull();
+		verify(postgresStore, timeout(1000)).insertMissing(any(UserRow.class));
+	}
+
+	@Test
+	void hungPostgresFailsWritesThatNeedBothDatabases() {
+		doAnswer(invocation -> {
+			postgresHangs.await();
+			return true;
+		}).when(postgresStore).insertMissing(any(UserRow.class));
+		User user = new User("Ann", "ann@x");
+
+		assertThatThrownBy(() -> writer(WriteConsistency.QUORUM).save(user, () -> mysqlWrite(user), true))
+				.hasMessageContaining("PostgreSQL write not acknowledged within 100 ms");
+	}
+
+	@Test
+	void fullWriteQueueLeavesTheWriteToTheOutbox() {
+		doAnswer(invocation -> {
+			postgresHangs.await();
+			return true;
+		}).when(postgresStore).insertMissing(any(UserRow.class));
+		ExecutorService pool = DualWriter.pool(1, 1);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		try {
+			DualWriter primary = new DualWriter(postgresStore, WriteConsistency.PRIMARY, 1000, 100, pool, meterRegistry);
+			DualWriter quorum = new DualWriter(postgresStore, WriteConsistency.QUORUM, 1000, 100, pool, meterRegistry);
+			// one write hangs on the only thread, the next one waits in the queue
+			for (String email : List.of("ann@x", "bob@x")) {
+				User user = new User("Someone", email);
+				primary.save(user, () -> mysqlWrite(user), true);
+			}
+
+			User cid = new User("Cid", "cid@x");
+			assertThat(primary.save(cid, () -> mysqlWrite(cid), true).getId()).isNotNull();
+			User dan = new User("Dan", "dan@x");
+			assertThatThrownBy(() -> quorum.save(dan, () -> mysqlWrite(dan), true))
+					.hasMessageContaining("write queue full");
+			assertThat(meterRegistry.get("users.write.secondary.rejected").counter().count()).isEqualTo(2);
+		} finally {
+			postgresHangs.countDown();
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void mysqlWriteRunsOnTheCallerUnderATransactionTimeout() {
+		User user = new User("Ann", "ann@x");
+		Thread caller = Thread.currentThread();
+
+		writer(WriteConsistency.QUORUM).save(user, () -> {
+			assertThat(Thread.currentThread()).isSameAs(caller);
+			return mysqlWrite(user);
+		}, false);
+
+		TransactionTemplate template = new TransactionTemplate(mock(PlatformTransactionManager.class));
+		// 1000 ms rounds to one second, 1001 ms up to two
+		assertThat(writer(WriteConsistency.QUORUM).withMysqlTimeout(template).getTimeout()).isEqualTo(1);
+		assertThat(new DualWriter(postgresStore, WriteConsistency.QUORUM, 1001, 100, executor)
+				.withMysqlTimeout(template).getTimeout()).isEqualTo(2);
+		assertThat(template.getTimeout()).isEqualTo(TransactionTemplate.TIMEOUT_DEFAULT);
+	}
+
+	@Test
+	void upsertByEmailReachesPostgresAsNewerWinsUpsert() {
+		// the email may already be stored on PostgreSQL under an older name, an insert would skip it
+		UserRow renamed = new UserRow(UserIds.next(), "Ann B", "ann@x", ChangeMarkers.next());
+
+		writer(WriteConsistency.ALL).upsert(() -> new User(renamed.id(), renamed.name(), renamed.email(),
+				renamed.modifiedAt()), true);
+
+		verify(postgresStore).upsertNewer(renamed);
+		verify(postgresStore, never()).insertMissing(any(UserRow.class));
+	}
+
+	@Test
+	void quorumOfTheDatabasesThatAreUp() {
+		User user = new User("Ann", "ann@x");
+
+		assertThat(writer(WriteConsistency.QUORUM).save(user, () -> mysqlWrite(user), false).getId()).isNotNull();
+		// refused before MySQL is written
+		User refused = new User("Bob", "bob@x");
+		assertThatThrownBy(() -> writer(WriteConsistency.ALL).save(refused, () -> mysqlWrite(refused), false))
+				.hasMessageContaining("not acknowledged by both");
+		assertThat(refused.getId()).isNull();
+		verify(postgresStore, never()).insertMissing(any(UserRow.class));
+	}
+
+	@Test
+	void writeMysqlRejectsNeverReachesPostgres() {
+		SingleConnectionDataSource postgres = TestDatabases.h2("PostgreSQL");
+		try {
+			UserJdbcStore store = new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres);
+			long annId = UserIds.next();
+			store.insertMissing(new UserRow(annId, "Ann", "ann@x", 1L));
+			DualWriter writer = new DualWriter(store, WriteConsistency.ALL, 1000, 1000, executor);
+			User duplicate = new User("Impostor", "ann@x");
+
+			assertThatThrownBy(() -> writer.save(duplicate, () -> {
+				throw new DuplicateKeyException("Duplicate entry 'ann@x' for key 'users.email'");
+			}, true)).isInstanceOf(DuplicateKeyException.class);
+
+			JdbcTemplate jdbc = new JdbcTemplate(postgres);
+			assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isEqualTo(1);
+			assertThat(jdbc.queryForObject("SELECT name FROM users WHERE id = ?", String.class, annId)).isEqualTo("Ann");
+		} finally {
+			postgres.destroy();
+		}
+	}
+}
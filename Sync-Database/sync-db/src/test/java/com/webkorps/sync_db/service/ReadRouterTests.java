@@ -0,0 +1,83 @@
+package com.webkorps.sync_db.service;
+
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.metrics.SyncMetrics.Route;
+import com.webkorps.sync_db.sync.ChangeMarkers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReadRouterTests {
+
+	private final DatabaseHealthMonitor healthMonitor = mock(DatabaseHealthMonitor.class);
+	private final AtomicLong lagMillis = new AtomicLong();
+	private ReadRouter router;
+
+	@BeforeEach
+	void setUp() {
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+		when(healthMonitor.isPostgresAvailable()).thenReturn(true);
+		router = new ReadRouter(healthMonitor, lagMillis::get, true, 1000, 5000);
+	}
+
+	private double postgresShareOf(int reads, long lastWrite) {
+		int postgres = 0;
+		for (int i = 0; i < reads; i++) {
+			if (router.route(lastWrite) == Route.SECONDARY) {
+				postgres++;
+			}
+		}
+		return (double) postgres / reads;
+	}
+
+	@Test
+	void spreadsReadsByInverseLatency() {
+		assertThat(postgresShareOf(10_000, 0)).isCloseTo(0.5, within(0.05));
+
+		for (int i = 0; i < 50; i++) {
+			router.recordLatency(Route.PRIMARY, 1_000_000);
+			router.recordLatency(Route.SECONDARY, 3_000_000);
+		}
+		assertThat(router.postgresShare()).isCloseTo(0.25, within(0.01));
+		assertThat(postgresShareOf(10_000, 0)).isCloseTo(0.25, within(0.05));
+
+		// a database that got very slow still sees a trickle of reads to notice it recovered
+		for (int i = 0; i < 100; i++) {
+			router.recordLatency(Route.SECONDARY, 1_000_000_000);
+		}
+		assertThat(router.postgresShare()).isEqualTo(0.05);
+	}
+
+	@Test
+	void readsOwnWritesAndStaysWithinTheStalenessBound() {
+		assertThat(postgresShareOf(1_000, ChangeMarkers.nowMicros() - 1_000_000)).isZero();
+		assertThat(postgresShareOf(1_000, ChangeMarkers.nowMicros() - 10_000_000)).isPositive();
+
+		lagMillis.set(1500);
+		assertThat(postgresShareOf(1_000, 0)).isZero();
+		lagMillis.set(0);
+
+		// failover wins over stickiness
+		when(healthMonitor.isMysqlAvailable()).thenReturn(false);
+		assertThat(router.route(ChangeMarkers.nowMicros())).isEqualTo(Route.SECONDARY);
+		when(healthMonitor.isPostgresAvailable()).thenReturn(false);
+		assertThat(router.route(0)).isEqualTo(Route.UNAVAILABLE);
+	}
+
+	@Test
+	void continuationsStayOnTheDatabaseThatStartedTheWalk() {
+		for (int i = 0; i < 100; i++) {
+			assertThat(router.route(Route.SECONDARY, 0)).isEqualTo(Route.SECONDARY);
+			assertThat(router.route(Route.PRIMARY, 0)).isEqualTo(Route.PRIMARY);
+		}
+
+		when(healthMonitor.isPostgresAvailable()).thenReturn(false);
+		assertThat(router.route(Route.SECONDARY, 0)).isEqualTo(Route.PRIMARY);
+	}
+}
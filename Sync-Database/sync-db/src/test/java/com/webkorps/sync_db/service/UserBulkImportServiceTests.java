@@ -0,0 +1,138 @@
+package com.webkorps.sync_db.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.service.BulkImportResult.RowOutcome;
+import com.webkorps.sync_db.service.BulkImportResult.Status;
+import com.webkorps.sync_db.sync.UserJdbcStore;
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserBulkImportServiceTests {
+
+	private final DatabaseHealthMonitor healthMonitor = mock(DatabaseHealthMonitor.class);
+	private final UserJdbcStore postgresStore = mock(UserJdbcStore.class);
+	private final ValidatorFactory validatorFactory = Validation.buildDefaultValidatorFactory();
+	private SingleConnectionDataSource mysql;
+	private UserBulkImportService service;
+
+	@BeforeEach
+	void setUp() {
+		mysql = TestDatabases.h2("MySQL");
+		when(postgresStore.getName()).thenReturn("PostgreSQL");
+		service = new UserBulkImportService();
+		ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(service, "validator", validatorFactory.getValidator());
+		ReflectionTestUtils.setField(service, "healthMonitor", healthMonitor);
+		ReflectionTestUtils.setField(service, "mysqlStore", new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql));
+		ReflectionTestUtils.setField(service, "postgresStore", postgresStore);
+		ReflectionTestUtils.setField(service, "chunkSize", 3);
+	}
+
+	@AfterEach
+	void tearDown() {
+		validatorFactory.close();
+		mysql.destroy();
+	}
+
+	private BulkImportResult importUsers(String json) throws IOException {
+		return service.importUsers(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), false);
+	}
+
+	@Test
+	void classifiesRowsAsCreatedDuplicateOrInvalid() throws IOException {
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+		JdbcTemplate jdbc = new JdbcTemplate(mysql);
+		jdbc.update("INSERT INTO users (id, name, email, modified_at) VALUES (7, 'Taken', 'taken@example.com', 1)");
+
+		BulkImportResult result = importUsers("""
+				[{"name": "Ann", "email": "ann@example.com"},
+				 {"name": "Someone else", "email": "taken@example.com"},
+				 {"name": "Ann again", "email": "ann@example.com"},
+				 {"name": "B", "email": "not-an-email"},
+				 {"name": "Bob", "email": "bob@example.com"}]
+				""");
+
+		assertThat(result.received()).isEqualTo(5);
+		assertThat(result.created()).isEqualTo(2);
+		assertThat(result.duplicates()).isEqualTo(2);
+		assertThat(result.invalid()).isEqualTo(1);
+		assertThat(result.failed()).isZero();
+		assertThat(result.rejected()).containsExactlyInAnyOrder(
+				new RowOutcome(1, "taken@example.com", Status.DUPLICATE, "Email already exists"),
+				new RowOutcome(2, "ann@example.com", Status.DUPLICATE, "Email appears more than once in the request"),
+				new RowOutcome(3, "not-an-email", Status.INVALID,
+						"Email should be valid; Name must be between 2 and 100 characters"));
+		// the existing row is left alone, and only created rows are replicated
+		assertThat(jdbc.queryForObject("SELECT name FROM users WHERE email = 'taken@example.com'", String.class))
+				.isEqualTo("Taken");
+		assertThat(jdbc.queryForList("SELECT email FROM user_outbox ORDER BY id", String.class))
+				.containsExactly("ann@example.com", "bob@example.com");
+	}
+
+	@Test
+	void emailSeenInAnEarlierChunkIsADuplicate() throws IOException {
+		when(healthMonitor.isMysqlAvailable()).thenReturn(true);
+		ReflectionTestUtils.setField(service, "chunkSize", 1);
+
+		BulkImportResult result = importUsers("""
+				[{"name": "Ann", "email": "ann@example.com"},
+				 {"name": "Ann again", "email": "ann@example.com"}]
+				""");
+
+		assertThat(result.created()).isEqualTo(1);
+		assertThat(result.rejected()).containsExactly(
+				new RowOutcome(1, "ann@example.com", Status.DUPLICATE, "Email already exists"));
+	}
+
+	@Test
+	void rowsFailWhenNoDatabaseIsUp() throws IOException {
+		BulkImportResult result = importUsers("""
+				[{"name": "Ann", "email": "ann@example.com"},
+				 {"name": "B", "email": "bob@example.com"}]
+				""");
+
+		assertThat(result.created()).isZero();
+		assertThat(result.failed()).isEqualTo(1);
+		assertThat(result.invalid()).isEqualTo(1);
+		assertThat(result.rejected()).contains(
+				new RowOutcome(0, "ann@example.com", Status.FAILED, "No healthy database available"));
+		assertThat(new JdbcTemplate(mysql).queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isZero();
+	}
+
+	@Test
+	void chunkFailsWhenItsTransactionFails() throws IOException {
+		// MySQL is down, so the chunk goes to PostgreSQL, which breaks mid-write
+		when(healthMonitor.isPostgresAvailable()).thenReturn(true);
+		when(postgresStore.inTransaction(any())).thenThrow(new CannotGetJdbcConnectionException("connection reset"));
+
+		BulkImportResult result = importUsers("""
+				[{"name": "Ann", "email": "ann@example.com"},
+				 {"name": "Bob", "email": "bob@example.com"}]
+				""");
+
+		assertThat(result.created()).isZero();
+		assertThat(result.failed()).isEqualTo(2);
+		assertThat(result.rejected()).containsExactly(
+				new RowOutcome(0, "ann@example.com", Status.FAILED, "connection reset"),
+				new RowOutcome(1, "bob@example.com", Status.FAILED, "connection reset"));
+	}
+}
@@ -0,0 +1,78 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChecksumVerifierTests {
+
+	private SingleConnectionDataSource mysql;
+	private SingleConnectionDataSource postgres;
+	private UserJdbcStore mysqlStore;
+	private UserJdbcStore postgresStore;
+	private ChecksumVerifier verifier;
+
+	@BeforeEach
+	void setUp() {
+		mysql = TestDatabases.h2("MySQL");
+		postgres = TestDatabases.h2("PostgreSQL");
+		mysqlStore = new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql);
+		postgresStore = new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres);
+		verifier = new ChecksumVerifier(mysqlStore, postgresStore, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(verifier, "leafRows", 4);
+
+		List<UserRow> rows = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			rows.add(new UserRow(UserIds.next(), "User " + i, "user" + i + "@x", (long) i));
+		}
+		mysqlStore.insertMissing(rows);
+		postgresStore.insertMissing(rows);
+	}
+
+	@AfterEach
+	void tearDown() {
+		mysql.destroy();
+		postgres.destroy();
+	}
+
+	@Test
+	void matchingTablesAreComparedWithoutFetchingRows() {
+		VerificationResult result = verifier.verify();
+
+		assertThat(result.consistent()).isTrue();
+		assertThat(result.mysqlRows()).isEqualTo(2000);
+		assertThat(result.postgresRows()).isEqualTo(2000);
+		assertThat(result.bucketsCompared()).isEqualTo(256);
+		assertThat(result.rowsFetched()).isZero();
+	}
+
+	@Test
+	void onlyDivergentBucketsAreFetched() {
+		new JdbcTemplate(postgres).update("UPDATE users SET name = 'Renamed' WHERE email = 'user7@x'");
+		new JdbcTemplate(postgres).update("UPDATE users SET modified_at = 99999 WHERE email = 'user8@x'");
+		new JdbcTemplate(postgres).update("UPDATE users SET id = ? WHERE email = 'user10@x'", UserIds.next());
+		new JdbcTemplate(mysql).update("DELETE FROM users WHERE email = 'user9@x'");
+		postgresStore.insertMissing(new UserRow(null, "Only here", "extra@x", 1L));
+
+		VerificationResult result = verifier.verify();
+
+		assertThat(result.consistent()).isFalse();
+		assertThat(result.differing()).isEqualTo(3);
+		assertThat(result.missingInMysql()).isEqualTo(2);
+		assertThat(result.missingInPostgres()).isZero();
+		assertThat(result.sampleEmails()).containsExactlyInAnyOrder("user7@x", "user8@x", "user9@x", "user10@x", "extra@x");
+		// five divergent buckets of about 8 rows each were split once, the rest never left the databases
+		assertThat(result.rowsFetched()).isLessThan(50);
+	}
+}
@@ -0,0 +1,58 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IncrementalSyncEngineTests {
+
+	private final UserJdbcStore mysqlStore = mock(UserJdbcStore.class);
+	private final UserJdbcStore postgresStore = mock(UserJdbcStore.class);
+
+	private IncrementalSyncEngine engine() {
+		IncrementalSyncEngine engine = new IncrementalSyncEngine(mysqlStore, postgresStore,
+				mock(UserReconciliationEngine.class), mock(ChecksumVerifier.class), mock(UserCache.class), new SyncBatchStats());
+		ReflectionTestUtils.setField(engine, "pageSize", 3);
+		ReflectionTestUtils.setField(engine, "fullScanIntervalMillis", 600_000L);
+		// bootstrapped, so the tick only applies changes
+		ReflectionTestUtils.setField(engine, "fullScanDone", true);
+		ReflectionTestUtils.setField(engine, "lastFullScanNanos", System.nanoTime());
+		return engine;
+	}
+
+	@Test
+	void checkpointStopsInFrontOfTheFirstRowThatFailed() throws Exception {
+		SyncCheckpoint toPostgres = new SyncCheckpoint(IncrementalSyncEngine.MYSQL_TO_POSTGRES, 10L, "");
+		when(postgresStore.loadCheckpoint(IncrementalSyncEngine.MYSQL_TO_POSTGRES)).thenReturn(toPostgres);
+		when(mysqlStore.loadCheckpoint(IncrementalSyncEngine.POSTGRES_TO_MYSQL))
+				.thenReturn(new SyncCheckpoint(IncrementalSyncEngine.POSTGRES_TO_MYSQL, 10L, ""));
+		UserRow ann = new UserRow(1L, "Ann", "ann@x", 11L);
+		UserRow bob = new UserRow(2L, "Bob", "bob@x", 12L);
+		UserRow cid = new UserRow(3L, "Cid", "cid@x", 13L);
+		when(mysqlStore.findChangedSince(any(SyncCheckpoint.class), anyLong(), anyInt())).thenReturn(List.of(ann, bob, cid));
+		when(postgresStore.inTransaction(any(Supplier.class))).thenThrow(new IllegalStateException("batch rejected"));
+		when(postgresStore.upsertNewer(ann)).thenReturn(true);
+		when(postgresStore.upsertNewer(bob)).thenThrow(new IllegalStateException("bob rejected"));
+		when(postgresStore.upsertNewer(cid)).thenReturn(true);
+
+		ReconciliationResult result = engine().sync();
+
+		// cid was applied too, but the checkpoint may not pass bob, who still has to be retried
+		verify(postgresStore).saveCheckpoint(new SyncCheckpoint(IncrementalSyncEngine.MYSQL_TO_POSTGRES, 11L, "ann@x"));
+		verify(mysqlStore).findChangedSince(eq(toPostgres), anyLong(), anyInt());
+		assertThat(result.failed()).isEqualTo(1);
+	}
+}
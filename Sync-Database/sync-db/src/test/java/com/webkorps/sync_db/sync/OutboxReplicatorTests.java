@@ -0,0 +1,148 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.entity.UserOutboxEvent;
+import com.webkorps.sync_db.health.DatabaseHealth;
+import com.webkorps.sync_db.health.DatabaseHealthMonitor;
+import com.webkorps.sync_db.repository.dlink.DLinkUserOutboxRepository;
+import com.webkorps.sync_db.repository.link.LinkUserOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboxReplicatorTests {
+
+	private final LinkUserOutboxRepository mysqlOutbox = mock(LinkUserOutboxRepository.class);
+	private final DLinkUserOutboxRepository postgresOutbox = mock(DLinkUserOutboxRepository.class);
+	private final UserJdbcStore mysqlStore = mock(UserJdbcStore.class);
+	private final UserJdbcStore postgresStore = mock(UserJdbcStore.class);
+	private final DatabaseHealth mysqlHealth = mock(DatabaseHealth.class);
+	private final DatabaseHealth postgresHealth = mock(DatabaseHealth.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private OutboxReplicator replicator;
+
+	@BeforeEach
+	void setUp() {
+		DatabaseHealthMonitor healthMonitor = mock(DatabaseHealthMonitor.class);
+		when(healthMonitor.mysql()).thenReturn(mysqlHealth);
+		when(healthMonitor.postgres()).thenReturn(postgresHealth);
+		when(mysqlHealth.getName()).thenReturn("MySQL");
+		when(postgresHealth.getName()).thenReturn("PostgreSQL");
+		when(postgresStore.getName()).thenReturn("PostgreSQL");
+		replicator = new OutboxReplicator(mysqlOutbox, postgresOutbox, mysqlStore, postgresStore, healthMonitor,
+				mock(UserCache.class), meterRegistry);
+		ReflectionTestUtils.setField(replicator, "batchSize", 10);
+		ReflectionTestUtils.setField(replicator, "initialBackoffMillis", 500L);
+		ReflectionTestUtils.setField(replicator, "maxBackoffMillis", 60_000L);
+		ReflectionTestUtils.setField(replicator, "maxAttempts", 2);
+	}
+
+	private static UserOutboxEvent event(long id, String email, Instant createdAt) {
+		User user = new User("Ann", email);
+		user.setId(id);
+		user.setModifiedAt(ChangeMarkers.next());
+		UserOutboxEvent event = UserOutboxEvent.upsert(user);
+		event.setId(id);
+		event.setCreatedAt(createdAt);
+		return event;
+	}
+
+	@Test
+	void lagGrowsWhileTheTargetIsDown() {
+		when(mysqlHealth.isAvailable()).thenReturn(true);
+		when(postgresHealth.isAvailable()).thenReturn(false);
+		when(mysqlOutbox.findBySkippedAtIsNullOrderByIdAsc(any(Pageable.class)))
+				.thenReturn(List.of(event(1, "ann@x", Instant.now().minusSeconds(30))));
+
+		replicator.replicateMysqlToPostgres();
+
+		assertThat(replicator.mysqlToPostgresLagMillis()).isGreaterThanOrEqualTo(30_000);
+		verify(postgresStore, never()).upsertNewer(anyList());
+	}
+
+	@Test
+	void drainedLaneTimesItsBatchAndReportsNoLag() {
+		when(mysqlHealth.isAvailable()).thenReturn(true);
+		when(postgresHealth.isAvailable()).thenReturn(false, true);
+		when(mysqlOutbox.findBySkippedAtIsNullOrderByIdAsc(any(Pageable.class)))
+				.thenReturn(List.of(event(1, "ann@x", Instant.now().minusSeconds(30))));
+
+		replicator.replicateMysqlToPostgres();
+		replicator.replicateMysqlToPostgres();
+
+		assertThat(replicator.mysqlToPostgresLagMillis()).isZero();
+		verify(mysqlOutbox).deleteAllByIdInBatch(List.of(1L));
+		assertThat(meterRegistry.get("sync.outbox.apply").tag("direction", "mysql-to-postgres").timer().count())
+				.isEqualTo(1);
+	}
+
+	@Test
+	void eventTheTargetKeepsRejectingIsSkipped() {
+		// retry without waiting
+		ReflectionTestUtils.setField(replicator, "initialBackoffMillis", 0L);
+		when(mysqlHealth.isAvailable()).thenReturn(true);
+		when(postgresHealth.isAvailable()).thenReturn(true);
+		UserOutboxEvent ann = event(1, "ann@x", Instant.now());
+		UserOutboxEvent bob = event(2, "bob@x", Instant.now());
+		UserOutboxEvent cid = event(3, "cid@x", Instant.now());
+		when(mysqlOutbox.findBySkippedAtIsNullOrderByIdAsc(any(Pageable.class)))
+				.thenReturn(List.of(ann, bob, cid), List.of(bob, cid), List.of(cid));
+		when(postgresStore.upsertNewer(anyList())).thenAnswer(invocation -> {
+			List<UserRow> rows = invocation.getArgument(0);
+			if (rows.stream().anyMatch(row -> row.email().equals("bob@x"))) {
+				throw new DataIntegrityViolationException("name too long");
+			}
+			return rows.size();
+		});
+
+		replicator.replicateMysqlToPostgres();
+		// ann went through on her own, the failure is charged to bob rather than to the head of the batch
+		verify(mysqlOutbox).deleteById(1L);
+		assertThat(ann.getAttempts()).isZero();
+		assertThat(bob.getAttempts()).isEqualTo(1);
+		assertThat(bob.getSkippedAt()).isNull();
+
+		replicator.replicateMysqlToPostgres();
+		assertThat(bob.getSkippedAt()).isNotNull();
+		verify(mysqlOutbox, times(2)).save(bob);
+		assertThat(meterRegistry.get("sync.outbox.skipped").tag("direction", "mysql-to-postgres").counter().count())
+				.isEqualTo(1);
+
+		replicator.replicateMysqlToPostgres();
+		verify(mysqlOutbox).deleteAllByIdInBatch(List.of(3L));
+	}
+
+	@Test
+	void unreachableTargetNeverSkipsEvents() {
+		ReflectionTestUtils.setField(replicator, "initialBackoffMillis", 0L);
+		when(mysqlHealth.isAvailable()).thenReturn(true);
+		when(postgresHealth.isAvailable()).thenReturn(true);
+		UserOutboxEvent ann = event(1, "ann@x", Instant.now());
+		when(mysqlOutbox.findBySkippedAtIsNullOrderByIdAsc(any(Pageable.class))).thenReturn(List.of(ann));
+		when(postgresStore.upsertNewer(anyList())).thenThrow(new CannotGetJdbcConnectionException("connection refused"));
+
+		for (int i = 0; i < 5; i++) {
+			replicator.replicateMysqlToPostgres();
+		}
+
+		assertThat(ann.getAttempts()).isEqualTo(5);
+		assertThat(ann.getSkippedAt()).isNull();
+	}
+}
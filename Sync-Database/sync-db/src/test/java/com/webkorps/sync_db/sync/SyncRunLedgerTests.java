@@ -0,0 +1,101 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.entity.SyncRun;
+import com.webkorps.sync_db.repository.link.LinkSyncRunRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SyncRunLedgerTests {
+
+	private final LinkSyncRunRepository runs = mock(LinkSyncRunRepository.class);
+	private final OutboxReplicator outboxReplicator = mock(OutboxReplicator.class);
+	private final SyncBatchStats batchStats = new SyncBatchStats();
+	private SingleConnectionDataSource mysql;
+	private SingleConnectionDataSource postgres;
+	private UserJdbcStore mysqlStore;
+	private UserJdbcStore postgresStore;
+	private SyncRunLedger ledger;
+
+	@BeforeEach
+	void setUp() {
+		mysql = TestDatabases.h2("MySQL");
+		postgres = TestDatabases.h2("PostgreSQL");
+		mysqlStore = new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql);
+		postgresStore = new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres);
+		when(runs.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		ledger = new SyncRunLedger(runs, mysqlStore, postgresStore, outboxReplicator, batchStats, 60_000);
+	}
+
+	@AfterEach
+	void tearDown() {
+		mysql.destroy();
+		postgres.destroy();
+	}
+
+	@Test
+	void failedCycleRecordsThePositionTheNextOneResumesFrom() {
+		SyncRun run = ledger.begin("incremental", Instant.now());
+		assertThat(run.getStatus()).isEqualTo(SyncRun.Status.RUNNING);
+
+		// two pages committed before the failure
+		batchStats.record(2_000_000);
+		batchStats.record(6_000_000);
+		postgresStore.saveCheckpoint(new SyncCheckpoint(IncrementalSyncEngine.MYSQL_TO_POSTGRES, 1234L, "b@x"));
+		mysqlStore.saveCheckpoint(new SyncCheckpoint(UserReconciliationEngine.CHECKPOINT_PREFIX + "p0", 0L, "k@x"));
+		when(outboxReplicator.mysqlToPostgresLagMillis()).thenReturn(250L);
+		ledger.failed(run, 10_000_000, new SQLException("connection reset"));
+
+		assertThat(run.getStatus()).isEqualTo(SyncRun.Status.FAILED);
+		assertThat(run.getError()).isEqualTo("connection reset");
+		assertThat(run.getDurationMillis()).isEqualTo(10);
+		assertThat(run.getBatches()).isEqualTo(2);
+		assertThat(run.getMeanBatchMillis()).isEqualTo(4.0);
+		assertThat(run.getBatchMaxNanos()).isEqualTo(6_000_000);
+		assertThat(run.getMysqlToPostgresMarker()).isEqualTo(1234);
+		assertThat(run.getPostgresToMysqlMarker()).isNull();
+		assertThat(run.getReconcileCheckpoints()).isEqualTo(1);
+		assertThat(run.getMysqlToPostgresLagMillis()).isEqualTo(250);
+		// the next cycle starts counting batches from zero
+		assertThat(batchStats.drain().batches()).isZero();
+	}
+
+	@Test
+	void historyReportsThroughputAndLagTrends() {
+		SyncRun newest = run(SyncRun.Status.SUCCEEDED, 3000, 1000, 400L);
+		SyncRun failed = run(SyncRun.Status.FAILED, 0, 1000, null);
+		SyncRun oldest = run(SyncRun.Status.SUCCEEDED, 1000, 2000, 100L);
+
+		SyncRunHistory history = SyncRunHistory.of(List.of(newest, failed, oldest));
+
+		assertThat(history.succeeded()).isEqualTo(2);
+		assertThat(history.failed()).isEqualTo(1);
+		assertThat(history.rowsPerSecond()).isCloseTo(1000.0, within(0.001));
+		// replication to PostgreSQL is falling behind
+		assertThat(history.mysqlToPostgresLagTrendMillis()).isEqualTo(300);
+		assertThat(history.postgresToMysqlLagTrendMillis()).isNull();
+	}
+
+	private static SyncRun run(SyncRun.Status status, long copied, long durationMillis, Long lagMillis) {
+		SyncRun run = new SyncRun();
+		run.setStatus(status);
+		run.setCopiedToPostgres(copied);
+		run.setDurationMillis(durationMillis);
+		run.setMysqlToPostgresLagMillis(lagMillis);
+		return run;
+	}
+}
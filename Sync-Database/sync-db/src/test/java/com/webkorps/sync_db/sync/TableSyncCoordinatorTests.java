@@ -0,0 +1,80 @@
+package com.webkorps.sync_db.sync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TableSyncCoordinatorTests {
+
+	private final List<String> synced = new CopyOnWriteArrayList<>();
+
+	private SyncedTable table(String name, boolean fails, String... dependsOn) {
+		return new SyncedTable() {
+			@Override
+			public String name() {
+				return name;
+			}
+
+			@Override
+			public List<String> dependsOn() {
+				return List.of(dependsOn);
+			}
+
+			@Override
+			public ReconciliationResult sync(boolean full) throws SQLException {
+				synced.add(name);
+				if (fails) {
+					throw new SQLException(name + " is unreachable");
+				}
+				return new ReconciliationResult(1, 1, 1, 0, 0);
+			}
+		};
+	}
+
+	private static List<List<String>> names(List<List<SyncedTable>> levels) {
+		return levels.stream().map(level -> level.stream().map(SyncedTable::name).toList()).toList();
+	}
+
+	@Test
+	void tablesComeAfterTheTablesTheyReference() {
+		List<SyncedTable> tables = List.of(table("order_items", false, "orders", "products"),
+				table("orders", false, "users"), table("users", false), table("products", false));
+
+		assertThat(names(TableSyncCoordinator.levels(tables)))
+				.containsExactly(List.of("users", "products"), List.of("orders"), List.of("order_items"));
+	}
+
+	@Test
+	void rejectsCyclesAndUnknownTables() {
+		assertThatThrownBy(() -> TableSyncCoordinator.levels(List.of(table("a", false, "b"), table("b", false, "a"))))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("cycle");
+		assertThatThrownBy(() -> TableSyncCoordinator.levels(List.of(table("orders", false, "users"))))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("users");
+	}
+
+	@Test
+	void failedTableSkipsItsDependentsButNotTheOthers() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		TableSyncCoordinator coordinator = new TableSyncCoordinator(List.of(table("users", false),
+				table("products", true), table("orders", false, "users"), table("order_items", false, "orders", "products")),
+				registry, 2);
+		try {
+			assertThatThrownBy(() -> coordinator.syncAll(false))
+					.isInstanceOf(SQLException.class)
+					.hasMessageContaining("products");
+			assertThat(synced).containsExactlyInAnyOrder("users", "products", "orders");
+			assertThat(registry.get("sync.table.failed").tag("table", "order_items").counter().count()).isEqualTo(1);
+			assertThat(registry.get("sync.table").tag("table", "orders").timer().count()).isEqualTo(1);
+		} finally {
+			coordinator.stop();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TableSyncTests {
+
+	private static final TableDescriptor ORDERS = new TableDescriptor("orders", "order_no",
+			TableDescriptor.KeyType.TEXT, "modified_at", List.of("order_no", "user_email", "total", "modified_at"),
+			List.of(), TableConflictPolicy.LAST_WRITER_WINS);
+
+	private static final TableDescriptor COUNTRIES = new TableDescriptor("countries", "code",
+			TableDescriptor.KeyType.NUMBER, null, List.of("code", "name"), List.of(), TableConflictPolicy.PRIMARY_WINS);
+
+	private SingleConnectionDataSource mysql;
+	private SingleConnectionDataSource postgres;
+
+	@BeforeEach
+	void setUp() {
+		mysql = h2("MySQL");
+		postgres = h2("PostgreSQL");
+	}
+
+	@AfterEach
+	void tearDown() {
+		mysql.destroy();
+		postgres.destroy();
+	}
+
+	private static SingleConnectionDataSource h2(String mode) {
+		SingleConnectionDataSource dataSource = TestDatabases.h2(mode);
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		jdbc.execute("CREATE TABLE orders (order_no VARCHAR(40) PRIMARY KEY, user_email VARCHAR(150) NOT NULL,"
+				+ " total DECIMAL(10, 2), modified_at BIGINT)");
+		jdbc.execute("CREATE TABLE countries (code INT PRIMARY KEY, name VARCHAR(100))");
+		return dataSource;
+	}
+
+	private TableSync sync(TableDescriptor table) {
+		return new TableSync(new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql).forTable(table),
+				new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres).forTable(table),
+				new SyncConnectionBudget(2, 2), new TableSync.Settings(2, 2, 0, 600_000),
+				new SyncBatchStats());
+	}
+
+	private static void order(SingleConnectionDataSource dataSource, String orderNo, String total, long marker) {
+		new JdbcTemplate(dataSource).update("MERGE INTO orders KEY (order_no) VALUES (?, ?, ?, ?)",
+				orderNo, "buyer@x", new BigDecimal(total), marker);
+	}
+
+	private static List<Map<String, Object>> orders(SingleConnectionDataSource dataSource) {
+		return new JdbcTemplate(dataSource).queryForList("SELECT order_no, total, modified_at FROM orders ORDER BY order_no");
+	}
+
+	@Test
+	void fullPassCopiesMissingRowsAndSettlesConflicts() throws Exception {
+		order(mysql, "A-1", "10.00", 1);
+		order(mysql, "A-2", "20.00", 5);
+		order(mysql, "A-3", "30.00", 1);
+		order(postgres, "A-2", "25.00", 7);
+		order(postgres, "B-1", "40.00", 1);
+		order(postgres, "B-2", "50.00", 1);
+		order(postgres, "B-3", "60.00", 1);
+
+		ReconciliationResult result = sync(ORDERS).sync(true);
+
+		assertThat(result.mysqlScanned()).isEqualTo(3);
+		assertThat(result.postgresScanned()).isEqualTo(4);
+		assertThat(result.copiedToPostgres()).isEqualTo(2);
+		assertThat(result.copiedToMysql()).isEqualTo(3);
+		assertThat(result.conflictsResolved()).isEqualTo(1);
+		assertThat(orders(mysql)).isEqualTo(orders(postgres)).hasSize(6);
+		assertThat(new JdbcTemplate(mysql).queryForObject("SELECT total FROM orders WHERE order_no = 'A-2'", String.class))
+				.isEqualTo("25.00");
+		assertThat(sync(ORDERS).sync(true).hadDivergence()).isFalse();
+	}
+
+	@Test
+	void incrementalCyclesApplyOnlyChangedRows() throws Exception {
+		TableSync sync = sync(ORDERS);
+		order(mysql, "A-1", "10.00", ChangeMarkers.next());
+		sync.sync(false);
+		assertThat(orders(postgres)).hasSize(1);
+
+		order(postgres, "A-1", "12.50", ChangeMarkers.next());
+		order(mysql, "A-2", "20.00", ChangeMarkers.next());
+		ReconciliationResult result = sync.sync(false);
+
+		assertThat(result.copiedToPostgres()).isEqualTo(1);
+		assertThat(result.copiedToMysql()).isEqualTo(1);
+		assertThat(orders(mysql)).isEqualTo(orders(postgres)).hasSize(2);
+	}
+
+	@Test
+	void tablesWithoutMarkerAreReconciledByNumericKey() throws Exception {
+		JdbcTemplate mysqlJdbc = new JdbcTemplate(mysql);
+		JdbcTemplate postgresJdbc = new JdbcTemplate(postgres);
+		mysqlJdbc.update("INSERT INTO countries VALUES (9, 'India'), (10, 'Germany')");
+		postgresJdbc.update("INSERT INTO countries VALUES (10, 'Deutschland'), (100, 'Peru')");
+
+		ReconciliationResult result = sync(COUNTRIES).sync(false);
+
+		assertThat(result.copiedToPostgres()).isEqualTo(1);
+		assertThat(result.copiedToMysql()).isEqualTo(1);
+		assertThat(result.conflictsResolved()).isEqualTo(1);
+		assertThat(postgresJdbc.queryForList("SELECT name FROM countries ORDER BY code", String.class))
+				.containsExactly("India", "Germany", "Peru");
+	}
+
+	@Test
+	void tablesWithoutMarkerAreOnlyReconciledOncePerInterval() throws Exception {
+		TableSync sync = sync(COUNTRIES);
+		sync.sync(false);
+		new JdbcTemplate(mysql).update("INSERT INTO countries VALUES (9, 'India')");
+
+		assertThat(sync.sync(false).copiedToPostgres()).isZero();
+		assertThat(sync.sync(true).copiedToPostgres()).isEqualTo(1);
+	}
+
+	@Test
+	void checkpointStopsInFrontOfTheFirstRowThatFailed() throws Exception {
+		TableSync sync = sync(ORDERS);
+		sync.sync(false);
+		new JdbcTemplate(postgres).execute("ALTER TABLE orders ADD CONSTRAINT no_refunds CHECK (total >= 0)");
+		order(mysql, "A-1", "10.00", ChangeMarkers.next());
+		long refund = ChangeMarkers.next();
+		order(mysql, "A-2", "-5.00", refund);
+		order(mysql, "A-3", "30.00", ChangeMarkers.next());
+
+		ReconciliationResult result = sync.sync(false);
+
+		assertThat(result.failed()).isEqualTo(1);
+		assertThat(new JdbcTemplate(postgres).queryForObject(
+				"SELECT last_key FROM sync_checkpoint WHERE name = 'orders:mysql-to-postgres'", String.class))
+				.isEqualTo("A-1");
+
+		// once the target accepts the row, the next cycle picks it up again
+		new JdbcTemplate(postgres).execute("ALTER TABLE orders DROP CONSTRAINT no_refunds");
+		sync.sync(false);
+		assertThat(orders(postgres)).isEqualTo(orders(mysql)).hasSize(3);
+		assertThat(orders(postgres).get(1).get("MODIFIED_AT")).isEqualTo(refund);
+	}
+}
@@ -0,0 +1,63 @@
+package com.webkorps.sync_db.sync;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserIdsTests {
+
+	@AfterEach
+	void tearDown() {
+		UserIds.setNodeId(0);
+	}
+
+	@Test
+	void idsAreUniqueAndIncreasingAcrossThreads() {
+		List<CompletableFuture<List<Long>>> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(CompletableFuture.supplyAsync(() -> {
+				List<Long> ids = new ArrayList<>();
+				for (int i = 0; i < 20_000; i++) {
+					ids.add(UserIds.next());
+				}
+				return ids;
+			}));
+		}
+
+		List<Long> all = new ArrayList<>();
+		for (CompletableFuture<List<Long>> thread : threads) {
+			List<Long> ids = thread.join();
+			assertThat(ids).isSorted();
+			all.addAll(ids);
+		}
+		assertThat(all).doesNotHaveDuplicates().allMatch(UserIds::isShared);
+		assertThat(Collections.min(all)).isGreaterThan(UserIds.FIRST_SHARED_ID);
+	}
+
+	@Test
+	void nodeIdIsPartOfTheId() {
+		UserIds.setNodeId(5);
+
+		assertThat((UserIds.next() >> 12) & UserIds.MAX_NODE_ID).isEqualTo(5);
+		assertThatThrownBy(() -> UserIds.setNodeId(UserIds.MAX_NODE_ID + 1)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void agreeingPrefersExistingSharedIds() {
+		long older = UserIds.next();
+		long newer = UserIds.next();
+
+		assertThat(UserIds.agree(newer, older)).isEqualTo(older);
+		assertThat(UserIds.agree(7L, newer)).isEqualTo(newer);
+		assertThat(UserIds.agree(7L, 8L)).isGreaterThan(newer);
+		// a legacy id both databases already use stays
+		assertThat(UserIds.agree(7L, 7L)).isEqualTo(7L);
+	}
+}
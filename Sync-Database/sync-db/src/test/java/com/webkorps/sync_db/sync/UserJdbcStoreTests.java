@@ -0,0 +1,130 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserJdbcStoreTests {
+
+	private SingleConnectionDataSource dataSource;
+	private UserJdbcStore store;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = TestDatabases.h2("MySQL");
+		store = new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, dataSource);
+	}
+
+	@AfterEach
+	void tearDown() {
+		dataSource.destroy();
+	}
+
+	@Test
+	void upsertByEmailCreatesOrRenamesKeepingTheId() {
+		UserRow created = store.upsertByEmail("Ann", "ann@x", 100);
+		assertThat(UserIds.isShared(created.id())).isTrue();
+		assertThat(created).isEqualTo(new UserRow(created.id(), "Ann", "ann@x", 100L));
+
+		assertThat(store.upsertByEmail("Ann B", "ann@x", 200))
+				.isEqualTo(new UserRow(created.id(), "Ann B", "ann@x", 200L));
+		// a write older than the stored one, e.g. from a skewed clock, does not win
+		assertThat(store.upsertByEmail("Ann A", "ann@x", 150))
+				.isEqualTo(new UserRow(created.id(), "Ann B", "ann@x", 200L));
+		assertThat(new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isEqualTo(1);
+	}
+
+	@Test
+	void pagesFollowCodePointOrderOfTheEmail() {
+		store.insertMissing(List.of(new UserRow(null, "A", "a@x", 1L), new UserRow(null, "B", "B@x", 1L),
+				new UserRow(null, "C", "c@x", 1L)));
+
+		assertThat(store.findPageAfterEmail("", 2)).extracting(UserRow::email).containsExactly("B@x", "a@x");
+		assertThat(store.findPageAfterEmail("a@x", 2)).extracting(UserRow::email).containsExactly("c@x");
+	}
+
+	@Test
+	void hashPrefixesAreReadAsRangesOfTheStoredEmailHash() throws Exception {
+		// md5 of ann@x, bob@x and cid@x start with different digits
+		store.insertMissing(List.of(new UserRow(null, "Ann", "ann@x", 1L), new UserRow(null, "Bob", "bob@x", 1L),
+				new UserRow(null, "Cid", "cid@x", 1L)));
+		String annHash = TestDatabases.md5("ann@x");
+		assertThat(new JdbcTemplate(dataSource).queryForObject("SELECT email_hash FROM users WHERE email = 'ann@x'",
+				String.class)).isEqualTo(annHash);
+
+		assertThat(store.findByEmailHashPrefix(annHash.substring(0, 2))).extracting(UserRow::email).containsExactly("ann@x");
+		assertThat(store.checksumBuckets(annHash.substring(0, 1), 3)).containsOnlyKeys(annHash.substring(0, 3));
+		assertThat(store.checksumBuckets("", 32)).hasSize(3);
+
+		assertThat(UserJdbcStore.HashRange.prefixEnd("3a")).isEqualTo("3b");
+		assertThat(UserJdbcStore.HashRange.prefixEnd("3f")).isEqualTo("4");
+		assertThat(UserJdbcStore.HashRange.prefixEnd("9")).isEqualTo("a");
+		assertThat(UserJdbcStore.HashRange.prefixEnd("ff")).isNull();
+	}
+
+	@Test
+	void partitionsHoldEachUserOnce() throws Exception {
+		List<UserRow> rows = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			rows.add(new UserRow(null, "U" + i, "u" + i + "@x", 1L));
+		}
+		store.insertMissing(rows);
+
+		List<String> seen = new ArrayList<>();
+		for (EmailPartition partition : EmailPartition.split(3)) {
+			try (RowCursor<UserRow> cursor = store.openEmailCursor(10, partition, "")) {
+				for (; cursor.current() != null; cursor.advance()) {
+					String hash = TestDatabases.md5(cursor.current().email()).substring(0, 2);
+					assertThat(hash).isBetween(partition.lowPrefix(), partition.highPrefix());
+					seen.add(cursor.current().email());
+				}
+			}
+		}
+		assertThat(seen).containsExactlyInAnyOrderElementsOf(rows.stream().map(UserRow::email).toList());
+	}
+
+	@Test
+	void upsertsOnlyWriteAndCountRowsNewerThanStored() {
+		store.insertMissing(List.of(new UserRow(null, "Ann", "ann@x", 5L), new UserRow(null, "Bob", "bob@x", 5L)));
+
+		// ann is already stored at this marker, e.g. replicated by the outbox, and bob's change is older
+		assertThat(store.upsertNewer(List.of(new UserRow(null, "Ann", "ann@x", 5L), new UserRow(null, "Bobby", "bob@x", 4L),
+				new UserRow(null, "Cid", "cid@x", 5L)))).isEqualTo(1);
+		assertThat(store.upsertNewer(List.of(new UserRow(null, "Bobby", "bob@x", 6L)))).isEqualTo(1);
+		assertThat(store.findMarkersByEmail(List.of("ann@x", "bob@x", "cid@x")))
+				.containsEntry("ann@x", 5L).containsEntry("bob@x", 6L).containsEntry("cid@x", 5L);
+	}
+
+	@Test
+	void rowsWithoutReportedCountAreNotTakenForChanges() {
+		int[][] rewritten = {{Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}, {1, 0}};
+
+		assertThat(UserJdbcStore.countAffected(rewritten)).isEqualTo(1);
+		assertThat(UserJdbcStore.countWritten(rewritten)).isEqualTo(3);
+	}
+
+	@Test
+	void nativeUpsertsOnlyUpdateTheGivenColumns() {
+		List<String> columns = List.of("id", "name", "email", "modified_at");
+		List<String> updated = List.of("name", "modified_at");
+
+		assertThat(DatabaseDialect.MYSQL.upsert("users", "email", columns, updated, "modified_at"))
+				.contains("ON DUPLICATE KEY UPDATE name = ")
+				.doesNotContain("id = ")
+				.endsWith("modified_at = IF(modified_at IS NULL OR modified_at < VALUES(modified_at),"
+						+ " VALUES(modified_at), modified_at)");
+		assertThat(DatabaseDialect.POSTGRESQL.upsert("users", "email", columns, updated, "modified_at"))
+				.contains("ON CONFLICT (email) DO UPDATE SET name = EXCLUDED.name, modified_at = EXCLUDED.modified_at WHERE")
+				.doesNotContain("id = ");
+	}
+}
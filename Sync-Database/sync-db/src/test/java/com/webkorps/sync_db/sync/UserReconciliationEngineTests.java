@@ -0,0 +1,242 @@
+package com.webkorps.sync_db.sync;
+
+import com.webkorps.sync_db.H2SqlDialect;
+import com.webkorps.sync_db.TestDatabases;
+import com.webkorps.sync_db.cache.UserCache;
+import com.webkorps.sync_db.entity.SyncCheckpoint;
+import com.webkorps.sync_db.entity.User;
+import com.webkorps.sync_db.entity.UserTombstone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserReconciliationEngineTests {
+
+	private SingleConnectionDataSource mysql;
+	private SingleConnectionDataSource postgres;
+	private UserJdbcStore mysqlStore;
+	private UserJdbcStore postgresStore;
+	private UserReconciliationEngine engine;
+
+	@BeforeEach
+	void setUp() {
+		mysql = TestDatabases.h2("MySQL");
+		postgres = TestDatabases.h2("PostgreSQL");
+		mysqlStore = new UserJdbcStore("MySQL", H2SqlDialect.INSTANCE, mysql);
+		postgresStore = new UserJdbcStore("PostgreSQL", H2SqlDialect.INSTANCE, postgres);
+		engine = engine(new LastWriterWinsPolicy());
+	}
+
+	private UserReconciliationEngine engine(ConflictPolicy conflictPolicy) {
+		return engine(conflictPolicy, new UserCache(100, 1000, 1000));
+	}
+
+	private UserReconciliationEngine engine(ConflictPolicy conflictPolicy, UserCache cache) {
+		UserReconciliationEngine engine = new UserReconciliationEngine(mysqlStore, postgresStore,
+				cache, new SyncConnectionBudget(4, 4), conflictPolicy, 2,
+				new SyncBatchStats());
+		ReflectionTestUtils.setField(engine, "pageSize", 2);
+		ReflectionTestUtils.setField(engine, "batchSize", 2);
+		ReflectionTestUtils.setField(engine, "partitionCount", 1);
+		ReflectionTestUtils.setField(engine, "checkpointEvery", 2);
+		ReflectionTestUtils.setField(engine, "tombstoneRetentionMillis", 60_000L);
+		return engine;
+	}
+
+	@AfterEach
+	void tearDown() {
+		engine.stop();
+		mysql.destroy();
+		postgres.destroy();
+	}
+
+	private static UserRow row(String email, long marker) {
+		return new UserRow(null, "name of " + email, email, marker);
+	}
+
+	private static List<String> names(SingleConnectionDataSource dataSource) {
+		return new JdbcTemplate(dataSource).queryForList("SELECT name FROM users ORDER BY email", String.class);
+	}
+
+	private static List<String> emails(SingleConnectionDataSource dataSource) {
+		return new JdbcTemplate(dataSource).queryForList("SELECT email FROM users ORDER BY email", String.class);
+	}
+
+	private static List<Long> ids(SingleConnectionDataSource dataSource) {
+		return new JdbcTemplate(dataSource).queryForList("SELECT id FROM users ORDER BY email", Long.class);
+	}
+
+	@Test
+	void copiesRowsMissingOnEitherSide() throws Exception {
+		mysqlStore.insertMissing(List.of(row("a@x", 1), row("B@x", 1), row("c@x", 1), row("e@x", 1)));
+		postgresStore.insertMissing(List.of(row("a@x", 1), row("Zed@x", 1), row("d@x", 1)));
+
+		ReconciliationResult result = engine.reconcile();
+
+		assertThat(result.mysqlScanned()).isEqualTo(4);
+		assertThat(result.postgresScanned()).isEqualTo(3);
+		assertThat(result.copiedToPostgres()).isEqualTo(3);
+		assertThat(result.copiedToMysql()).isEqualTo(2);
+		assertThat(result.failed()).isZero();
+		assertThat(emails(mysql)).containsExactly("B@x", "Zed@x", "a@x", "c@x", "d@x", "e@x");
+		assertThat(emails(postgres)).isEqualTo(emails(mysql));
+
+		assertThat(engine.reconcile().hadDivergence()).isFalse();
+	}
+
+	@Test
+	void reconcilesPartitionsInParallel() throws Exception {
+		ReflectionTestUtils.setField(engine, "partitionCount", 4);
+		List<UserRow> rows = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			rows.add(row("user" + i + "@x", 1));
+		}
+		mysqlStore.insertMissing(rows.subList(0, 30));
+		postgresStore.insertMissing(rows.subList(10, 40));
+
+		ReconciliationResult result = engine.reconcile();
+
+		assertThat(result.mysqlScanned()).isEqualTo(30);
+		assertThat(result.postgresScanned()).isEqualTo(30);
+		assertThat(result.copiedToPostgres()).isEqualTo(10);
+		assertThat(result.copiedToMysql()).isEqualTo(10);
+		assertThat(emails(mysql)).hasSize(40).isEqualTo(emails(postgres));
+		assertThat(mysqlStore.loadCheckpoints("users:reconcile:")).isEmpty();
+	}
+
+	@Test
+	void resumesFromCheckpointsOfAnInterruptedPass() throws Exception {
+		ReflectionTestUtils.setField(engine, "partitionCount", 2);
+		mysqlStore.insertMissing(List.of(row("a@x", 1), row("b@x", 1), row("c@x", 1), row("d@x", 1)));
+		EmailPartition first = new EmailPartition(0, 2);
+		EmailPartition second = new EmailPartition(1, 2);
+		List<String> inFirst = new ArrayList<>();
+		try (RowCursor<UserRow> cursor = mysqlStore.openEmailCursor(10, first, "")) {
+			for (; cursor.current() != null; cursor.advance()) {
+				inFirst.add(cursor.current().email());
+			}
+		}
+		// first partition finished before the interruption, second one never got going
+		mysqlStore.saveCheckpoint(new SyncCheckpoint("users:reconcile:" + first.name(), 1L, ""));
+		mysqlStore.saveCheckpoint(new SyncCheckpoint("users:reconcile:" + second.name(), 0L, ""));
+
+		ReconciliationResult result = engine.reconcile();
+
+		assertThat(result.copiedToPostgres()).isEqualTo(4 - inFirst.size());
+		assertThat(emails(postgres)).doesNotContainAnyElementsOf(inFirst);
+		assertThat(mysqlStore.loadCheckpoints("users:reconcile:")).isEmpty();
+	}
+
+	@Test
+	void newerVersionWinsConflicts() throws Exception {
+		mysqlStore.insertMissing(List.of(new UserRow(null, "old name", "a@x", 1L), new UserRow(null, "new name", "b@x", 5L)));
+		postgresStore.insertMissing(List.of(new UserRow(null, "new name", "a@x", 2L), new UserRow(null, "old name", "b@x", 4L)));
+
+		ReconciliationResult result = engine.reconcile();
+
+		assertThat(result.conflictsResolved()).isEqualTo(2);
+		assertThat(names(mysql)).containsExactly("new name", "new name");
+		assertThat(names(postgres)).containsExactly("new name", "new name");
+		assertThat(engine.reconcile().hadDivergence()).isFalse();
+	}
+
+	@Test
+	void primaryWinsKeepsMysqlVersion() throws Exception {
+		engine.stop();
+		engine = engine(new PrimaryWinsPolicy());
+		mysqlStore.insertMissing(List.of(new UserRow(null, "primary", "a@x", 1L)));
+		postgresStore.insertMissing(List.of(new UserRow(null, "failover", "a@x", 2L)));
+
+		engine.reconcile();
+
+		assertThat(names(postgres)).containsExactly("primary");
+		assertThat(engine.reconcile().hadDivergence()).isFalse();
+	}
+
+	@Test
+	void deletesAreNotResurrected() throws Exception {
+		long written = ChangeMarkers.next();
+		mysqlStore.insertMissing(List.of(row("a@x", written), row("b@x", written)));
+		postgresStore.insertMissing(List.of(row("a@x", written), row("b@x", written)));
+		// deleted on MySQL while PostgreSQL was unreachable, then b@x was changed on PostgreSQL afterwards
+		long deleted = ChangeMarkers.next();
+		mysqlStore.applyDeletes(List.of(new UserTombstone("a@x", deleted), new UserTombstone("b@x", deleted)));
+		postgresStore.upsertNewer(List.of(new UserRow(null, "changed", "b@x", ChangeMarkers.next())));
+
+		ReconciliationResult result = engine.reconcile();
+
+		assertThat(result.deletesApplied()).isEqualTo(1);
+		assertThat(result.copiedToMysql()).isEqualTo(1);
+		assertThat(emails(mysql)).containsExactly("b@x");
+		assertThat(emails(postgres)).containsExactly("b@x");
+		assertThat(postgresStore.findTombstones(List.of("a@x"))).containsEntry("a@x", deleted);
+		assertThat(engine.reconcile().hadDivergence()).isFalse();
+
+		// replaying an older change must not bring a@x back either
+		assertThat(postgresStore.upsertNewer(List.of(row("a@x", written)))).isZero();
+	}
+
+	@Test
+	void usersEndUpWithTheSameIdOnBothSides() throws Exception {
+		long shared = UserIds.next();
+		// auto-increment ids from before ids were shared: 1 is a@x on MySQL but b@x on PostgreSQL,
+		// 3 is free on PostgreSQL, 4 is taken there by another user
+		new JdbcTemplate(mysql).update("INSERT INTO users (id, name, email, modified_at) VALUES"
+				+ " (1, 'A', 'a@x', 1), (2, 'B', 'b@x', 1), (3, 'C', 'c@x', 1), (4, 'E', 'e@x', 1)");
+		new JdbcTemplate(postgres).update("INSERT INTO users (id, name, email, modified_at) VALUES"
+				+ " (1, 'B', 'b@x', 1), (2, 'A', 'a@x', 1), (?, 'D', 'd@x', 1), (4, 'F', 'f@x', 1)", shared);
+
+		ReconciliationResult result = engine.reconcile();
+
+		assertThat(result.conflictsResolved()).isEqualTo(2);
+		assertThat(result.copiedToPostgres()).isEqualTo(2);
+		assertThat(result.copiedToMysql()).isEqualTo(2);
+		assertThat(ids(mysql)).isEqualTo(ids(postgres)).doesNotHaveDuplicates().contains(shared, 3L);
+		// a@x, b@x: held under different ids; e@x or f@x: needed a free id on the other side
+		assertThat(ids(mysql).subList(0, 2)).allMatch(UserIds::isShared);
+		assertThat(ids(mysql).subList(4, 6)).containsAnyOf(4L).anyMatch(UserIds::isShared);
+		assertThat(engine.reconcile().hadDivergence()).isFalse();
+	}
+
+	@Test
+	void conflictsKeepALegacyIdBothSidesShare() throws Exception {
+		UserCache cache = new UserCache(100, 1000, 1000);
+		engine.stop();
+		engine = engine(new LastWriterWinsPolicy(), cache);
+		new JdbcTemplate(mysql).update("INSERT INTO users (id, name, email, modified_at) VALUES (5, 'Old', 'a@x', 1),"
+				+ " (6, 'B', 'b@x', 1)");
+		new JdbcTemplate(postgres).update("INSERT INTO users (id, name, email, modified_at) VALUES (5, 'New', 'a@x', 2),"
+				+ " (7, 'B', 'b@x', 1)");
+		cache.put(new User(6L, "B", "b@x", 1L));
+
+		engine.reconcile();
+
+		assertThat(ids(mysql)).isEqualTo(ids(postgres)).startsWith(5L);
+		assertThat(names(mysql)).containsExactly("New", "B");
+		// b@x moved to a new id and is read again; a lookup by its old id must not find it in the cache
+		cache.put(new User(ids(mysql).get(1), "B", "b@x", 1L));
+		assertThat(cache.getStaleById(6L)).isEmpty();
+	}
+
+	@Test
+	void upsertOnlyOverwritesOlderRows() {
+		mysqlStore.insertMissing(List.of(row("a@x", 5), row("b@x", 5)));
+
+		int applied = mysqlStore.upsertNewer(List.of(
+				new UserRow(null, "older", "a@x", 4L),
+				new UserRow(null, "newer", "b@x", 6L),
+				new UserRow(null, "new", "c@x", 1L)));
+
+		assertThat(applied).isEqualTo(2);
+		assertThat(new JdbcTemplate(mysql).queryForList("SELECT name FROM users ORDER BY email", String.class))
+				.containsExactly("name of a@x", "newer", "new");
+	}
+}